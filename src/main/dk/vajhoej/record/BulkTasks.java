@@ -0,0 +1,156 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class BulkTasks reads and writes arrays of fixed length structs in parallel in the common ForkJoinPool.
+ * <br>
+ * The array is split by record index, and each task reads or writes its records with its own StructReader
+ * or StructWriter directly from or into the shared array.
+ */
+final class BulkTasks {
+    // records below which a task is not split
+    private static final int THRESHOLD = 1024;
+    private BulkTasks() {
+    }
+    // carries RecordException out of tasks
+    private static class TaskException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        TaskException(RecordException e) {
+            super(e);
+        }
+    }
+    private static class ReadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Class<?> t;
+        private final byte[] b;
+        private final int reclen;
+        private final Object[] res;
+        private final int lo;
+        private final int hi;
+        ReadTask(Class<?> t, byte[] b, int reclen, Object[] res, int lo, int hi) {
+            this.t = t;
+            this.b = b;
+            this.reclen = reclen;
+            this.res = res;
+            this.lo = lo;
+            this.hi = hi;
+        }
+        @Override
+        protected void compute() {
+            if(hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ReadTask(t, b, reclen, res, lo, mid), new ReadTask(t, b, reclen, res, mid, hi));
+                return;
+            }
+            StructReader sr = new StructReader(b, lo * reclen, (hi - lo) * reclen);
+            try {
+                for(int i = lo; i < hi; i++) {
+                    res[i] = sr.read(t);
+                }
+            } catch(RecordException e) {
+                throw new TaskException(e);
+            }
+        }
+    }
+    private static class WriteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<?> lst;
+        private final byte[] b;
+        private final int reclen;
+        private final int lo;
+        private final int hi;
+        WriteTask(List<?> lst, byte[] b, int reclen, int lo, int hi) {
+            this.lst = lst;
+            this.b = b;
+            this.reclen = reclen;
+            this.lo = lo;
+            this.hi = hi;
+        }
+        @Override
+        protected void compute() {
+            if(hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new WriteTask(lst, b, reclen, lo, mid), new WriteTask(lst, b, reclen, mid, hi));
+                return;
+            }
+            StructWriter sw = new StructWriter(ByteBuffer.wrap(b, lo * reclen, (hi - lo) * reclen));
+            try {
+                for(int i = lo; i < hi; i++) {
+                    sw.write(lst.get(i));
+                }
+            } catch(RecordException e) {
+                throw new TaskException(e);
+            }
+        }
+    }
+    // the pool may wrap the exception again when rethrowing it in another thread
+    private static RecordException unwrap(TaskException e) {
+        Throwable cause = e;
+        while(!(cause instanceof RecordException)) {
+            cause = cause.getCause();
+        }
+        return (RecordException)cause;
+    }
+    /**
+     * Read array of fixed length structs.
+     * @param t type
+     * @param b byte array
+     * @param reclen record length
+     * @return fixed size list backed by the array the tasks read into
+     * @throws RecordException if problem with record definition
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> readAll(Class<T> t, byte[] b, int reclen) throws RecordException {
+        if(b.length % reclen != 0) {
+            throw new RecordException("Byte array with length " + b.length + " does not contain whole records of length " + reclen);
+        }
+        Object[] res = new Object[b.length / reclen];
+        try {
+            ForkJoinPool.commonPool().invoke(new ReadTask(t, b, reclen, res, 0, res.length));
+        } catch(TaskException e) {
+            throw unwrap(e);
+        }
+        return Arrays.asList((T[])res);
+    }
+    /**
+     * Write list of objects into array of fixed length structs.
+     * @param lst list of objects (must support fast random access)
+     * @param reclen record length
+     * @return byte array
+     * @throws RecordException if problem with record definition
+     */
+    static byte[] writeAll(List<?> lst, int reclen) throws RecordException {
+        if((long)lst.size() * reclen > Integer.MAX_VALUE) {
+            throw new RecordException(lst.size() + " records of length " + reclen + " do not fit in a byte array");
+        }
+        byte[] res = new byte[lst.size() * reclen];
+        try {
+            ForkJoinPool.commonPool().invoke(new WriteTask(lst, res, reclen, 0, lst.size()));
+        } catch(TaskException e) {
+            throw unwrap(e);
+        }
+        return res;
+    }
+}
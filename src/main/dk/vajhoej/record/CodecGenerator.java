@@ -0,0 +1,550 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class CodecGenerator generates a StructCodec as a hidden class for a struct.
+ * <br>
+ * The generated code sets the byte order and reads and writes the fields and padding with
+ * straight-line ByteBuffer calls and direct field access. Only structs consisting entirely of integer and IEEE floating point fields
+ * declared in the struct class itself and without selectors are supported. For everything
+ * else null is returned and the field codecs are used.
+ */
+class CodecGenerator {
+    private static Logger log = Logger.getLogger(CodecGenerator.class.getName());
+    private static final String BB = "java/nio/ByteBuffer";
+    private static final String CODEC = "dk/vajhoej/record/StructCodec";
+    private static final int MAXPAD = 8;
+    /**
+     * Generate codec for struct.
+     * @param clz class implementing struct
+     * @param si StructInfo for class
+     * @return codec or null if the struct is not supported
+     */
+    @SuppressWarnings("unchecked")
+    static StructCodec<Object> generate(Class<?> clz, StructInfo si) {
+        if(!isSupported(clz, si)) {
+            log.finer(clz.getName() + " not supported by code generation");
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clz, MethodHandles.lookup());
+            byte[] b = new CodecGenerator(clz, si).generate();
+            MethodHandles.Lookup gen = lookup.defineHiddenClass(b, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            StructCodec<Object> res = (StructCodec<Object>)gen.findConstructor(gen.lookupClass(), MethodType.methodType(void.class)).invoke();
+            log.finer("Codec generated for " + clz.getName());
+            return res;
+        } catch(Throwable e) {
+            if(e instanceof Error && !(e instanceof LinkageError)) {
+                throw (Error)e;
+            }
+            if(log.isLoggable(Level.FINER)) {
+                log.finer("Codec generation failed for " + clz.getName() + ": " + e);
+            }
+            return null;
+        }
+    }
+    static boolean isSupported(Class<?> clz, StructInfo si) {
+        if(clz.isHidden() || clz.isArray() || clz.isPrimitive() || Modifier.isAbstract(clz.getModifiers()) || si.isStaged()) {
+            return false;
+        }
+        try {
+            clz.getDeclaredConstructor();
+        } catch(NoSuchMethodException e) {
+            return false;
+        }
+        for(FieldCodec fc : si.getCodecs()) {
+            FieldInfo fi = fc.getFieldInfo();
+            Field f = fi.getField();
+            if(fi.getSelects() != null || fi.getElements() != 1 || fc.align > MAXPAD) {
+                return false;
+            }
+            if(f.getDeclaringClass() != clz || (f.getModifiers() & (Modifier.FINAL | Modifier.STATIC)) != 0) {
+                return false;
+            }
+            if(!(fc instanceof FieldCodec.Int1 || fc instanceof FieldCodec.Int2 || fc instanceof FieldCodec.Int4 || fc instanceof FieldCodec.Int8 ||
+                 fc instanceof FieldCodec.UInt1 || fc instanceof FieldCodec.UInt2 || fc instanceof FieldCodec.UInt4 ||
+                 fc instanceof FieldCodec.FP4 || fc instanceof FieldCodec.FP8)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    // opcodes used
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD_1 = 0x1B;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int ALOAD_3 = 0x2D;
+    private static final int ASTORE_3 = 0x4E;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int SWAP = 0x5F;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IREM = 0x70;
+    private static final int IAND = 0x7E;
+    private static final int LAND = 0x7F;
+    private static final int I2L = 0x85;
+    private static final int L2I = 0x88;
+    private static final int I2B = 0x91;
+    private static final int I2S = 0x93;
+    private static final int IF_ICMPGE = 0xA2;
+    private static final int ARETURN = 0xB0;
+    private static final int RETURN = 0xB1;
+    private static final int GETSTATIC = 0xB2;
+    private static final int PUTSTATIC = 0xB3;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int NEW = 0xBB;
+    private static final int NEWARRAY = 0xBC;
+    private static final int ATHROW = 0xBF;
+    private static final int CHECKCAST = 0xC0;
+    private static final int T_BYTE = 8;
+    // offset of code after the throw in skip
+    private static final int SKIPTARGET = 16;
+    private final StructInfo si;
+    private final String name;
+    private final String owner;
+    private final ByteArrayOutputStream cpbuf = new ByteArrayOutputStream();
+    private final DataOutputStream cp = new DataOutputStream(cpbuf);
+    private final Map<String, Integer> cpix = new HashMap<String, Integer>();
+    private int cpcount = 1;
+    private CodecGenerator(Class<?> clz, StructInfo si) {
+        this.si = si;
+        owner = clz.getName().replace('.', '/');
+        name = owner + "$$StructCodec";
+    }
+    private byte[] generate() throws IOException {
+        byte[] init = init();
+        byte[] clinit = clinit();
+        byte[] create = create();
+        byte[] read = read();
+        byte[] write = write();
+        byte[] skip = skip();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        int thisix = classRef(name);
+        int superix = classRef("java/lang/Object");
+        int codecix = classRef(CODEC);
+        int zeroname = utf8("ZERO");
+        int bytesdesc = utf8("[B");
+        int[][] methods = { { 0x0001, utf8("<init>"), utf8("()V"), 1, 1 },
+                            { 0x0008, utf8("<clinit>"), utf8("()V"), 1, 0 },
+                            { 0x0001, utf8("create"), utf8("()Ljava/lang/Object;"), 2, 1 },
+                            { 0x0001, utf8("read"), utf8("(L" + BB + ";Ljava/lang/Object;)V"), 6, 4 },
+                            { 0x0001, utf8("write"), utf8("(L" + BB + ";Ljava/lang/Object;)V"), 6, 4 },
+                            { 0x000A, utf8("skip"), utf8("(L" + BB + ";I)V"), 3, 2 } };
+        byte[][] code = { init, clinit, create, read, write, skip };
+        // stack map frames for methods with branches (same frame at each offset)
+        int[][] frames = { null, null, null, null, null, { SKIPTARGET } };
+        int codename = utf8("Code");
+        int stackmapname = utf8("StackMapTable");
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(55);
+        out.writeShort(cpcount);
+        out.write(cpbuf.toByteArray());
+        out.writeShort(0x0031); // public final super
+        out.writeShort(thisix);
+        out.writeShort(superix);
+        out.writeShort(1);
+        out.writeShort(codecix);
+        out.writeShort(1);
+        out.writeShort(0x001A); // private static final
+        out.writeShort(zeroname);
+        out.writeShort(bytesdesc);
+        out.writeShort(0);
+        out.writeShort(methods.length);
+        for(int i = 0; i < methods.length; i++) {
+            out.writeShort(methods[i][0]);
+            out.writeShort(methods[i][1]);
+            out.writeShort(methods[i][2]);
+            int stackmaplen = frames[i] != null ? 8 + frames[i].length : 0;
+            out.writeShort(1);
+            out.writeShort(codename);
+            out.writeInt(12 + code[i].length + stackmaplen);
+            out.writeShort(methods[i][3]);
+            out.writeShort(methods[i][4]);
+            out.writeInt(code[i].length);
+            out.write(code[i]);
+            out.writeShort(0);
+            if(frames[i] != null) {
+                out.writeShort(1);
+                out.writeShort(stackmapname);
+                out.writeInt(2 + frames[i].length);
+                out.writeShort(frames[i].length);
+                int prev = -1;
+                for(int offset : frames[i]) {
+                    // same_frame with offset delta
+                    out.writeByte(offset - prev - 1);
+                    prev = offset;
+                }
+            } else {
+                out.writeShort(0);
+            }
+        }
+        out.writeShort(0);
+        out.flush();
+        return bos.toByteArray();
+    }
+    private byte[] init() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(ALOAD_0);
+        code.writeByte(INVOKESPECIAL);
+        code.writeShort(methodRef("java/lang/Object", "<init>", "()V"));
+        code.writeByte(RETURN);
+        return bos.toByteArray();
+    }
+    private byte[] clinit() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(BIPUSH);
+        code.writeByte(MAXPAD);
+        code.writeByte(NEWARRAY);
+        code.writeByte(T_BYTE);
+        code.writeByte(PUTSTATIC);
+        code.writeShort(fieldRef(name, "ZERO", "[B"));
+        code.writeByte(RETURN);
+        return bos.toByteArray();
+    }
+    private byte[] create() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(NEW);
+        code.writeShort(classRef(owner));
+        code.writeByte(DUP);
+        code.writeByte(INVOKESPECIAL);
+        code.writeShort(methodRef(owner, "<init>", "()V"));
+        code.writeByte(ARETURN);
+        return bos.toByteArray();
+    }
+    private byte[] read() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(ALOAD_2);
+        code.writeByte(CHECKCAST);
+        code.writeShort(classRef(owner));
+        code.writeByte(ASTORE_3);
+        order(code);
+        for(FieldCodec fc : si.getCodecs()) {
+            // skip padding by advancing position
+            if(fc.align > 1) {
+                code.writeByte(ALOAD_1);
+                pad(code, fc.align);
+                code.writeByte(INVOKESTATIC);
+                code.writeShort(methodRef(name, "skip", "(L" + BB + ";I)V"));
+            }
+            Field f = fc.getFieldInfo().getField();
+            String desc = descriptor(f.getType());
+            code.writeByte(ALOAD_3);
+            code.writeByte(ALOAD_1);
+            if(fc instanceof FieldCodec.Int1) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "get", "()B"));
+            } else if(fc instanceof FieldCodec.Int2) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getShort", "()S"));
+            } else if(fc instanceof FieldCodec.Int4) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getInt", "()I"));
+            } else if(fc instanceof FieldCodec.Int8) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getLong", "()J"));
+            } else if(fc instanceof FieldCodec.UInt1) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "get", "()B"));
+                code.writeByte(SIPUSH);
+                code.writeShort(0xFF);
+                code.writeByte(IAND);
+            } else if(fc instanceof FieldCodec.UInt2) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getShort", "()S"));
+                code.writeByte(LDC_W);
+                code.writeShort(integer(0xFFFF));
+                code.writeByte(IAND);
+            } else if(fc instanceof FieldCodec.UInt4) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getInt", "()I"));
+                code.writeByte(I2L);
+                code.writeByte(LDC2_W);
+                code.writeShort(lng(0xFFFFFFFFL));
+                code.writeByte(LAND);
+            } else if(fc instanceof FieldCodec.FP4) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getFloat", "()F"));
+            } else if(fc instanceof FieldCodec.FP8) {
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "getDouble", "()D"));
+            }
+            code.writeByte(PUTFIELD);
+            code.writeShort(fieldRef(owner, f.getName(), desc));
+        }
+        // skip end padding
+        if(si.getEndpad() && endAlign() > 1) {
+            code.writeByte(ALOAD_1);
+            pad(code, endAlign());
+            code.writeByte(INVOKESTATIC);
+            code.writeShort(methodRef(name, "skip", "(L" + BB + ";I)V"));
+        }
+        code.writeByte(RETURN);
+        return bos.toByteArray();
+    }
+    private byte[] write() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(ALOAD_2);
+        code.writeByte(CHECKCAST);
+        code.writeShort(classRef(owner));
+        code.writeByte(ASTORE_3);
+        order(code);
+        for(FieldCodec fc : si.getCodecs()) {
+            // write padding from zero array
+            if(fc.align > 1) {
+                code.writeByte(ALOAD_1);
+                code.writeByte(GETSTATIC);
+                code.writeShort(fieldRef(name, "ZERO", "[B"));
+                code.writeByte(ICONST_0);
+                pad(code, fc.align);
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodRef(BB, "put", "([BII)L" + BB + ";"));
+                code.writeByte(POP);
+            }
+            Field f = fc.getFieldInfo().getField();
+            String desc = descriptor(f.getType());
+            code.writeByte(ALOAD_1);
+            code.writeByte(ALOAD_3);
+            code.writeByte(GETFIELD);
+            code.writeShort(fieldRef(owner, f.getName(), desc));
+            int put;
+            if(fc instanceof FieldCodec.Int1 || fc instanceof FieldCodec.UInt1) {
+                code.writeByte(I2B);
+                put = methodRef(BB, "put", "(B)L" + BB + ";");
+            } else if(fc instanceof FieldCodec.Int2 || fc instanceof FieldCodec.UInt2) {
+                code.writeByte(I2S);
+                put = methodRef(BB, "putShort", "(S)L" + BB + ";");
+            } else if(fc instanceof FieldCodec.Int4) {
+                put = methodRef(BB, "putInt", "(I)L" + BB + ";");
+            } else if(fc instanceof FieldCodec.UInt4) {
+                code.writeByte(L2I);
+                put = methodRef(BB, "putInt", "(I)L" + BB + ";");
+            } else if(fc instanceof FieldCodec.Int8) {
+                put = methodRef(BB, "putLong", "(J)L" + BB + ";");
+            } else if(fc instanceof FieldCodec.FP4) {
+                put = methodRef(BB, "putFloat", "(F)L" + BB + ";");
+            } else {
+                put = methodRef(BB, "putDouble", "(D)L" + BB + ";");
+            }
+            code.writeByte(INVOKEVIRTUAL);
+            code.writeShort(put);
+            code.writeByte(POP);
+        }
+        // write end padding
+        if(si.getEndpad() && endAlign() > 1) {
+            code.writeByte(ALOAD_1);
+            code.writeByte(GETSTATIC);
+            code.writeShort(fieldRef(name, "ZERO", "[B"));
+            code.writeByte(ICONST_0);
+            pad(code, endAlign());
+            code.writeByte(INVOKEVIRTUAL);
+            code.writeShort(methodRef(BB, "put", "([BII)L" + BB + ";"));
+            code.writeByte(POP);
+        }
+        code.writeByte(RETURN);
+        return bos.toByteArray();
+    }
+    // skip(bb, n) advances position by n and throws BufferUnderflowException like a relative get if there are not n bytes left
+    private byte[] skip() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bos);
+        code.writeByte(ALOAD_0);
+        code.writeByte(INVOKEVIRTUAL);
+        code.writeShort(methodRef(BB, "remaining", "()I"));
+        code.writeByte(ILOAD_1);
+        code.writeByte(IF_ICMPGE);
+        code.writeShort(SKIPTARGET - bos.size() + 1);
+        code.writeByte(NEW);
+        code.writeShort(classRef("java/nio/BufferUnderflowException"));
+        code.writeByte(DUP);
+        code.writeByte(INVOKESPECIAL);
+        code.writeShort(methodRef("java/nio/BufferUnderflowException", "<init>", "()V"));
+        code.writeByte(ATHROW);
+        if(bos.size() != SKIPTARGET) {
+            throw new IllegalStateException("Branch target " + bos.size() + " in skip does not match stack map");
+        }
+        code.writeByte(ALOAD_0);
+        code.writeByte(ALOAD_0);
+        code.writeByte(INVOKEVIRTUAL);
+        code.writeShort(methodRef(BB, "position", "()I"));
+        code.writeByte(ILOAD_1);
+        code.writeByte(IADD);
+        code.writeByte(INVOKEVIRTUAL);
+        code.writeShort(methodRef(BB, "position", "(I)L" + BB + ";"));
+        code.writeByte(POP);
+        code.writeByte(RETURN);
+        return bos.toByteArray();
+    }
+    // sets byte order of buffer
+    private void order(DataOutputStream code) throws IOException {
+        code.writeByte(ALOAD_1);
+        code.writeByte(GETSTATIC);
+        code.writeShort(fieldRef("java/nio/ByteOrder", si.getEndianess() == Endian.LITTLE ? "LITTLE_ENDIAN" : "BIG_ENDIAN", "Ljava/nio/ByteOrder;"));
+        code.writeByte(INVOKEVIRTUAL);
+        code.writeShort(methodRef(BB, "order", "(Ljava/nio/ByteOrder;)L" + BB + ";"));
+        code.writeByte(POP);
+    }
+    // alignments are powers of two so largest alignment gives largest end padding
+    private int endAlign() {
+        int res = 1;
+        for(FieldCodec fc : si.getCodecs()) {
+            res = Math.max(res, fc.align);
+        }
+        return res;
+    }
+    // leaves (align - pos % align) % align on stack
+    private void pad(DataOutputStream code, int align) throws IOException {
+        code.writeByte(ALOAD_1);
+        code.writeByte(INVOKEVIRTUAL);
+        code.writeShort(methodRef(BB, "position", "()I"));
+        code.writeByte(BIPUSH);
+        code.writeByte(align);
+        code.writeByte(IREM);
+        code.writeByte(BIPUSH);
+        code.writeByte(align);
+        code.writeByte(SWAP);
+        code.writeByte(ISUB);
+        code.writeByte(BIPUSH);
+        code.writeByte(align);
+        code.writeByte(IREM);
+    }
+    private static String descriptor(Class<?> c) {
+        if(c == byte.class) {
+            return "B";
+        }
+        if(c == short.class) {
+            return "S";
+        }
+        if(c == int.class) {
+            return "I";
+        }
+        if(c == long.class) {
+            return "J";
+        }
+        if(c == float.class) {
+            return "F";
+        }
+        if(c == double.class) {
+            return "D";
+        }
+        throw new IllegalArgumentException(c.getName() + " not supported");
+    }
+    private int utf8(String s) throws IOException {
+        Integer ix = cpix.get("U" + s);
+        if(ix == null) {
+            cp.writeByte(1);
+            cp.writeUTF(s);
+            ix = cpcount++;
+            cpix.put("U" + s, ix);
+        }
+        return ix;
+    }
+    private int classRef(String s) throws IOException {
+        Integer ix = cpix.get("C" + s);
+        if(ix == null) {
+            int nameix = utf8(s);
+            cp.writeByte(7);
+            cp.writeShort(nameix);
+            ix = cpcount++;
+            cpix.put("C" + s, ix);
+        }
+        return ix;
+    }
+    private int nameAndType(String n, String desc) throws IOException {
+        Integer ix = cpix.get("N" + n + " " + desc);
+        if(ix == null) {
+            int nameix = utf8(n);
+            int descix = utf8(desc);
+            cp.writeByte(12);
+            cp.writeShort(nameix);
+            cp.writeShort(descix);
+            ix = cpcount++;
+            cpix.put("N" + n + " " + desc, ix);
+        }
+        return ix;
+    }
+    private int fieldRef(String cls, String n, String desc) throws IOException {
+        return memberRef(9, cls, n, desc);
+    }
+    private int methodRef(String cls, String n, String desc) throws IOException {
+        return memberRef(10, cls, n, desc);
+    }
+    private int memberRef(int tag, String cls, String n, String desc) throws IOException {
+        Integer ix = cpix.get(tag + cls + "." + n + " " + desc);
+        if(ix == null) {
+            int clsix = classRef(cls);
+            int ntix = nameAndType(n, desc);
+            cp.writeByte(tag);
+            cp.writeShort(clsix);
+            cp.writeShort(ntix);
+            ix = cpcount++;
+            cpix.put(tag + cls + "." + n + " " + desc, ix);
+        }
+        return ix;
+    }
+    private int integer(int v) throws IOException {
+        Integer ix = cpix.get("I" + v);
+        if(ix == null) {
+            cp.writeByte(3);
+            cp.writeInt(v);
+            ix = cpcount++;
+            cpix.put("I" + v, ix);
+        }
+        return ix;
+    }
+    private int lng(long v) throws IOException {
+        Integer ix = cpix.get("J" + v);
+        if(ix == null) {
+            cp.writeByte(5);
+            cp.writeLong(v);
+            ix = cpcount;
+            cpcount += 2;
+            cpix.put("J" + v, ix);
+        }
+        return ix;
+    }
+}
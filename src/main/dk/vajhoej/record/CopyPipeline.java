@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Class CopyPipeline reads structs from a stream, converts them and writes them to another stream.
+ * <br>
+ * One writer bound to the output stream is used for all structs, so output is written in large blocks.
+ * If both layouts have fixed length then the input is read in blocks of whole structs and decoded in place.
+ */
+final class CopyPipeline {
+    private static final int BUFSIZ = 65536;
+    private CopyPipeline() {
+    }
+    /**
+     * Copy structs.
+     * @param t1 type read
+     * @param is stream to read from
+     * @param t2 type written
+     * @param os stream to write to
+     * @param cvt converter
+     * @param lenpvd supplies various length'es for reading (null indicates that it is to be ignored)
+     * @throws RecordException if problem with record definition
+     * @throws IOException if problem with stream
+     */
+    static <T1, T2> void copy(Class<T1> t1, InputStream is, Class<T2> t2, OutputStream os, Function<T1, T2> cvt, InfoProvider lenpvd) throws RecordException, IOException {
+        int reclen1 = lenpvd == null ? fixedLength(t1) : 0;
+        int reclen2 = fixedLength(t2);
+        try {
+            if(reclen1 > 0 && reclen2 > 0) {
+                copyFixed(t1, reclen1, is, reclen2, os, cvt);
+            } else {
+                StructWriter sw = new StructWriter(os, BUFSIZ);
+                StructStreamReader ssr = new StructStreamReader(is);
+                while(ssr.more()) {
+                    sw.write(cvt.apply(ssr.read(t1, lenpvd)));
+                }
+                sw.flush();
+            }
+        } catch(RecordException e) {
+            // writer reports problems with the stream as RecordException
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw e;
+        }
+    }
+    // read blocks of whole structs and write blocks of the same number of structs
+    private static <T1, T2> void copyFixed(Class<T1> t1, int reclen1, InputStream is, int reclen2, OutputStream os, Function<T1, T2> cvt) throws RecordException, IOException {
+        int nrec = Math.max(1, BUFSIZ / Math.max(reclen1, reclen2));
+        byte[] buf = new byte[nrec * reclen1];
+        StructReader sr = new StructReader(buf);
+        StructWriter sw = new StructWriter(os, nrec * reclen2);
+        while(true) {
+            int n = is.readNBytes(buf, 0, buf.length);
+            if(n == buf.length) {
+                sr.reset(buf);
+            } else if(n > 0) {
+                sr.reset(ByteBuffer.wrap(buf, 0, n));
+            } else {
+                break;
+            }
+            while(sr.more()) {
+                sw.write(cvt.apply(sr.read(t1)));
+            }
+            if(n < buf.length) {
+                break;
+            }
+        }
+        sw.flush();
+    }
+    // length of struct if structs are back to back with fixed length otherwise 0
+    private static int fixedLength(Class<?> t) throws RecordException {
+        StructInfo si = StructInfoCache.analyze(t);
+        return si.hasFixedStride() ? si.getLength() : 0;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+/**
+ * Interface EncodeListener receives every field value written by StructWriter.
+ * <br>
+ * Values are only boxed and passed on when a listener is set, so writing without a listener has no trace overhead.
+ */
+public interface EncodeListener {
+    /**
+     * Field value written.
+     * @param struct class implementing struct
+     * @param n field number
+     * @param type struct type of field
+     * @param offset position in buffer where value starts
+     * @param value value written (one call per element for arrays)
+     */
+    public void onField(Class<?> struct, int n, FieldType type, int offset, Object value);
+}
@@ -0,0 +1,1797 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class FieldCodec reads and writes a single field of a native struct.
+ * <br>
+ * A FieldCodec is compiled once per field when a class is analyzed, so padding, conversion
+ * to and from the Java type and array handling are resolved up front instead of for every record.
+ */
+abstract class FieldCodec {
+    protected static Logger rlog = Logger.getLogger(StructReader.class.getName());
+    protected static Logger wlog = Logger.getLogger(StructWriter.class.getName());
+    protected final FieldInfo fi;
+    protected final int n;
+    protected final int align;
+    protected final Class<?> struct;
+    private final MethodHandle getter;
+    private MethodHandle setter;
+    private final MethodHandle selector;
+    private MethodHandle copier;
+    /**
+     * Create instance of FieldCodec that does not access the field.
+     * @param fi field information
+     * @param n field number
+     * @param align alignment in bytes (1 indicates no padding)
+     * @param struct class implementing struct
+     */
+    protected FieldCodec(FieldInfo fi, int n, int align, Class<?> struct) {
+        this(fi, n, align, struct, null, null);
+    }
+    /**
+     * Create instance of FieldCodec.
+     * @param fi field information
+     * @param n field number
+     * @param align alignment in bytes (1 indicates no padding)
+     * @param struct class implementing struct
+     * @param settype type of values stored in field (widened to field type)
+     * @param gettype type of values retrieved from field (widened from field type)
+     */
+    protected FieldCodec(FieldInfo fi, int n, int align, Class<?> struct, Class<?> settype, Class<?> gettype) {
+        this.fi = fi;
+        this.n = n;
+        this.align = align;
+        this.struct = struct;
+        this.setter = settype != null ? fi.getSetter().asType(MethodType.methodType(void.class, Object.class, settype)) : null;
+        this.getter = gettype != null ? fi.getGetter().asType(MethodType.methodType(gettype, Object.class)) : null;
+        this.selector = fi.getSelects() != null ? MethodHandles.explicitCastArguments(fi.getGetter(), MethodType.methodType(int.class, Object.class)) : null;
+    }
+    /**
+     * Get value of selector field.
+     * @param o object being read or written
+     * @return selector value
+     */
+    final int selector(Object o) throws IllegalAccessException {
+        try {
+            return (int)selector.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    /**
+     * Copy field value to instance of sub class.
+     * @param from object read so far
+     * @param to instance of sub class
+     */
+    final void copy(Object from, Object to) throws IllegalAccessException {
+        if(copier == null) {
+            copier = MethodHandles.filterArguments(fi.getSetter(), 1, fi.getGetter()).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+        try {
+            copier.invokeExact(to, from);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    /**
+     * Redirect values read to slot in StagingFrame instead of to field.
+     */
+    final void stage() {
+        if(setter != null) {
+            setter = StagingFrame.setter(n, fi.getClassType()).asType(setter.type());
+        }
+    }
+    /**
+     * Get field information.
+     * @return field information
+     */
+    final FieldInfo getFieldInfo() {
+        return fi;
+    }
+    /**
+     * Calculate padding in front of field.
+     * @param pos current position
+     * @return number of padding bytes
+     */
+    final int pad(int pos) {
+        return align > 1 ? (align - pos % align) % align : 0;
+    }
+    /**
+     * Read field.
+     * @param sr reader
+     * @param bb buffer to read from
+     * @param res object being read
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     */
+    abstract void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException;
+    /**
+     * Write field.
+     * @param sw writer
+     * @param bb buffer to write to
+     * @param o object being written
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     */
+    abstract void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException;
+    /**
+     * Calculate number of bytes written for field without writing it (padding in front of field not included).
+     * @param o object being written
+     * @param pos position where field starts
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return number of bytes
+     */
+    int size(Object o, int pos, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException {
+        return elements(o, lenpvd) * StructInfo.size(fi);
+    }
+    /**
+     * Calculate number of bits written for field (only BIT fields write bits).
+     * @param o object being written
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return number of bits
+     */
+    int bits(Object o, InfoProvider lenpvd) {
+        return 0;
+    }
+    protected final int elements(Object o, InfoProvider lenpvd) {
+        if(lenpvd != null) {
+            int nelm = lenpvd.getElements(target(o), n);
+            if(nelm >= 0) {
+                return nelm;
+            }
+        }
+        return fi.getElements();
+    }
+    protected final int length(Object o, InfoProvider lenpvd) {
+        if(lenpvd != null) {
+            int len = lenpvd.getLength(target(o), n);
+            if(len >= 0) {
+                return len;
+            }
+        }
+        return fi.getLength();
+    }
+    // object passed to InfoProvider (not available while values are staged)
+    protected static Object target(Object o) {
+        return o instanceof StagingFrame ? null : o;
+    }
+    // get array to read into and if relevant adjust the size of it
+    protected final Object array(Object res, int nelm) throws IllegalAccessException {
+        Object arr = res instanceof StagingFrame ? null : getObject(res);
+        if(arr == null || Array.getLength(arr) != nelm) {
+            arr = Array.newInstance(fi.getClassType().getComponentType(), nelm);
+            setObject(res, arr);
+        }
+        return arr;
+    }
+    protected final void setByte(Object o, byte v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setShort(Object o, short v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setInt(Object o, int v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setLong(Object o, long v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setFloat(Object o, float v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setDouble(Object o, double v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setBoolean(Object o, boolean v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final void setObject(Object o, Object v) throws IllegalAccessException {
+        try {
+            setter.invokeExact(o, v);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final int getInt(Object o) throws IllegalAccessException {
+        try {
+            return (int)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final long getLong(Object o) throws IllegalAccessException {
+        try {
+            return (long)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final float getFloat(Object o) throws IllegalAccessException {
+        try {
+            return (float)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final double getDouble(Object o) throws IllegalAccessException {
+        try {
+            return (double)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final boolean getBoolean(Object o) throws IllegalAccessException {
+        try {
+            return (boolean)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    protected final Object getObject(Object o) throws IllegalAccessException {
+        try {
+            return (Object)getter.invokeExact(o);
+        } catch(Throwable e) {
+            throw rethrow(e);
+        }
+    }
+    private static RuntimeException rethrow(Throwable e) throws IllegalAccessException {
+        if(e instanceof IllegalAccessException) {
+            throw (IllegalAccessException)e;
+        }
+        if(e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        }
+        if(e instanceof Error) {
+            throw (Error)e;
+        }
+        return new UndeclaredThrowableException(e);
+    }
+    /**
+     * Compile codecs for all fields of a struct.
+     * @param fields fields of struct
+     * @param alignment alignment of struct
+     * @param endianess byte order of struct
+     * @param clz class implementing struct
+     * @return codecs in field order
+     * @throws RecordException if error calculating alignment
+     */
+    static FieldCodec[] compile(List<FieldInfo> fields, Alignment alignment, Endian endianess, Class<?> clz) throws RecordException {
+        FieldCodec[] res = new FieldCodec[fields.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = compile(fields.get(i), i, StructInfo.calculateAlign(alignment, fields.get(i)), endianess, clz);
+        }
+        return res;
+    }
+    private static FieldCodec compile(FieldInfo fi, int n, int align, Endian endianess, Class<?> clz) {
+        Class<?> ct = fi.getClassType();
+        switch(fi.getStructType()) {
+            case INT1:
+                if(ct == byte.class || ct == short.class || ct == int.class) {
+                    return new Int1(fi, n, align, clz);
+                }
+                if(ct == byte[].class) {
+                    return new Int1Array(fi, n, align, clz);
+                }
+                break;
+            case INT2:
+                if(ct == short.class || ct == int.class) {
+                    return new Int2(fi, n, align, clz);
+                }
+                if(ct == short[].class) {
+                    return new Int2Array(fi, n, align, clz);
+                }
+                break;
+            case INT4:
+                if(ct == int.class) {
+                    return new Int4(fi, n, align, clz);
+                }
+                if(ct == int[].class) {
+                    return new Int4Array(fi, n, align, clz);
+                }
+                break;
+            case INT8:
+                if(ct == long.class) {
+                    return new Int8(fi, n, align, clz);
+                }
+                if(ct == long[].class) {
+                    return new Int8Array(fi, n, align, clz);
+                }
+                break;
+            case UINT1:
+                if(ct == short.class || ct == int.class) {
+                    return new UInt1(fi, n, align, clz);
+                }
+                if(ct == short[].class) {
+                    return new UInt1Array(fi, n, align, clz);
+                }
+                break;
+            case UINT2:
+                if(ct == int.class) {
+                    return new UInt2(fi, n, align, clz);
+                }
+                if(ct == int[].class) {
+                    return new UInt2Array(fi, n, align, clz);
+                }
+                break;
+            case UINT4:
+                if(ct == long.class) {
+                    return new UInt4(fi, n, align, clz);
+                }
+                if(ct == long[].class) {
+                    return new UInt4Array(fi, n, align, clz);
+                }
+                break;
+            case FP4:
+                if(ct == float.class) {
+                    return new FP4(fi, n, align, clz);
+                }
+                if(ct == float[].class) {
+                    return new FP4Array(fi, n, align, clz);
+                }
+                break;
+            case FP8:
+                if(ct == double.class) {
+                    return new FP8(fi, n, align, clz);
+                }
+                if(ct == double[].class) {
+                    return new FP8Array(fi, n, align, clz);
+                }
+                break;
+            case INTX:
+                if(ct == long.class) {
+                    return new IntX(fi, n, align, clz, endianess == Endian.BIG);
+                }
+                if(ct == long[].class) {
+                    return new IntXArray(fi, n, align, clz, endianess == Endian.BIG);
+                }
+                break;
+            case VAXFP4:
+                if(ct == float.class) {
+                    return new VAXFP4(fi, n, align, clz);
+                }
+                if(ct == float[].class) {
+                    return new VAXFP4Array(fi, n, align, clz);
+                }
+                break;
+            case VAXFP8:
+                if(ct == double.class) {
+                    return new VAXFP8(fi, n, align, clz);
+                }
+                if(ct == double[].class) {
+                    return new VAXFP8Array(fi, n, align, clz);
+                }
+                break;
+            case BOOLEAN:
+                if(ct == boolean.class) {
+                    return new Bool(fi, n, align, clz);
+                }
+                if(ct == boolean[].class) {
+                    return new BoolArray(fi, n, align, clz);
+                }
+                break;
+            case BIT:
+                if(ct == int.class) {
+                    return new Bit(fi, n, align, clz);
+                }
+                if(ct == int[].class) {
+                    return new BitArray(fi, n, align, clz);
+                }
+                break;
+            case FIXSTR:
+                if(ct == String.class || ct == String[].class) {
+                    return new FixStr(fi, n, align, clz);
+                }
+                break;
+            case FIXSTRNULTERM:
+                if(ct == String.class || ct == String[].class) {
+                    return new FixStrNulTerm(fi, n, align, clz);
+                }
+                break;
+            case VARSTR:
+                if(ct == String.class || ct == String[].class) {
+                    return new VarStr(fi, n, align, clz);
+                }
+                break;
+            case VARFIXSTR:
+                if(ct == String.class || ct == String[].class) {
+                    return new VarFixStr(fi, n, align, clz);
+                }
+                break;
+            case REMSTR:
+                if(ct == String.class || ct == String[].class) {
+                    return new RemStr(fi, n, align, clz);
+                }
+                break;
+            case JAVATIME:
+                if(ct == Date.class || ct == Date[].class) {
+                    return new JavaTime(fi, n, align, clz);
+                }
+                break;
+            case UNIXTIME:
+                if(ct == Date.class || ct == Date[].class) {
+                    return new UnixTime(fi, n, align, clz);
+                }
+                break;
+            case VMSTIME:
+                if(ct == Date.class || ct == Date[].class) {
+                    return new VMSTime(fi, n, align, clz);
+                }
+                break;
+            case PACKEDBCD:
+                if(ct == BigDecimal.class || ct == BigDecimal[].class) {
+                    return new PackedBCD(fi, n, align, clz);
+                }
+                break;
+            case ZONEDBCD:
+                if(ct == BigDecimal.class || ct == BigDecimal[].class) {
+                    return new ZonedBCD(fi, n, align, clz);
+                }
+                break;
+            case STRUCT:
+                return new Sub(fi, n, align, clz);
+        }
+        return new BadConversion(fi, n, align, clz);
+    }
+    /**
+     * Field where Java type and native struct type does not match.
+     */
+    static final class BadConversion extends FieldCodec {
+        BadConversion(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws RecordException {
+            if(elements(res, lenpvd) > 0) {
+                throw new RecordException("Can not convert from " + fi.getStructType().toString() + " to " + fi.getClassType().getName() + " in " + struct.getName());
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws RecordException {
+            if(elements(o, lenpvd) > 0) {
+                throw new RecordException("Can not convert from " + fi.getClassType().getName() + " to " + fi.getStructType().toString() + " in " + struct.getName());
+            }
+        }
+        int size(Object o, int pos, InfoProvider lenpvd) throws RecordException {
+            write(null, null, o, lenpvd);
+            return 0;
+        }
+    }
+    static final class Int1 extends FieldCodec {
+        Int1(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, byte.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                byte v = bb.get();
+                setByte(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                byte v = (byte)getInt(o);
+                bb.put(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int1Array extends FieldCodec {
+        Int1Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            byte[] arr = (byte[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                byte v = bb.get();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            byte[] arr = (byte[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                byte v = arr[ix];
+                bb.put(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int2 extends FieldCodec {
+        Int2(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, short.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = bb.getShort();
+                setShort(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = (short)getInt(o);
+                bb.putShort(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int2Array extends FieldCodec {
+        Int2Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            short[] arr = (short[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = bb.getShort();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            short[] arr = (short[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = arr[ix];
+                bb.putShort(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int4 extends FieldCodec {
+        Int4(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, int.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = bb.getInt();
+                setInt(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = getInt(o);
+                bb.putInt(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int4Array extends FieldCodec {
+        Int4Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            int[] arr = (int[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = bb.getInt();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            int[] arr = (int[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = arr[ix];
+                bb.putInt(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int8 extends FieldCodec {
+        Int8(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, long.class, long.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = bb.getLong();
+                setLong(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = getLong(o);
+                bb.putLong(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Int8Array extends FieldCodec {
+        Int8Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            long[] arr = (long[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = bb.getLong();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            long[] arr = (long[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = arr[ix];
+                bb.putLong(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt1 extends FieldCodec {
+        UInt1(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, short.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = (short)(0xFF & bb.get());
+                setShort(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = (short)getInt(o);
+                bb.put((byte)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt1Array extends FieldCodec {
+        UInt1Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            short[] arr = (short[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = (short)(0xFF & bb.get());
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            short[] arr = (short[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                short v = arr[ix];
+                bb.put((byte)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt2 extends FieldCodec {
+        UInt2(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, int.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = 0xFFFF & bb.getShort();
+                setInt(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = getInt(o);
+                bb.putShort((short)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt2Array extends FieldCodec {
+        UInt2Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            int[] arr = (int[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = 0xFFFF & bb.getShort();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            int[] arr = (int[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = arr[ix];
+                bb.putShort((short)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt4 extends FieldCodec {
+        UInt4(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, long.class, long.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = 0xFFFFFFFFL & bb.getInt();
+                setLong(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = getLong(o);
+                bb.putInt((int)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class UInt4Array extends FieldCodec {
+        UInt4Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            long[] arr = (long[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = 0xFFFFFFFFL & bb.getInt();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            long[] arr = (long[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = arr[ix];
+                bb.putInt((int)v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class FP4 extends FieldCodec {
+        FP4(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, float.class, float.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = bb.getFloat();
+                setFloat(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = getFloat(o);
+                bb.putFloat(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class FP4Array extends FieldCodec {
+        FP4Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            float[] arr = (float[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = bb.getFloat();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            float[] arr = (float[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = arr[ix];
+                bb.putFloat(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class FP8 extends FieldCodec {
+        FP8(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, double.class, double.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = bb.getDouble();
+                setDouble(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = getDouble(o);
+                bb.putDouble(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class FP8Array extends FieldCodec {
+        FP8Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            double[] arr = (double[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = bb.getDouble();
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            double[] arr = (double[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = arr[ix];
+                bb.putDouble(v);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class IntX extends FieldCodec {
+        private final boolean big;
+        IntX(FieldInfo fi, int n, int align, Class<?> struct, boolean big) {
+            super(fi, n, align, struct, long.class, long.class);
+            this.big = big;
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws RecordException, IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            int len = length(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = readIntX(bb, len, big, fi, struct);
+                setLong(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws RecordException, IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            int len = length(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = getLong(o);
+                writeIntX(bb, v, len, big, fi, struct);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        int size(Object o, int pos, InfoProvider lenpvd) {
+            return elements(o, lenpvd) * length(o, lenpvd);
+        }
+    }
+    static final class IntXArray extends FieldCodec {
+        private final boolean big;
+        IntXArray(FieldInfo fi, int n, int align, Class<?> struct, boolean big) {
+            super(fi, n, align, struct, Object.class, Object.class);
+            this.big = big;
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws RecordException, IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            int len = length(res, lenpvd);
+            long[] arr = (long[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = readIntX(bb, len, big, fi, struct);
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws RecordException, IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            int len = length(o, lenpvd);
+            long[] arr = (long[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                long v = arr[ix];
+                writeIntX(bb, v, len, big, fi, struct);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        int size(Object o, int pos, InfoProvider lenpvd) {
+            return elements(o, lenpvd) * length(o, lenpvd);
+        }
+    }
+    private static long readIntX(ByteBuffer bb, int len, boolean big, FieldInfo fi, Class<?> struct) throws RecordException {
+        if(len <= 0 || len >= 8) {
+            throw new RecordException("Wrong length of general integer " + fi.getField().getName() + " in " + struct.getName() + ": " + len);
+        }
+        long v = 0;
+        if(big) {
+            for(int j = 0; j < len; j++) {
+                v = v | ((bb.get() & 0x00FFL) << ((len - 1 - j) * 8));
+            }
+        } else {
+            for(int j = 0; j < len; j++) {
+                v = v | ((bb.get() & 0x00FFL) << (j * 8));
+            }
+        }
+        return v;
+    }
+    private static void writeIntX(ByteBuffer bb, long v, int len, boolean big, FieldInfo fi, Class<?> struct) throws RecordException {
+        if(len <= 0 || len >= 8) {
+            throw new RecordException("Wrong length of general integer " + fi.getField().getName() + " in " + struct.getName());
+        }
+        if(big) {
+            for(int j = 0; j < len; j++) {
+                bb.put(((byte)((v >> ((len - 1 - j) * 8)) & 0x00FF)));
+            }
+        } else {
+            for(int j = 0; j < len; j++) {
+                bb.put(((byte)((v >> (j * 8)) & 0x00FF)));
+            }
+        }
+    }
+    static final class VAXFP4 extends FieldCodec {
+        VAXFP4(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, float.class, float.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = Float.intBitsToFloat(VAXFloatUtil.f2s(bb.getInt()));
+                setFloat(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = getFloat(o);
+                bb.putInt(VAXFloatUtil.s2f(Float.floatToRawIntBits(v)));
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class VAXFP4Array extends FieldCodec {
+        VAXFP4Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            float[] arr = (float[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = Float.intBitsToFloat(VAXFloatUtil.f2s(bb.getInt()));
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            float[] arr = (float[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                float v = arr[ix];
+                bb.putInt(VAXFloatUtil.s2f(Float.floatToRawIntBits(v)));
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class VAXFP8 extends FieldCodec {
+        VAXFP8(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, double.class, double.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = Double.longBitsToDouble(VAXFloatUtil.g2t(bb.getLong()));
+                setDouble(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = getDouble(o);
+                bb.putLong(VAXFloatUtil.t2g(Double.doubleToRawLongBits(v)));
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class VAXFP8Array extends FieldCodec {
+        VAXFP8Array(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            double[] arr = (double[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = Double.longBitsToDouble(VAXFloatUtil.g2t(bb.getLong()));
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            double[] arr = (double[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                double v = arr[ix];
+                bb.putLong(VAXFloatUtil.t2g(Double.doubleToRawLongBits(v)));
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Bool extends FieldCodec {
+        Bool(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, boolean.class, boolean.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                boolean v = bb.get() != 0;
+                skip(bb, fi.getLength() - 1);
+                setBoolean(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                boolean v = getBoolean(o);
+                bb.put(v ? (byte)1 : (byte)0);
+                zero(bb, fi.getLength() - 1);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class BoolArray extends FieldCodec {
+        BoolArray(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            boolean[] arr = (boolean[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                boolean v = bb.get() != 0;
+                skip(bb, fi.getLength() - 1);
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            boolean[] arr = (boolean[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                boolean v = arr[ix];
+                bb.put(v ? (byte)1 : (byte)0);
+                zero(bb, fi.getLength() - 1);
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+    }
+    static final class Bit extends FieldCodec {
+        Bit(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, int.class, int.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = sr.readBits(fi.getLength());
+                setInt(res, v);
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = getInt(o);
+                sw.writeBits(v, fi.getLength());
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        int size(Object o, int pos, InfoProvider lenpvd) {
+            return 0;
+        }
+        int bits(Object o, InfoProvider lenpvd) {
+            return elements(o, lenpvd) * fi.getLength();
+        }
+    }
+    static final class BitArray extends FieldCodec {
+        BitArray(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, Object.class, Object.class);
+        }
+        void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(res, lenpvd);
+            int[] arr = (int[])array(res, nelm);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = sr.readBits(fi.getLength());
+                arr[ix] = v;
+                if(sr.listener != null) {
+                    sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws IllegalAccessException {
+            int nelm = elements(o, lenpvd);
+            int[] arr = (int[])getObject(o);
+            for(int ix = 0; ix < nelm; ix++) {
+                int pos = bb.position();
+                int v = arr[ix];
+                sw.writeBits(v, fi.getLength());
+                if(sw.listener != null) {
+                    sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                }
+            }
+        }
+        int size(Object o, int pos, InfoProvider lenpvd) {
+            return 0;
+        }
+        int bits(Object o, InfoProvider lenpvd) {
+            return elements(o, lenpvd) * fi.getLength();
+        }
+    }
+    /**
+     * Field with a Java object value (either single object or array of objects).
+     */
+    static abstract class ObjectCodec extends FieldCodec {
+        private final boolean isArray;
+        private final boolean nested;
+        private int charset = UNKNOWN;
+        ObjectCodec(FieldInfo fi, int n, int align, Class<?> struct) {
+            this(fi, n, align, struct, false);
+        }
+        /**
+         * Create instance of ObjectCodec.
+         * @param fi field information
+         * @param n field number
+         * @param align alignment in bytes (1 indicates no padding)
+         * @param struct class implementing struct
+         * @param nested values are nested structs (current value of non-array field is passed to decode and values are not traced)
+         */
+        ObjectCodec(FieldInfo fi, int n, int align, Class<?> struct, boolean nested) {
+            super(fi, n, align, struct, Object.class, Object.class);
+            isArray = fi.getClassType().isArray();
+            this.nested = nested;
+        }
+        abstract Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException;
+        abstract void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException;
+        abstract int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException;
+        final void read(StructReader sr, ByteBuffer bb, Object res, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException {
+            int nelm = elements(res, lenpvd);
+            int len = length(res, lenpvd);
+            if(isArray) {
+                Object[] arr = (Object[])array(res, nelm);
+                for(int ix = 0; ix < nelm; ix++) {
+                    int pos = bb.position();
+                    Object v = decode(sr, bb, res, arr[ix], len, lenpvd);
+                    arr[ix] = v;
+                    if(sr.listener != null && !nested) {
+                        sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                    }
+                }
+            } else {
+                Object old = nested && !(res instanceof StagingFrame) ? getObject(res) : null;
+                for(int ix = 0; ix < nelm; ix++) {
+                    int pos = bb.position();
+                    Object v = decode(sr, bb, res, old, len, lenpvd);
+                    setObject(res, v);
+                    if(sr.listener != null && !nested) {
+                        sr.listener.onField(struct, n, fi.getStructType(), pos, v);
+                    }
+                }
+            }
+        }
+        final void write(StructWriter sw, ByteBuffer bb, Object o, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException {
+            int nelm = elements(o, lenpvd);
+            int len = length(o, lenpvd);
+            if(isArray) {
+                Object[] arr = (Object[])getObject(o);
+                for(int ix = 0; ix < nelm; ix++) {
+                    int pos = bb.position();
+                    encode(sw, bb, o, arr[ix], len, lenpvd);
+                    if(sw.listener != null && !nested) {
+                        sw.listener.onField(struct, n, fi.getStructType(), pos, arr[ix]);
+                    }
+                }
+            } else {
+                Object v = getObject(o);
+                for(int ix = 0; ix < nelm; ix++) {
+                    int pos = bb.position();
+                    encode(sw, bb, o, v, len, lenpvd);
+                    if(sw.listener != null && !nested) {
+                        sw.listener.onField(struct, n, fi.getStructType(), pos, v);
+                    }
+                }
+            }
+        }
+        final int size(Object o, int pos, InfoProvider lenpvd) throws RecordException, IllegalAccessException, UnsupportedEncodingException {
+            int nelm = elements(o, lenpvd);
+            int len = length(o, lenpvd);
+            int res = 0;
+            if(isArray) {
+                Object[] arr = (Object[])getObject(o);
+                for(int ix = 0; ix < nelm; ix++) {
+                    res += encodedSize(o, arr[ix], pos + res, len, lenpvd);
+                }
+            } else {
+                Object v = getObject(o);
+                for(int ix = 0; ix < nelm; ix++) {
+                    res += encodedSize(o, v, pos + res, len, lenpvd);
+                }
+            }
+            return res;
+        }
+        // number of bytes string is encoded to (counted without encoding for single byte charsets and UTF-8)
+        protected final int byteLength(String v) throws UnsupportedEncodingException {
+            if(charset == UNKNOWN) {
+                charset = charset(fi.getEncoding());
+            }
+            if(charset == SINGLE) {
+                return v.length();
+            } else if(charset == UTF8) {
+                return utf8Length(v);
+            } else {
+                return v.getBytes(fi.getEncoding()).length;
+            }
+        }
+        protected final RecordException wrongLength() {
+            return new RecordException("Wrong length of string " + fi.getField().getName() + " in " + struct.getName());
+        }
+        protected final RecordException wrongLength(int len) {
+            return new RecordException("Wrong length of string " + fi.getField().getName() + " in " + struct.getName() + ": " + len);
+        }
+    }
+    private static final byte[] ZERO = new byte[64];
+    private static final int UNKNOWN = 0;
+    private static final int SINGLE = 1;
+    private static final int UTF8 = 2;
+    private static final int OTHER = 3;
+    private static int charset(String encoding) {
+        try {
+            Charset cs = Charset.forName(encoding);
+            if(cs.equals(StandardCharsets.UTF_8)) {
+                return UTF8;
+            } else if(cs.newEncoder().maxBytesPerChar() == 1.0f) {
+                return SINGLE;
+            } else {
+                return OTHER;
+            }
+        } catch(IllegalArgumentException e) {
+            // let getBytes report the unsupported encoding
+            return OTHER;
+        }
+    }
+    private static int utf8Length(String v) {
+        int res = 0;
+        int n = v.length();
+        for(int i = 0; i < n; i++) {
+            char c = v.charAt(i);
+            if(c < 0x80) {
+                res += 1;
+            } else if(c < 0x800) {
+                res += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(v.charAt(i + 1))) {
+                res += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) {
+                // unpaired surrogate is replaced by '?'
+                res += 1;
+            } else {
+                res += 3;
+            }
+        }
+        return res;
+    }
+    /**
+     * Skip bytes without copying them.
+     * @param bb buffer to read from
+     * @param n number of bytes
+     */
+    static void skip(ByteBuffer bb, int n) {
+        if(n > bb.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        bb.position(bb.position() + n);
+    }
+    /**
+     * Write zero bytes without allocating an array.
+     * @param bb buffer to write to
+     * @param n number of bytes
+     */
+    static void zero(ByteBuffer bb, int n) {
+        while(n > 0) {
+            int chunk = Math.min(n, ZERO.length);
+            bb.put(ZERO, 0, chunk);
+            n -= chunk;
+        }
+    }
+    // decode string of len bytes directly from buffer and skip to end of field of fieldlen bytes
+    private static String string(ByteBuffer bb, int len, int fieldlen, String encoding) throws UnsupportedEncodingException {
+        if(fieldlen > bb.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String v;
+        if(bb.hasArray()) {
+            v = new String(bb.array(), bb.arrayOffset() + bb.position(), len, encoding);
+        } else {
+            byte[] ba = new byte[len];
+            bb.duplicate().get(ba);
+            v = new String(ba, encoding);
+        }
+        bb.position(bb.position() + fieldlen);
+        return v;
+    }
+    private static int readPrefix(ByteBuffer bb, int prefixlength) {
+        switch(prefixlength) {
+            case 0:
+            case 2:
+                return bb.getShort() & 0x0000FFFF;
+            case 1:
+                return bb.get() & 0x000000FF;
+            case 4:
+                return bb.getInt();
+            default:
+                return -1;
+        }
+    }
+    private static boolean writePrefix(ByteBuffer bb, int prefixlength, int len) {
+        if((prefixlength == 0 || prefixlength == 2) && len < 32768) {
+            bb.putShort((short)len);
+        } else if(prefixlength == 1 && len < 128) {
+            bb.put((byte)len);
+        } else if(prefixlength == 4) {
+            bb.putInt(len);
+        } else {
+            return false;
+        }
+        return true;
+    }
+    static final class FixStr extends ObjectCodec {
+        FixStr(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            String v = string(bb, len, len, fi.getEncoding());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            byte[] ba = ((String)v).getBytes(fi.getEncoding());
+            if(ba.length == len) {
+                bb.put(ba);
+            } else {
+                throw wrongLength();
+            }
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return len;
+        }
+    }
+    static final class FixStrNulTerm extends ObjectCodec {
+        FixStrNulTerm(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            int start = bb.position();
+            int actlen = 0;
+            while(actlen < len && actlen < bb.remaining() && bb.get(start + actlen) != 0) {
+                actlen++;
+            }
+            String v = string(bb, actlen, len, fi.getEncoding());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            byte[] ba = ((String)v).getBytes(fi.getEncoding());
+            if(ba.length <= len) {
+                bb.put(ba);
+                zero(bb, len - ba.length);
+            } else {
+                throw wrongLength();
+            }
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return len;
+        }
+    }
+    static final class VarStr extends ObjectCodec {
+        VarStr(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            int actlen = readPrefix(bb, fi.getPrefixlength());
+            if(actlen < 0) {
+                throw wrongLength(actlen);
+            }
+            String v = string(bb, actlen, actlen, fi.getEncoding());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            byte[] ba = ((String)v).getBytes(fi.getEncoding());
+            if(writePrefix(bb, fi.getPrefixlength(), ba.length)) {
+                bb.put(ba);
+            } else {
+                throw wrongLength();
+            }
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            return StructInfo.prefix(fi) + byteLength((String)v);
+        }
+    }
+    static final class VarFixStr extends ObjectCodec {
+        VarFixStr(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            int actlen = readPrefix(bb, fi.getPrefixlength());
+            if(actlen < 0 || actlen > fi.getLength()) {
+                throw wrongLength(actlen);
+            }
+            String v = string(bb, actlen, fi.getLength(), fi.getEncoding());
+            if(rlog.isLoggable(Level.FINEST)) {
+                rlog.finest("Skip " + (fi.getLength() - actlen) + " padding bytes");
+            }
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException, UnsupportedEncodingException {
+            byte[] ba = ((String)v).getBytes(fi.getEncoding());
+            if(ba.length > fi.getLength()) {
+                throw wrongLength();
+            } else if(writePrefix(bb, fi.getPrefixlength(), ba.length)) {
+                bb.put(ba);
+            } else {
+                throw wrongLength();
+            }
+            zero(bb, fi.getLength() - ba.length);
+            if(wlog.isLoggable(Level.FINER)) {
+                wlog.finer("Write " + (fi.getLength() - ba.length) + " padding bytes");
+            }
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return StructInfo.prefix(fi) + fi.getLength();
+        }
+    }
+    static final class RemStr extends ObjectCodec {
+        RemStr(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            int actlen = bb.remaining();
+            String v = string(bb, actlen, actlen, fi.getEncoding());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            bb.put(((String)v).getBytes(fi.getEncoding()));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) throws UnsupportedEncodingException {
+            return byteLength((String)v);
+        }
+    }
+    static final class JavaTime extends ObjectCodec {
+        JavaTime(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) {
+            Date v = TimeUtil.fromJavaTime(bb.getLong());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) {
+            bb.putLong(TimeUtil.toJavaTime((Date)v));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return 8;
+        }
+    }
+    static final class UnixTime extends ObjectCodec {
+        UnixTime(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) {
+            Date v = TimeUtil.fromUnixTime(bb.getInt());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) {
+            bb.putInt(TimeUtil.toUnixTime((Date)v));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return 4;
+        }
+    }
+    static final class VMSTime extends ObjectCodec {
+        VMSTime(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) {
+            Date v = TimeUtil.fromVMSTime(bb.getLong());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) {
+            bb.putLong(TimeUtil.toVMSTime((Date)v));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return 8;
+        }
+    }
+    static final class PackedBCD extends ObjectCodec {
+        PackedBCD(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) {
+            byte[] ba = new byte[len];
+            bb.get(ba);
+            BigDecimal v = BCDUtil.decodePackedBCD(ba, fi.getDecimals());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) {
+            bb.put(BCDUtil.encodePackedBCD((BigDecimal)v, fi.getDecimals(), len));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return len;
+        }
+    }
+    static final class ZonedBCD extends ObjectCodec {
+        ZonedBCD(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct);
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) {
+            byte[] ba = new byte[len];
+            bb.get(ba);
+            BigDecimal v = BCDUtil.decodeZonedBCD(ba, fi.getZone(), fi.getDecimals());
+            return v;
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) {
+            bb.put(BCDUtil.encodeZonedBCD((BigDecimal)v, fi.getZone(), fi.getDecimals(), len));
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) {
+            return len;
+        }
+    }
+    static final class Sub extends ObjectCodec {
+        private final Class<?> sub;
+        Sub(FieldInfo fi, int n, int align, Class<?> struct) {
+            super(fi, n, align, struct, true);
+            sub = fi.getClassType().isArray() ? fi.getClassType().getComponentType() : fi.getClassType();
+        }
+        Object decode(StructReader sr, ByteBuffer bb, Object res, Object old, int len, InfoProvider lenpvd) throws RecordException {
+            LengthProvider2 sublenpvd = lenpvd != null ? lenpvd.getLengthProvider(target(res), n) : null;
+            return sr.readNested(sub, old, sublenpvd != null ? StructReader.info(sublenpvd) : null);
+        }
+        void encode(StructWriter sw, ByteBuffer bb, Object o, Object v, int len, InfoProvider lenpvd) throws RecordException {
+            if(lenpvd == null) {
+                sw.write(v);
+            } else {
+                sw.write(v, lenpvd.getLengthProvider(o, n));
+            }
+        }
+        int encodedSize(Object o, Object v, int pos, int len, InfoProvider lenpvd) throws RecordException {
+            if(lenpvd == null) {
+                return StructWriter.sizeOf(v, null, pos) - pos;
+            } else {
+                return StructWriter.sizeOf(v, StructReader.info(lenpvd.getLengthProvider(o, n)), pos) - pos;
+            }
+        }
+    }
+}
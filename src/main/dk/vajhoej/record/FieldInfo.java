@@ -16,6 +16,9 @@
 
 package dk.vajhoej.record;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.Map;
 
@@ -23,6 +26,7 @@ import java.util.Map;
  * Class FieldInfo contains information about a native struct field needed for conversions.
  */
 public class FieldInfo {
+    private static final int MAXTABLE = 1024;
 	private FieldType structType;
 	private int length;
 	private int decimals;
@@ -31,7 +35,11 @@ public class FieldInfo {
 	private int prefixlength;
 	private Class<?> classType;
 	private Field field;
+	private MethodHandle getter;
+	private MethodHandle setter;
 	private Map<Integer, SubClassAndPad> selects;
+	private SubClassAndPad[] seltab;
+	private int selmin;
 	private boolean selectPad;
 	private int elements;
 	/**
@@ -57,10 +65,35 @@ public class FieldInfo {
 		this.prefixlength = prefixlength;
 		this.classType = classType;
 		this.field = field;
+		if(field != null) {
+		    getter = getter(field);
+		    setter = setter(field);
+		}
 		this.selects = selects;
+		if(selects != null && !selects.isEmpty()) {
+		    seltab = table(selects);
+		}
 		this.selectPad = selectPad;
 		this.elements = elements;
 	}
+	// dense lookup table for selector values if the range is small
+	private SubClassAndPad[] table(Map<Integer, SubClassAndPad> selects) {
+	    int min = Integer.MAX_VALUE;
+	    int max = Integer.MIN_VALUE;
+	    for(int v : selects.keySet()) {
+	        min = Math.min(min, v);
+	        max = Math.max(max, v);
+	    }
+	    if((long)max - (long)min >= MAXTABLE) {
+	        return null;
+	    }
+	    SubClassAndPad[] res = new SubClassAndPad[max - min + 1];
+	    for(Map.Entry<Integer, SubClassAndPad> e : selects.entrySet()) {
+	        res[e.getKey() - min] = e.getValue();
+	    }
+	    selmin = min;
+	    return res;
+	}
 	/**
 	 * Get native struct type.
 	 * @return native struct type
@@ -117,6 +150,46 @@ public class FieldInfo {
 	public Field getField() {
 		return field;
 	}
+    /**
+     * Get getter for field.
+     * <br>
+     * Type is (declaring class)field type. Resolved once so field access does not go through reflection.
+     * @return getter
+     */
+    public MethodHandle getGetter() {
+        return getter;
+    }
+    /**
+     * Get setter for field.
+     * <br>
+     * Type is (declaring class, field type)void. Resolved once so field access does not go through reflection.
+     * @return setter
+     */
+    public MethodHandle getSetter() {
+        return setter;
+    }
+    // direct handles if field is accessible otherwise handles calling reflection (which will then report the problem)
+    private static MethodHandle getter(Field field) {
+        try {
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch(IllegalAccessException e) {
+            return reflect("get", MethodType.methodType(Object.class, Object.class), field).asType(MethodType.methodType(field.getType(), field.getDeclaringClass()));
+        }
+    }
+    private static MethodHandle setter(Field field) {
+        try {
+            return MethodHandles.lookup().unreflectSetter(field);
+        } catch(IllegalAccessException e) {
+            return reflect("set", MethodType.methodType(void.class, Object.class, Object.class), field).asType(MethodType.methodType(void.class, field.getDeclaringClass(), field.getType()));
+        }
+    }
+    private static MethodHandle reflect(String name, MethodType mt, Field field) {
+        try {
+            return MethodHandles.lookup().findVirtual(Field.class, name, mt).bindTo(field);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Field." + name + " not found", e);
+        }
+    }
 	/**
 	 * Get sub class selections.
 	 * @return sub class selections
@@ -124,6 +197,18 @@ public class FieldInfo {
 	public Map<Integer, SubClassAndPad> getSelects() {
 		return selects;
 	}
+	/**
+	 * Get sub class selection for selector value without boxing the value.
+	 * @param v selector value
+	 * @return sub class selection or null if none
+	 */
+	SubClassAndPad getSelect(int v) {
+	    if(seltab != null) {
+	        int ix = v - selmin;
+	        return ix >= 0 && ix < seltab.length ? seltab[ix] : null;
+	    }
+	    return selects.get(v);
+	}
     /**
      * Get sub class padding to fixed length.
      * @return true=pad, false=no pad
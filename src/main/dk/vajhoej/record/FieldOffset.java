@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+/**
+ * Class FieldOffset contains the position of a field in a fixed length part of a struct.
+ * <br>
+ * Members of nested structs are included with names like "sub.field" and "arr[1].field".
+ */
+public class FieldOffset {
+    private String name;
+    private FieldInfo fieldInfo;
+    private Endian endianess;
+    private int offset;
+    private int size;
+    private int align;
+    /**
+     * Create instance of FieldOffset with all necessary properties.
+     * @param name name of field (path for members of nested structs)
+     * @param fieldInfo field information
+     * @param endianess byte order of field
+     * @param offset offset in bytes from start of struct
+     * @param size size in bytes (all elements for arrays)
+     * @param align natural alignment in bytes
+     */
+    public FieldOffset(String name, FieldInfo fieldInfo, Endian endianess, int offset, int size, int align) {
+        this.name = name;
+        this.fieldInfo = fieldInfo;
+        this.endianess = endianess;
+        this.offset = offset;
+        this.size = size;
+        this.align = align;
+    }
+    /**
+     * Get name.
+     * @return name of field (path for members of nested structs)
+     */
+    public String getName() {
+        return name;
+    }
+    /**
+     * Get field information.
+     * @return field information
+     */
+    public FieldInfo getFieldInfo() {
+        return fieldInfo;
+    }
+    /**
+     * Get byte order.
+     * @return byte order of field
+     */
+    public Endian getEndianess() {
+        return endianess;
+    }
+    /**
+     * Get offset.
+     * @return offset in bytes from start of struct
+     */
+    public int getOffset() {
+        return offset;
+    }
+    /**
+     * Get size.
+     * @return size in bytes (all elements for arrays)
+     */
+    public int getSize() {
+        return size;
+    }
+    /**
+     * Get natural alignment.
+     * @return natural alignment in bytes
+     */
+    public int getAlign() {
+        return align;
+    }
+}
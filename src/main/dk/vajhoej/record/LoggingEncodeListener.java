@@ -0,0 +1,31 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.util.logging.Logger;
+
+/**
+ * Class LoggingEncodeListener logs field values written at level FINE.
+ * <br>
+ * StructWriter uses it by default when FINE is enabled for its logger.
+ */
+public class LoggingEncodeListener implements EncodeListener {
+    private static Logger log = Logger.getLogger(StructWriter.class.getName());
+    public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+        log.fine("Write " + type + " with value " + value);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.logging.Logger;
+
+/**
+ * Class MappedRecordFile gives random access to a file with fixed length structs via memory mapping.
+ * <br>
+ * The structs are stored back to back with the length given by {@link StructInfo#getLength()}.
+ * The file is not read into memory, records are decoded directly from the mapped file when accessed.
+ * Files larger than 2 GB are mapped as multiple windows each containing a whole number of records.
+ * <br>
+ * Instances can be used by multiple threads.
+ */
+public class MappedRecordFile<T> implements Closeable, Iterable<T> {
+    private static Logger log = Logger.getLogger(MappedRecordFile.class.getName());
+    private static final long DEFAULT_WINDOW = 1L << 30;
+    private final Class<T> t;
+    private final FileChannel fc;
+    private final int reclen;
+    private final long nrec;
+    private final long recPerWindow;
+    private final MappedByteBuffer[] windows;
+    /**
+     * Open file.
+     * @param t type
+     * @param f file
+     * @throws RecordException if type is not fixed length, can not be stored back to back or file is not a whole number of records
+     * @throws IOException if problem with file
+     */
+    public MappedRecordFile(Class<T> t, File f) throws RecordException, IOException {
+        this(t, f, DEFAULT_WINDOW);
+    }
+    /**
+     * Open file.
+     * @param t type
+     * @param f file
+     * @param window maximum size of each mapped window (at least one record and at most 2 GB)
+     * @throws RecordException if type is not fixed length, can not be stored back to back or file is not a whole number of records
+     * @throws IOException if problem with file
+     */
+    public MappedRecordFile(Class<T> t, File f, long window) throws RecordException, IOException {
+        StructInfo si = StructInfoCache.analyze(t);
+        if(!si.hasFixedStride()) {
+            throw new RecordException(t.getName() + " is not fixed length or can not be stored back to back");
+        }
+        this.t = t;
+        reclen = si.getLength();
+        recPerWindow = Math.min(window, Integer.MAX_VALUE) / reclen;
+        if(recPerWindow < 1) {
+            throw new IllegalArgumentException("Window " + window + " is smaller than record length " + reclen);
+        }
+        fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            long size = fc.size();
+            if(size % reclen != 0) {
+                throw new RecordException(f.getPath() + " with length " + size + " does not contain whole records of length " + reclen);
+            }
+            nrec = size / reclen;
+            windows = new MappedByteBuffer[(int)((nrec + recPerWindow - 1) / recPerWindow)];
+            for(int i = 0; i < windows.length; i++) {
+                long start = i * recPerWindow * reclen;
+                windows[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, Math.min(recPerWindow * reclen, size - start));
+            }
+        } catch(RecordException e) {
+            fc.close();
+            throw e;
+        } catch(IOException e) {
+            fc.close();
+            throw e;
+        }
+        log.fine(f.getPath() + " mapped with " + nrec + " records of " + t.getName() + " in " + windows.length + " windows");
+    }
+    /**
+     * Get number of records.
+     * @return number of records
+     */
+    public long size() {
+        return nrec;
+    }
+    /**
+     * Get record length.
+     * @return record length
+     */
+    public int getRecordLength() {
+        return reclen;
+    }
+    /**
+     * Get record.
+     * @param index record number (0 based)
+     * @return record
+     * @throws RecordException if problem with record definition
+     * @throws IndexOutOfBoundsException if no such record
+     */
+    public T get(long index) throws RecordException {
+        return reader(index, index + 1).read(t);
+    }
+    /**
+     * Read record into existing object.
+     * @param index record number (0 based)
+     * @param target object to read into
+     * @throws RecordException if problem with record definition
+     * @throws IndexOutOfBoundsException if no such record
+     */
+    public void readInto(long index, T target) throws RecordException {
+        reader(index, index + 1).readInto(target);
+    }
+    // reader for records from index up to end index or end of window
+    private StructReader reader(long index, long end) {
+        if(index < 0 || index >= nrec) {
+            throw new IndexOutOfBoundsException("Record " + index + " not in 0.." + (nrec - 1));
+        }
+        int w = (int)(index / recPerWindow);
+        long last = Math.min(end, (w + 1) * recPerWindow);
+        ByteBuffer bb = windows[w].duplicate();
+        bb.position((int)(index - w * recPerWindow) * reclen);
+        bb.limit((int)(last - w * recPerWindow) * reclen);
+        return new StructReader(bb);
+    }
+    /**
+     * Iterate over all records.
+     * <br>
+     * RecordException while reading is thrown as IllegalStateException.
+     * @return iterator
+     */
+    public Iterator<T> iterator() {
+        return iterator(0, nrec);
+    }
+    /**
+     * Iterate over range of records.
+     * <br>
+     * RecordException while reading is thrown as IllegalStateException.
+     * @param from first record number (inclusive)
+     * @param to last record number (exclusive)
+     * @return iterator
+     */
+    public Iterator<T> iterator(final long from, final long to) {
+        if(from < 0 || to > nrec || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " not in 0.." + nrec);
+        }
+        return new Iterator<T>() {
+            private long index = from;
+            private StructReader sr;
+            public boolean hasNext() {
+                return index < to;
+            }
+            public T next() {
+                if(index >= to) {
+                    throw new NoSuchElementException();
+                }
+                // one reader per window
+                if(sr == null || !sr.more()) {
+                    sr = reader(index, to);
+                }
+                try {
+                    T res = sr.read(t);
+                    index++;
+                    return res;
+                } catch(RecordException e) {
+                    throw new IllegalStateException("Error reading record " + index, e);
+                }
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    /**
+     * Get spliterator for all records.
+     * <br>
+     * The spliterator is sized and splits on record boundaries, so parallel streams scale.
+     * RecordException while reading is thrown as IllegalStateException.
+     * @return spliterator
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RecordStreams.FixedSpliterator<T>(t, new RecordStreams.Source() {
+            StructReader reader(long from, long to) {
+                return MappedRecordFile.this.reader(from, to);
+            }
+        }, 0, nrec);
+    }
+    /**
+     * Get stream of all records.
+     * <br>
+     * RecordException while reading is thrown as IllegalStateException.
+     * @return stream
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+    /**
+     * Close file.
+     * <br>
+     * The mapped windows are released when they are garbage collected.
+     * @throws IOException if problem with file
+     */
+    public void close() throws IOException {
+        fc.close();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class PendingListener holds back field values of a struct that may have to be read or written again.
+ * <br>
+ * The values are passed on when the struct is done and dropped when it is retried, so a listener
+ * sees every field once.
+ */
+final class PendingListener implements DecodeListener, EncodeListener {
+    private static class Event {
+        private final Class<?> struct;
+        private final int n;
+        private final FieldType type;
+        private final int offset;
+        private final Object value;
+        Event(Class<?> struct, int n, FieldType type, int offset, Object value) {
+            this.struct = struct;
+            this.n = n;
+            this.type = type;
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+    private final List<Event> events = new ArrayList<Event>();
+    public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+        events.add(new Event(struct, n, type, offset, value));
+    }
+    /**
+     * Pass field values on to listener.
+     * @param listener listener reading
+     */
+    void commitDecode(DecodeListener listener) {
+        for(Event e : events) {
+            listener.onField(e.struct, e.n, e.type, e.offset, e.value);
+        }
+        events.clear();
+    }
+    /**
+     * Pass field values on to listener.
+     * @param listener listener writing
+     */
+    void commitEncode(EncodeListener listener) {
+        for(Event e : events) {
+            listener.onField(e.struct, e.n, e.type, e.offset, e.value);
+        }
+        events.clear();
+    }
+    /**
+     * Drop field values.
+     */
+    void discard() {
+        events.clear();
+    }
+}
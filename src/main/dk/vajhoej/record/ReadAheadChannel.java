@@ -0,0 +1,209 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class ReadAheadChannel reads ahead with double buffering: while the bytes of one buffer are consumed,
+ * the next part of the input is read into the other buffer.
+ * <br>
+ * Files are read with AsynchronousFileChannel, streams are read by a background thread.
+ */
+abstract class ReadAheadChannel implements ReadableByteChannel {
+    private static final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "record-read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    // buffer being consumed (position to limit is what is left) and buffer being read into
+    private ByteBuffer cur;
+    private ByteBuffer next;
+    private Future<Integer> pending;
+    private boolean eof;
+    private boolean open;
+    /**
+     * Create instance of ReadAheadChannel.
+     * @param bufsiz size of each of the two buffers
+     */
+    protected ReadAheadChannel(int bufsiz) {
+        cur = ByteBuffer.allocate(bufsiz);
+        cur.limit(0);
+        next = ByteBuffer.allocate(bufsiz);
+        open = true;
+    }
+    /**
+     * Open file for reading ahead.
+     * @param p path of file
+     * @param bufsiz size of each of the two buffers
+     * @return channel
+     * @throws IOException if problem opening file
+     */
+    static ReadAheadChannel open(Path p, int bufsiz) throws IOException {
+        return new FileReadAhead(AsynchronousFileChannel.open(p, StandardOpenOption.READ), bufsiz);
+    }
+    /**
+     * Read stream ahead in background thread.
+     * @param is stream
+     * @param bufsiz size of each of the two buffers
+     * @return channel
+     */
+    static ReadAheadChannel open(InputStream is, int bufsiz) {
+        return new StreamReadAhead(is, bufsiz);
+    }
+    /**
+     * Start reading into buffer from its position.
+     * @param bb buffer
+     * @return number of bytes read when done (-1 indicates end of input)
+     */
+    protected abstract Future<Integer> fill(ByteBuffer bb);
+    /**
+     * Close input.
+     * @throws IOException if problem closing input
+     */
+    protected abstract void closeInput() throws IOException;
+    /**
+     * Called when a read is done.
+     * @param n number of bytes read
+     */
+    protected void filled(int n) {
+    }
+    public int read(ByteBuffer dst) throws IOException {
+        if(!open) {
+            throw new ClosedChannelException();
+        }
+        while(!cur.hasRemaining()) {
+            if(eof) {
+                return -1;
+            }
+            if(pending == null) {
+                next.clear();
+                pending = fill(next);
+            }
+            int n = await();
+            if(n < 0) {
+                eof = true;
+                return -1;
+            }
+            filled(n);
+            // consume what was read and start reading into the buffer just consumed
+            ByteBuffer tmp = cur;
+            cur = next;
+            cur.flip();
+            next = tmp;
+            next.clear();
+            pending = fill(next);
+        }
+        int n = Math.min(dst.remaining(), cur.remaining());
+        int lim = cur.limit();
+        cur.limit(cur.position() + n);
+        dst.put(cur);
+        cur.limit(lim);
+        return n;
+    }
+    // wait for read in progress
+    private int await() throws IOException {
+        try {
+            return pending.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for read ahead");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Read ahead failed", e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+    /**
+     * Stop reading ahead without closing input.
+     * <br>
+     * A read in progress is cancelled instead of waited for, because it may be blocked on an input that
+     * gets no more data. The bytes it reads are lost. After reading to the end of input there is no read in progress.
+     */
+    void finish() {
+        if(pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+    public boolean isOpen() {
+        return open;
+    }
+    public void close() throws IOException {
+        if(open) {
+            open = false;
+            closeInput();
+        }
+    }
+    private static class FileReadAhead extends ReadAheadChannel {
+        private final AsynchronousFileChannel ch;
+        private long pos;
+        FileReadAhead(AsynchronousFileChannel ch, int bufsiz) {
+            super(bufsiz);
+            this.ch = ch;
+        }
+        protected Future<Integer> fill(ByteBuffer bb) {
+            return ch.read(bb, pos);
+        }
+        protected void filled(int n) {
+            pos += n;
+        }
+        protected void closeInput() throws IOException {
+            ch.close();
+        }
+    }
+    private static class StreamReadAhead extends ReadAheadChannel {
+        private final InputStream is;
+        StreamReadAhead(InputStream is, int bufsiz) {
+            super(bufsiz);
+            this.is = is;
+        }
+        protected Future<Integer> fill(final ByteBuffer bb) {
+            return readers.submit(new Callable<Integer>() {
+                public Integer call() throws IOException {
+                    int n = is.read(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+                    if(n > 0) {
+                        bb.position(bb.position() + n);
+                    }
+                    return n;
+                }
+            });
+        }
+        protected void closeInput() throws IOException {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class RecordDecoder decodes native structs from chunks of bytes as they arrive (typical from a non-blocking
+ * SocketChannel) and passes complete Java objects to a handler.
+ * <br>
+ * Bytes of a struct that is not complete are kept until the next chunk arrives, so a decoder per connection
+ * is all the state needed in a selector loop.
+ * <br>
+ * Structs can either be back to back (alignment is relative to the start of the stream and REMSTR fields are
+ * not supported) or each be preceded by a big endian length prefix of 2 or 4 bytes (alignment is relative to
+ * the start of the struct and bytes in the frame after the struct are skipped).
+ * <br>
+ * Structs longer than a maximum length (default 1 MB) are rejected before any buffer space is allocated
+ * for them, so a peer can not make the decoder allocate huge buffers.
+ */
+public class RecordDecoder<T> {
+    private static Logger log = Logger.getLogger(RecordDecoder.class.getName());
+    private final static int DEFAULT_BUFSIZ = 8192;
+    private final static int DEFAULT_MAXLENGTH = 1024 * 1024;
+    // largest alignment
+    private final static int MAXALIGN = 8;
+    private final Class<T> t;
+    private final InfoProvider lenpvd;
+    private final int prefixlength;
+    private final int maxlength;
+    private final Util.ObjectHandler<T> oh;
+    private final StructReader sr;
+    private DecodeListener listener;
+    // field values of struct being read are passed on to listener when it is read completely
+    private final PendingListener pending = new PendingListener();
+    private byte[] buf;
+    // stream offset of start of buffer (multiple of MAXALIGN)
+    private long base;
+    // first byte not decoded and end of bytes received
+    private int head;
+    private int tail;
+    /**
+     * Create instance of RecordDecoder for structs back to back.
+     * @param t class of what to read
+     * @param oh handler of objects
+     */
+    public RecordDecoder(Class<T> t, Util.ObjectHandler<T> oh) {
+        this(t, null, 0, oh);
+    }
+    /**
+     * Create instance of RecordDecoder.
+     * @param t class of what to read
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @param prefixlength length of big endian length prefix in front of every struct (0, 2 or 4 - 0 indicates no prefix)
+     * @param oh handler of objects
+     * @throws IllegalArgumentException if prefix length is not 0, 2 or 4
+     */
+    public RecordDecoder(Class<T> t, InfoProvider lenpvd, int prefixlength, Util.ObjectHandler<T> oh) {
+        this(t, lenpvd, prefixlength, DEFAULT_MAXLENGTH, oh);
+    }
+    /**
+     * Create instance of RecordDecoder.
+     * @param t class of what to read
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @param prefixlength length of big endian length prefix in front of every struct (0, 2 or 4 - 0 indicates no prefix)
+     * @param maxlength maximum length of struct (frame excluding prefix if there is a length prefix)
+     * @param oh handler of objects
+     * @throws IllegalArgumentException if prefix length is not 0, 2 or 4 or maximum length is not positive
+     */
+    public RecordDecoder(Class<T> t, InfoProvider lenpvd, int prefixlength, int maxlength, Util.ObjectHandler<T> oh) {
+        if(prefixlength != 0 && prefixlength != 2 && prefixlength != 4) {
+            throw new IllegalArgumentException("Length prefix must be 0, 2 or 4 bytes: " + prefixlength);
+        }
+        if(maxlength <= 0 || maxlength > Integer.MAX_VALUE - 2 * MAXALIGN) {
+            throw new IllegalArgumentException("Invalid maximum length: " + maxlength);
+        }
+        this.t = t;
+        this.lenpvd = lenpvd;
+        this.prefixlength = prefixlength;
+        this.maxlength = maxlength;
+        this.oh = oh;
+        buf = new byte[DEFAULT_BUFSIZ];
+        sr = new StructReader(buf, 0, 0);
+        listener = sr.listener;
+        sr.setDecodeListener(listener != null ? pending : null);
+        if(log.isLoggable(Level.FINE)) {
+            log.fine("RecordDecoder initialized with buffersize " + buf.length);
+        }
+    }
+    /**
+     * Set listener for field values read.
+     * @param listener listener (null indicates no tracing)
+     */
+    public void setDecodeListener(DecodeListener listener) {
+        this.listener = listener;
+        sr.setDecodeListener(listener != null ? pending : null);
+    }
+    /**
+     * Get listener for field values read.
+     * @return listener (null if no tracing)
+     */
+    public DecodeListener getDecodeListener() {
+        return listener;
+    }
+    /**
+     * Decode chunk of bytes.
+     * @param chunk bytes from position to limit (position is moved to limit)
+     * @return number of objects passed to handler
+     * @throws RecordException if impossible to convert between types in class and struct or invalid length prefix
+     * @throws IOException if thrown by handler
+     */
+    public int decode(ByteBuffer chunk) throws RecordException, IOException {
+        int n = chunk.remaining();
+        room(n);
+        chunk.get(buf, tail, n);
+        tail += n;
+        return process();
+    }
+    /**
+     * Decode chunk of bytes.
+     * @param b byte array
+     * @param off offset of first byte
+     * @param len number of bytes
+     * @return number of objects passed to handler
+     * @throws RecordException if impossible to convert between types in class and struct or invalid length prefix
+     * @throws IOException if thrown by handler
+     */
+    public int decode(byte[] b, int off, int len) throws RecordException, IOException {
+        room(len);
+        System.arraycopy(b, off, buf, tail, len);
+        tail += len;
+        return process();
+    }
+    /**
+     * Read the bytes available from channel and decode them.
+     * <br>
+     * Does not block if the channel is in non-blocking mode.
+     * @param ch channel to read from
+     * @return number of bytes read (-1 indicates end of stream)
+     * @throws RecordException if impossible to convert between types in class and struct or invalid length prefix
+     * @throws IOException if problem with channel or thrown by handler
+     */
+    public int read(ReadableByteChannel ch) throws RecordException, IOException {
+        room(1);
+        ByteBuffer bb = ByteBuffer.wrap(buf, tail, buf.length - tail);
+        int n = ch.read(bb);
+        if(n > 0) {
+            tail += n;
+            process();
+        }
+        return n;
+    }
+    /**
+     * Check that the stream did not end within a struct.
+     * @throws RecordException if there are bytes of an incomplete struct
+     */
+    public void finish() throws RecordException {
+        if(head < tail) {
+            throw new RecordException("Stream ended with " + (tail - head) + " bytes of incomplete struct");
+        }
+    }
+    /**
+     * Get position.
+     * @return number of bytes of stream decoded
+     */
+    public long getPosition() {
+        return base + head;
+    }
+    // make room for n more bytes (bytes from head and preceding bytes to keep alignment are kept)
+    private void room(int n) {
+        if(buf.length - tail >= n) {
+            return;
+        }
+        int keep = head - head % MAXALIGN;
+        int len = tail - keep;
+        byte[] dst = buf;
+        if(len + n > buf.length) {
+            dst = new byte[Math.max(2 * buf.length, len + n)];
+            if(log.isLoggable(Level.FINE)) {
+                log.fine("RecordDecoder extended to buffersize " + dst.length);
+            }
+        }
+        System.arraycopy(buf, keep, dst, 0, len);
+        buf = dst;
+        base += keep;
+        head -= keep;
+        tail -= keep;
+    }
+    // decode complete structs
+    private int process() throws RecordException, IOException {
+        int res = 0;
+        if(prefixlength == 0) {
+            sr.reset(ByteBuffer.wrap(buf, 0, tail));
+            sr.skip(head);
+            while(head < tail) {
+                T o;
+                try {
+                    o = sr.read(t, lenpvd);
+                    commit();
+                } catch(RecordException e) {
+                    // struct not complete yet (will be read again when more bytes arrive)
+                    if(e.getCause() instanceof BufferUnderflowException) {
+                        pending.discard();
+                        if(tail - head > maxlength) {
+                            throw new RecordException("Incomplete struct at " + (base + head) + " is longer than maximum length " + maxlength);
+                        }
+                        break;
+                    }
+                    commit();
+                    throw e;
+                }
+                head = sr.getPosition();
+                res++;
+                oh.process(o);
+            }
+        } else {
+            while(tail - head >= prefixlength) {
+                int len = prefix();
+                if(len < 0 || len > maxlength) {
+                    throw new RecordException("Invalid length prefix at " + (base + head) + ": " + len + " (maximum length " + maxlength + ")");
+                }
+                if(tail - head - prefixlength < len) {
+                    room(prefixlength + len - (tail - head));
+                    break;
+                }
+                sr.reset(ByteBuffer.wrap(buf, head + prefixlength, len));
+                T o;
+                try {
+                    o = sr.read(t, lenpvd);
+                } finally {
+                    commit();
+                }
+                head += prefixlength + len;
+                res++;
+                oh.process(o);
+            }
+        }
+        return res;
+    }
+    private void commit() {
+        if(listener != null) {
+            pending.commitDecode(listener);
+        }
+    }
+    // big endian length prefix at head
+    private int prefix() {
+        int res = 0;
+        for(int i = 0; i < prefixlength; i++) {
+            res = (res << 8) | (buf[head + i] & 0xFF);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Class RecordStreams contains the spliterators and collectors behind the stream methods in {@link Util}.
+ * <br>
+ * RecordException is thrown as IllegalStateException and IOException as UncheckedIOException,
+ * because streams can not throw checked exceptions.
+ */
+final class RecordStreams {
+    // largest alignment
+    private static final int MAXALIGN = 8;
+    private static final int BUFSIZ = 65536;
+    private RecordStreams() {
+    }
+    /**
+     * Source of fixed length records.
+     */
+    static abstract class Source {
+        /**
+         * Get reader positioned at record.
+         * @param from first record to read
+         * @param to last record to read (exclusive)
+         * @return reader that can read at least one record
+         */
+        abstract StructReader reader(long from, long to);
+    }
+    /**
+     * Spliterator for fixed length records that splits on record boundaries.
+     */
+    static class FixedSpliterator<T> implements Spliterator<T> {
+        private final Class<T> t;
+        private final Source src;
+        private long index;
+        private final long end;
+        private StructReader sr;
+        FixedSpliterator(Class<T> t, Source src, long index, long end) {
+            this.t = t;
+            this.src = src;
+            this.index = index;
+            this.end = end;
+        }
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if(index >= end) {
+                return false;
+            }
+            if(sr == null || !sr.more()) {
+                sr = src.reader(index, end);
+            }
+            T o;
+            try {
+                o = sr.read(t);
+            } catch(RecordException e) {
+                throw new IllegalStateException("Error reading record " + index, e);
+            }
+            index++;
+            action.accept(o);
+            return true;
+        }
+        public Spliterator<T> trySplit() {
+            long mid = (index + end) >>> 1;
+            if(mid <= index) {
+                return null;
+            }
+            Spliterator<T> res = new FixedSpliterator<T>(t, src, index, mid);
+            index = mid;
+            sr = null;
+            return res;
+        }
+        public long estimateSize() {
+            return end - index;
+        }
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+    /**
+     * Spliterator for fixed length records in byte array.
+     * @param t type
+     * @param b byte array
+     * @param reclen record length
+     * @return spliterator
+     */
+    static <T> Spliterator<T> fixed(Class<T> t, final byte[] b, final int reclen) {
+        return new FixedSpliterator<T>(t, new Source() {
+            StructReader reader(long from, long to) {
+                // reader from start of array to keep alignment
+                StructReader sr = new StructReader(b, 0, (int)Math.min(to * reclen, b.length));
+                sr.skip((int)(from * reclen));
+                return sr;
+            }
+        }, 0, (b.length + reclen - 1) / reclen);
+    }
+    /**
+     * Spliterator for variable length records in byte array.
+     * @param t type
+     * @param b byte array
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return spliterator
+     */
+    static <T> Spliterator<T> variable(final Class<T> t, byte[] b, final InfoProvider lenpvd) {
+        final StructReader sr = new StructReader(b);
+        return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if(!sr.more()) {
+                    return false;
+                }
+                try {
+                    action.accept(sr.read(t, lenpvd));
+                } catch(RecordException e) {
+                    throw new IllegalStateException("Error reading record at " + sr.getPosition(), e);
+                }
+                return true;
+            }
+        };
+    }
+    /**
+     * Spliterator for records in stream.
+     * @param t type
+     * @param ssr stream reader
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return spliterator
+     */
+    static <T> Spliterator<T> variable(final Class<T> t, final StructStreamReader ssr, final InfoProvider lenpvd) {
+        return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if(!ssr.more()) {
+                        return false;
+                    }
+                    action.accept(ssr.read(t, lenpvd));
+                } catch(RecordException e) {
+                    throw new IllegalStateException("Error reading record at " + ssr.getPosition(), e);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            }
+        };
+    }
+    /**
+     * Container for collectors writing records.
+     */
+    static class Encoder {
+        private final Class<?> t;
+        private final InfoProvider lenpvd;
+        private final StructWriter sw;
+        Encoder(Class<?> t, InfoProvider lenpvd, OutputStream os) {
+            this.t = t;
+            this.lenpvd = lenpvd;
+            sw = os != null ? new StructWriter(os, BUFSIZ) : new StructWriter(BUFSIZ);
+        }
+        void write(Object o) {
+            try {
+                sw.write(o, lenpvd);
+            } catch(RecordException e) {
+                if(e.getCause() instanceof IOException) {
+                    throw new UncheckedIOException((IOException)e.getCause());
+                }
+                throw new IllegalStateException("Error writing " + o.getClass().getName(), e);
+            }
+        }
+        Encoder append(Encoder right) {
+            byte[] b = right.sw.getBytes();
+            if(sw.getLength() % MAXALIGN == 0) {
+                sw.put(b);
+            } else {
+                // alignment of the right part changes so it has to be written again
+                StructReader sr = new StructReader(b);
+                try {
+                    while(sr.more()) {
+                        write(sr.read(t, lenpvd));
+                    }
+                } catch(RecordException e) {
+                    throw new IllegalStateException("Error reading " + t.getName(), e);
+                }
+            }
+            return this;
+        }
+        byte[] getBytes() {
+            return sw.getBytes();
+        }
+        long finish() {
+            try {
+                sw.flush();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sw.getPosition();
+        }
+    }
+    /**
+     * Collector writing records to byte array or stream.
+     */
+    static class EncodeCollector<T, R> implements Collector<T, Encoder, R> {
+        private final Class<T> t;
+        private final InfoProvider lenpvd;
+        private final OutputStream os;
+        EncodeCollector(Class<T> t, InfoProvider lenpvd, OutputStream os) {
+            this.t = t;
+            this.lenpvd = lenpvd;
+            this.os = os;
+        }
+        public Supplier<Encoder> supplier() {
+            return new Supplier<Encoder>() {
+                // a parallel stream gets a container per split and they would all write to the stream
+                private final AtomicBoolean used = new AtomicBoolean();
+                public Encoder get() {
+                    if(os != null && used.getAndSet(true)) {
+                        throw new IllegalStateException("Collector writing to OutputStream can only be used with sequential streams");
+                    }
+                    return new Encoder(t, lenpvd, os);
+                }
+            };
+        }
+        public BiConsumer<Encoder, T> accumulator() {
+            return new BiConsumer<Encoder, T>() {
+                public void accept(Encoder enc, T o) {
+                    enc.write(o);
+                }
+            };
+        }
+        public BinaryOperator<Encoder> combiner() {
+            return new BinaryOperator<Encoder>() {
+                public Encoder apply(Encoder left, Encoder right) {
+                    if(os != null) {
+                        throw new IllegalStateException("Collector writing to OutputStream can only be used with sequential streams");
+                    }
+                    return left.append(right);
+                }
+            };
+        }
+        @SuppressWarnings("unchecked")
+        public Function<Encoder, R> finisher() {
+            return new Function<Encoder, R>() {
+                public R apply(Encoder enc) {
+                    return os != null ? (R)Long.valueOf(enc.finish()) : (R)enc.getBytes();
+                }
+            };
+        }
+        public Set<Characteristics> characteristics() {
+            return Collections.emptySet();
+        }
+    }
+}
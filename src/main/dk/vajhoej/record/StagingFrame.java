@@ -0,0 +1,128 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Class StagingFrame holds field values read for a struct that is instantiated via a constructor
+ * taking all fields (Java records and immutable classes).
+ * <br>
+ * Primitive values are kept as raw bits in a long array so they are not boxed.
+ */
+final class StagingFrame {
+    private static final MethodHandle GETPRIM;
+    private static final MethodHandle SETPRIM;
+    private static final MethodHandle GETREF;
+    private static final MethodHandle SETREF;
+    private static final MethodHandle FLOATTOBITS;
+    private static final MethodHandle BITSTOFLOAT;
+    private static final MethodHandle DOUBLETOBITS;
+    private static final MethodHandle BITSTODOUBLE;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GETPRIM = lookup.findStatic(StagingFrame.class, "getPrim", MethodType.methodType(long.class, StagingFrame.class, int.class));
+            SETPRIM = lookup.findStatic(StagingFrame.class, "setPrim", MethodType.methodType(void.class, StagingFrame.class, int.class, long.class));
+            GETREF = lookup.findStatic(StagingFrame.class, "getRef", MethodType.methodType(Object.class, StagingFrame.class, int.class));
+            SETREF = lookup.findStatic(StagingFrame.class, "setRef", MethodType.methodType(void.class, StagingFrame.class, int.class, Object.class));
+            FLOATTOBITS = lookup.findStatic(Float.class, "floatToRawIntBits", MethodType.methodType(int.class, float.class));
+            BITSTOFLOAT = lookup.findStatic(Float.class, "intBitsToFloat", MethodType.methodType(float.class, int.class));
+            DOUBLETOBITS = lookup.findStatic(Double.class, "doubleToRawLongBits", MethodType.methodType(long.class, double.class));
+            BITSTODOUBLE = lookup.findStatic(Double.class, "longBitsToDouble", MethodType.methodType(double.class, long.class));
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private final long[] prims;
+    private final Object[] refs;
+    /**
+     * Create instance of StagingFrame.
+     * @param n number of fields
+     */
+    StagingFrame(int n) {
+        prims = new long[n];
+        refs = new Object[n];
+    }
+    private static long getPrim(StagingFrame f, int ix) {
+        return f.prims[ix];
+    }
+    private static void setPrim(StagingFrame f, int ix, long v) {
+        f.prims[ix] = v;
+    }
+    private static Object getRef(StagingFrame f, int ix) {
+        return f.refs[ix];
+    }
+    private static void setRef(StagingFrame f, int ix, Object v) {
+        f.refs[ix] = v;
+    }
+    /**
+     * Get getter for slot.
+     * @param ix slot index (field number)
+     * @param type field type
+     * @return getter with type (StagingFrame)type
+     */
+    static MethodHandle getter(int ix, Class<?> type) {
+        if(!type.isPrimitive()) {
+            return MethodHandles.insertArguments(GETREF, 1, ix).asType(MethodType.methodType(type, StagingFrame.class));
+        }
+        MethodHandle res = MethodHandles.insertArguments(GETPRIM, 1, ix);
+        if(type == float.class) {
+            return MethodHandles.filterReturnValue(MethodHandles.explicitCastArguments(res, MethodType.methodType(int.class, StagingFrame.class)), BITSTOFLOAT);
+        }
+        if(type == double.class) {
+            return MethodHandles.filterReturnValue(res, BITSTODOUBLE);
+        }
+        return MethodHandles.explicitCastArguments(res, MethodType.methodType(type, StagingFrame.class));
+    }
+    /**
+     * Get setter for slot.
+     * @param ix slot index (field number)
+     * @param type field type
+     * @return setter with type (StagingFrame,type)void
+     */
+    static MethodHandle setter(int ix, Class<?> type) {
+        if(!type.isPrimitive()) {
+            return MethodHandles.insertArguments(SETREF, 1, ix).asType(MethodType.methodType(void.class, StagingFrame.class, type));
+        }
+        MethodHandle res = MethodHandles.insertArguments(SETPRIM, 1, ix);
+        if(type == float.class) {
+            return MethodHandles.filterArguments(MethodHandles.explicitCastArguments(res, MethodType.methodType(void.class, StagingFrame.class, int.class)), 1, FLOATTOBITS);
+        }
+        if(type == double.class) {
+            return MethodHandles.filterArguments(res, 1, DOUBLETOBITS);
+        }
+        return MethodHandles.explicitCastArguments(res, MethodType.methodType(void.class, StagingFrame.class, type));
+    }
+    /**
+     * Adapt constructor taking all fields to take a frame.
+     * @param ctor constructor
+     * @param slots slot index for each constructor parameter
+     * @return constructor with type (StagingFrame)Object
+     */
+    static MethodHandle spread(MethodHandle ctor, int[] slots) {
+        Class<?>[] types = ctor.type().parameterArray();
+        MethodHandle[] filters = new MethodHandle[types.length];
+        for(int i = 0; i < types.length; i++) {
+            filters[i] = getter(slots[i], types[i]);
+        }
+        MethodHandle res = MethodHandles.filterArguments(ctor.asType(ctor.type().changeReturnType(Object.class)), 0, filters);
+        return MethodHandles.permuteArguments(res, MethodType.methodType(Object.class, StagingFrame.class), new int[types.length]);
+    }
+}
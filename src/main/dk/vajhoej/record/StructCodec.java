@@ -0,0 +1,48 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface StructCodec represents code specialized for reading and writing all fields of one struct.
+ * <br>
+ * Implementations are generated at runtime (see {@link StructInfo#setGenerateCodec(boolean)})
+ * or at compile time (see {@link StructProcessor}) and are used by StructReader and StructWriter
+ * when no InfoProvider is given. A codec sets the byte order and handles all padding itself.
+ */
+public interface StructCodec<T> {
+    /**
+     * Create instance to read into.
+     * @return new instance
+     */
+    public T create();
+    /**
+     * Read all fields.
+     * @param bb buffer to read from
+     * @param o object to read into
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public void read(ByteBuffer bb, T o) throws RecordException;
+    /**
+     * Write all fields.
+     * @param bb buffer to write to
+     * @param o object to write
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public void write(ByteBuffer bb, T o) throws RecordException;
+}
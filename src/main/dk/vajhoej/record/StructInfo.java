@@ -16,13 +16,21 @@
 
 package dk.vajhoej.record;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -30,12 +38,28 @@ import java.util.logging.Logger;
  */
 public class StructInfo {
     private static Logger log = Logger.getLogger(StructInfo.class.getName());
+    private static volatile boolean generateCodec = Boolean.getBoolean("dk.vajhoej.record.generate");
+    // classes being analyzed by current thread (to detect recursive struct definitions)
+    private static final ThreadLocal<List<Class<?>>> analyzing = new ThreadLocal<List<Class<?>>>() {
+        @Override
+        protected List<Class<?>> initialValue() {
+            return new ArrayList<Class<?>>();
+        }
+    };
 	private Endian endianess;
 	private Alignment alignment;
 	private boolean endpad;
 	private List<FieldInfo> fields;
     private boolean fixedLength;
     private int length;
+    private List<FieldOffset> offsets;
+    private FieldCodec[] codecs;
+    private Class<?> clz;
+    private MethodHandle constructor;
+    private boolean staged;
+    private Exception noconstructor;
+    private volatile StructCodec<Object> codec;
+    private volatile boolean codecGenerated;
 	/**
 	 * Create instance of StructInfo.
 	 * @param endianess byte order for all fields
@@ -52,6 +76,66 @@ public class StructInfo {
 		this.fields = fields;
 		fixedLength = calculateFixedLength(fields);
 		length = calculateLength(fields, alignment, endpad, clz);
+		offsets = new ArrayList<FieldOffset>();
+		calculateOffsets("", fields, alignment, endianess, endpad, clz, 0, offsets);
+		offsets = Collections.unmodifiableList(offsets);
+		codecs = FieldCodec.compile(fields, alignment, endianess, clz);
+		this.clz = clz;
+		findConstructor();
+	}
+	// no-arg constructor or constructor taking all fields (canonical constructor for records)
+	private void findConstructor() {
+	    try {
+	        Constructor<?> c = clz.getDeclaredConstructor();
+	        c.setAccessible(true);
+	        constructor = MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+	        return;
+	    } catch(NoSuchMethodException e) {
+	        noconstructor = e;
+	    } catch(Exception e) {
+	        noconstructor = e;
+	        return;
+	    }
+	    int[] slots = new int[fields.size()];
+	    Class<?>[] types = new Class<?>[fields.size()];
+	    for(int i = 0; i < fields.size(); i++) {
+	        if(fields.get(i).getSelects() != null) {
+	            return;
+	        }
+	        slots[i] = i;
+	        types[i] = fields.get(i).getClassType();
+	    }
+	    if(clz.isRecord()) {
+	        // canonical constructor has components in declaration order
+	        RecordComponent[] rc = clz.getRecordComponents();
+	        if(rc.length != fields.size()) {
+	            return;
+	        }
+	        for(int i = 0; i < rc.length; i++) {
+	            slots[i] = -1;
+	            for(int j = 0; j < fields.size(); j++) {
+	                if(fields.get(j).getField().getName().equals(rc[i].getName())) {
+	                    slots[i] = j;
+	                }
+	            }
+	            if(slots[i] < 0) {
+	                return;
+	            }
+	            types[i] = rc[i].getType();
+	        }
+	    }
+	    try {
+	        Constructor<?> c = clz.getDeclaredConstructor(types);
+	        c.setAccessible(true);
+	        constructor = StagingFrame.spread(MethodHandles.lookup().unreflectConstructor(c), slots);
+	        staged = true;
+	        for(FieldCodec fc : codecs) {
+	            fc.stage();
+	        }
+	        log.finer(clz.getName() + " instantiated via constructor with all fields");
+	    } catch(Exception e) {
+	        // keep the no-arg constructor problem
+	    }
 	}
 	/**
      * Get endianess.
@@ -94,42 +178,245 @@ public class StructInfo {
      */
     public int getLength() {
         return length;
+    }
+    /**
+     * Get offsets of fields.
+     * <br>
+     * Only the fields before the first field with variable length, BIT field or selector that does not
+     * select this class are included (the selector itself is included). Offsets assume that the element
+     * counts are not changed by an InfoProvider.
+     * @return offsets in field order with members of nested structs following the struct field
+     */
+    public List<FieldOffset> getOffsets() {
+        return offsets;
+    }
+    /**
+     * Get offset of field.
+     * @param name name of field (path like "sub.field" or "arr[1].field" for members of nested structs)
+     * @return offset or null if field does not have a fixed offset
+     */
+    public FieldOffset getOffset(String name) {
+        for(FieldOffset fo : offsets) {
+            if(fo.getName().equals(name)) {
+                return fo;
+            }
+        }
+        return null;
+    }
+    /**
+     * Get codecs compiled for fields.
+     * @return codecs in field order
+     */
+    FieldCodec[] getCodecs() {
+        return codecs;
+    }
+    /**
+     * Check if structs can be stored back to back with the fixed length.
+     * <br>
+     * Alignment is relative to the start of the data, so a struct only has the same layout at every
+     * multiple of the length if the length is a multiple of the largest alignment or nothing is aligned.
+     * @return true=yes, false=no
+     * @throws RecordException if error analyzing nested structs
+     */
+    boolean hasFixedStride() throws RecordException {
+        return fixedLength && length > 0 && (length % 8 == 0 || isPacked(new HashSet<Class<?>>()));
+    }
+    private boolean isPacked(Set<Class<?>> visited) throws RecordException {
+        if(!visited.add(clz)) {
+            return true;
+        }
+        if(alignment != Alignment.PACKED && alignment != Alignment.ALIGN1) {
+            return false;
+        }
+        for(FieldInfo fi : fields) {
+            if(fi.getStructType() == FieldType.STRUCT) {
+                Class<?> subclz = fi.getClassType().isArray() ? fi.getClassType().getComponentType() : fi.getClassType();
+                if(!StructInfoCache.analyze(subclz).isPacked(visited)) {
+                    return false;
+                }
+            }
+            if(fi.getSelects() != null) {
+                for(SubClassAndPad scp : fi.getSelects().values()) {
+                    if(!StructInfoCache.analyze(scp.getSubClass()).isPacked(visited)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    /**
+     * Check if reading can continue as sub class after a selector field.
+     * <br>
+     * That requires that the fields up to and including the selector are decoded the same way in both.
+     * @param sub StructInfo for sub class
+     * @param ix index of selector field
+     * @return true=copy fields read and continue, false=read again as sub class
+     */
+    boolean canContinue(StructInfo sub, int ix) {
+        if(staged || sub.staged || sub.constructor == null || sub.endianess != endianess || sub.codecs.length <= ix) {
+            return false;
+        }
+        for(int i = 0; i <= ix; i++) {
+            FieldCodec fc = codecs[i];
+            FieldCodec subfc = sub.codecs[i];
+            if(fc.getClass() != subfc.getClass() || fc.align != subfc.align || !fc.getFieldInfo().getField().equals(subfc.getFieldInfo().getField())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Is struct instantiated via a constructor taking all fields.
+     * @return true=values are staged and passed to constructor, false=values are stored in instance
+     */
+    public boolean isStaged() {
+        return staged;
+    }
+    /**
+     * Get what values are read into: a new instance or a StagingFrame.
+     * @return instance or frame
+     * @throws RecordException if class has no usable constructor
+     */
+    Object instantiate() throws RecordException {
+        if(staged) {
+            return new StagingFrame(codecs.length);
+        }
+        if(constructor == null) {
+            throw new RecordException("Cannot instantiate class", noconstructor);
+        }
+        try {
+            return (Object)constructor.invokeExact();
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Error e) {
+            throw e;
+        } catch(Throwable e) {
+            throw new RecordException("Cannot instantiate class", e);
+        }
+    }
+    /**
+     * Get object read: if values are staged then construct it otherwise the instance is returned.
+     * @param target what values were read into
+     * @return object
+     * @throws RecordException if constructor throws checked exception
+     */
+    Object construct(Object target) throws RecordException {
+        if(!staged) {
+            return target;
+        }
+        try {
+            return (Object)constructor.invokeExact((StagingFrame)target);
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Error e) {
+            throw e;
+        } catch(Throwable e) {
+            throw new RecordException("Cannot instantiate class", e);
+        }
+    }
+    /**
+     * Get generated codec.
+     * <br>
+     * The codec is generated at first call if code generation is enabled.
+     * @return codec or null if code generation is disabled or not supported for struct
+     */
+    public StructCodec<Object> getCodec() {
+        if(!generateCodec) {
+            return null;
+        }
+        if(!codecGenerated) {
+            synchronized(this) {
+                if(!codecGenerated) {
+                    codec = CodecGenerator.generate(clz, this);
+                    codecGenerated = true;
+                }
+            }
+        }
+        return codec;
+    }
+    /**
+     * Enable or disable code generation.
+     * <br>
+     * Default is disabled unless system property dk.vajhoej.record.generate is set to true.
+     * @param generateCodec true=generate codecs, false=do not generate codecs
+     */
+    public static void setGenerateCodec(boolean generateCodec) {
+        StructInfo.generateCodec = generateCodec;
+    }
+    /**
+     * Get whether code generation is enabled.
+     * @return true=generate codecs, false=do not generate codecs
+     */
+    public static boolean getGenerateCodec() {
+        return generateCodec;
+    }
+    /**
+     * Calculate padding at end.
+     * @param pos current position
+     * @return number of padding bytes
+     */
+    int calculateEndPad(int pos) {
+        int npad = 0;
+        for(FieldCodec fc : codecs) {
+            npad = Math.max(npad, fc.pad(pos));
+        }
+        return npad;
     }
 	/**
 	 * Analyze class.
+	 * <br>
+	 * Nested structs and sub classes are looked up via StructInfoCache, so each class is only analyzed once.
 	 * @param clz class to analyze
 	 * @return StructInfo for class
-	 * @throws RecordException if error calculation length information
+	 * @throws RecordException if error calculation length information or if struct contains itself
 	 */
     public static StructInfo analyze(Class<?> clz) throws RecordException {
-		List<FieldInfo> fi = new ArrayList<FieldInfo>();
-		analyze(clz, fi, 0, true);
-		log.finer(clz.getName() + " analyzed for StructInfo");
-        Struct s = clz.getAnnotation(Struct.class);
-        return new StructInfo(s.endianess(), s.alignment(), s.endpad(), fi, clz);
+        List<Class<?>> stack = analyzing.get();
+        if(stack.contains(clz)) {
+            StringBuilder path = new StringBuilder();
+            for(Class<?> c : stack.subList(stack.indexOf(clz), stack.size())) {
+                path.append(c.getName());
+                path.append(" -> ");
+            }
+            path.append(clz.getName());
+            throw new RecordException("Recursive struct definition: " + path);
+        }
+        long t0 = stack.isEmpty() ? System.nanoTime() : 0;
+        stack.add(clz);
+        try {
+    		List<FieldInfo> fi = new ArrayList<FieldInfo>();
+    		analyze(clz, fi, 0, true);
+    		log.finer(clz.getName() + " analyzed for StructInfo");
+            Struct s = clz.getAnnotation(Struct.class);
+            return new StructInfo(s.endianess(), s.alignment(), s.endpad(), fi, clz);
+        } finally {
+            stack.remove(stack.size() - 1);
+            if(stack.isEmpty()) {
+                StructInfoCache.getInstance().addAnalysisTime(System.nanoTime() - t0);
+            }
+        }
 	}
     static int calculatePad(int pos, Alignment align, FieldInfo fi) throws RecordException {
-        int nbyte = natural(fi);
-        int npad = 0;
+        int nbyte = calculateAlign(align, fi);
+        return (nbyte - pos % nbyte) % nbyte;
+    }
+    static int calculateAlign(Alignment align, FieldInfo fi) throws RecordException {
         switch(align) {
             case PACKED:
             case ALIGN1:
-                npad = 0;
-                break;
+                return 1;
             case NATURAL:
-                npad = (nbyte - pos % nbyte) % nbyte;
-                break;
+                return natural(fi);
             case ALIGN2:
-                npad = (2 - pos % 2) % 2;
-                break;
+                return 2;
             case ALIGN4:
-                npad = (4 - pos % 4) % 4;
-                break;
+                return 4;
             case ALIGN8:
-                npad = (8 - pos % 8) % 8;
-                break;
+                return 8;
+            default:
+                throw new RecordException(align + " is an unknown alignment");
         }
-        return npad;
     }
     static int calculateEndPad(int pos, Alignment align, List<FieldInfo> fields) throws RecordException {
         int npad = 0;
@@ -143,7 +430,7 @@ public class StructInfo {
         if(s == null) {
             throw new IllegalArgumentException(clz.getName() + " is not a struct");
         }
-        if(dosuper && !clz.getSuperclass().equals(Object.class)) {
+        if(dosuper && !clz.getSuperclass().equals(Object.class) && !clz.getSuperclass().equals(Record.class)) {
             analyze(clz.getSuperclass(), allfi, offset, true);
         }
 		Field[] refl = clz.getDeclaredFields();
@@ -202,9 +489,9 @@ public class StructInfo {
                 res = false;
             } else if(fi.getStructType() == FieldType.STRUCT) {
             	if(fi.getClassType().isArray()) {
-                    res = res && analyze(fi.getClassType().getComponentType()).isFixedLength();
+                    res = res && StructInfoCache.analyze(fi.getClassType().getComponentType()).isFixedLength();
             	} else {
-                    res = res && analyze(fi.getClassType()).isFixedLength();
+                    res = res && StructInfoCache.analyze(fi.getClassType()).isFixedLength();
             	}
             }
             if(fi.getSelects() != null) {
@@ -224,58 +511,11 @@ public class StructInfo {
             } else {
             	nelm = 1;
             }
-            switch(fi.getStructType()) {
-	            case REMSTR:
-	                res += 0;
-	                break;
-                case INT1:
-                case UINT1:
-                    res += nelm*1;
-                    break;
-                case INT2:
-                case UINT2:
-                    res += nelm*2;
-                    break;
-                case INT4:
-                case UINT4:
-                case FP4:
-                case UNIXTIME:
-                case VAXFP4:
-                    res += nelm*4;
-                    break;
-                case INT8:
-                case FP8:
-                case JAVATIME:
-                case VMSTIME:
-                case VAXFP8:
-                    res += nelm*8;
-                    break;
-                case INTX:
-                case FIXSTR:
-                case FIXSTRNULTERM:
-                case BOOLEAN:
-                case PACKEDBCD:
-                case ZONEDBCD:
-                    res += nelm*fi.getLength();
-                    break;
-                case VARSTR:
-                    res += nelm*2;
-                    break;
-                case VARFIXSTR:
-                    res += nelm*(2 + fi.getLength());
-                    break;
-                case BIT:
-                    res += nelm*((fi.getLength() + 7) / 8);
-                    break;
-                case STRUCT:
-                	if(fi.getClassType().isArray()) {
-                        res += nelm*analyze(fi.getClassType().getComponentType()).getLength();
-                	} else {
-                        res += nelm*analyze(fi.getClassType()).getLength();
-                	}
-                    break;
-                default:
-                    throw new RecordException(fi.getStructType().name() + " is an unknown type");
+            if(fi.getStructType() == FieldType.STRUCT) {
+                Class<?> subclz = fi.getClassType().isArray() ? fi.getClassType().getComponentType() : fi.getClassType();
+                res += nelm*StructInfoCache.analyze(subclz).getLength();
+            } else {
+                res += nelm*size(fi);
             }
             if(fi.getSelects() != null) {
                 if(fi.getSelectPad()) {
@@ -290,7 +530,7 @@ public class StructInfo {
                     }
                     if(!fnd) {
                         SubClassAndPad scp = fi.getSelects().values().toArray(new SubClassAndPad[1])[0];
-                        res = analyze(scp.getSubClass()).getLength();
+                        res = StructInfoCache.analyze(scp.getSubClass()).getLength();
                     }
                 }
             }
@@ -301,10 +541,107 @@ public class StructInfo {
         return res;
     }
     private static int calculateExtraLength(Class<?> clz, int offset) throws RecordException {
-        List<FieldInfo> fi = new ArrayList<FieldInfo>();
-        analyze(clz, fi, offset, false);
-        Struct s = clz.getAnnotation(Struct.class);
-        return calculateLength(fi, s.alignment(), s.endpad(), clz);
+        StructInfoCache cache = StructInfoCache.getInstance();
+        int res = cache.getExtraLength(clz, offset);
+        if(res < 0) {
+            List<FieldInfo> fi = new ArrayList<FieldInfo>();
+            analyze(clz, fi, offset, false);
+            Struct s = clz.getAnnotation(Struct.class);
+            res = calculateLength(fi, s.alignment(), s.endpad(), clz);
+            cache.putExtraLength(clz, offset, res);
+        }
+        return res;
+    }
+    // add offsets of fields with fixed offset and return position after the fields (-1 if not all fields have fixed offset)
+    private static int calculateOffsets(String prefix, List<FieldInfo> fields, Alignment alignment, Endian endianess, boolean endpad, Class<?> clz, int pos, List<FieldOffset> res) throws RecordException {
+        int selpad = 0;
+        for(FieldInfo fi : fields) {
+            FieldType ft = fi.getStructType();
+            if(ft == FieldType.VARSTR || ft == FieldType.REMSTR || ft == FieldType.BIT) {
+                return -1;
+            }
+            pos += calculatePad(pos, alignment, fi);
+            int nelm = fi.getClassType().isArray() ? fi.getElements() : 1;
+            String name = prefix + fi.getField().getName();
+            if(ft == FieldType.STRUCT) {
+                Class<?> subclz = fi.getClassType().isArray() ? fi.getClassType().getComponentType() : fi.getClassType();
+                StructInfo sub = StructInfoCache.analyze(subclz);
+                int ix = res.size();
+                int start = pos;
+                for(int i = 0; i < nelm && pos >= 0; i++) {
+                    String subprefix = fi.getClassType().isArray() ? name + "[" + i + "]." : name + ".";
+                    pos = calculateOffsets(subprefix, sub.fields, sub.alignment, sub.endianess, sub.endpad, sub.clz, pos, res);
+                }
+                if(pos < 0) {
+                    return -1;
+                }
+                res.add(ix, new FieldOffset(name, fi, endianess, start, pos - start, natural(fi)));
+            } else {
+                res.add(new FieldOffset(name, fi, endianess, pos, nelm*size(fi), natural(fi)));
+                pos += nelm*size(fi);
+            }
+            // fields after selector only have fixed offset if the selector selects this class
+            if(fi.getSelects() != null) {
+                SubClassAndPad scp = null;
+                for(SubClassAndPad scp2 : fi.getSelects().values()) {
+                    if(scp2.getSubClass().equals(clz)) {
+                        scp = scp2;
+                    }
+                }
+                if(scp == null) {
+                    return -1;
+                }
+                selpad += scp.getPad();
+            }
+        }
+        if(endpad) {
+            pos += calculateEndPad(pos, alignment, fields);
+        }
+        return pos + selpad;
+    }
+    // size of one element of field that is not a STRUCT
+    static int size(FieldInfo fi) throws RecordException {
+        switch(fi.getStructType()) {
+            case REMSTR:
+                return 0;
+            case INT1:
+            case UINT1:
+                return 1;
+            case INT2:
+            case UINT2:
+                return 2;
+            case INT4:
+            case UINT4:
+            case FP4:
+            case UNIXTIME:
+            case VAXFP4:
+                return 4;
+            case INT8:
+            case FP8:
+            case JAVATIME:
+            case VMSTIME:
+            case VAXFP8:
+                return 8;
+            case INTX:
+            case FIXSTR:
+            case FIXSTRNULTERM:
+            case BOOLEAN:
+            case PACKEDBCD:
+            case ZONEDBCD:
+                return fi.getLength();
+            case VARSTR:
+                return prefix(fi);
+            case VARFIXSTR:
+                return prefix(fi) + fi.getLength();
+            case BIT:
+                return (fi.getLength() + 7) / 8;
+            default:
+                throw new RecordException(fi.getStructType().name() + " is an unknown type");
+        }
+    }
+    // size of length prefix of VARSTR and VARFIXSTR
+    static int prefix(FieldInfo fi) {
+        return fi.getPrefixlength() == 0 ? 2 : fi.getPrefixlength();
     }
     private static int natural(FieldInfo fi) throws RecordException {
         switch(fi.getStructType()) {
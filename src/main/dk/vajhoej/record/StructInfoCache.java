@@ -16,19 +16,50 @@
 
 package dk.vajhoej.record;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Class StructInfoCache caches StructInfo objects in a singleton cache.
+ * <br>
+ * Entries are attached to the classes via ClassValue, so lookups do not lock and entries
+ * go away together with the class loader of the class.
  */
 public class StructInfoCache {
     private static Logger log = Logger.getLogger(StructInfoCache.class.getName());
-	private static StructInfoCache instance = null;
-	private Map<Class<?>, StructInfo> cache;
-	private int found;
-	private int total;
+	private static final StructInfoCache instance = new StructInfoCache();
+	// cache entry for one class
+	private static class Slot {
+		private volatile StructInfo si;
+		private volatile StructCodec<Object> compiled;
+		private volatile boolean compiledChecked;
+		// length of fields declared in sub class and number of first of them
+		private volatile int[] extra;
+	}
+	private static class Slots extends ClassValue<Slot> {
+		@Override
+		protected Slot computeValue(Class<?> clz) {
+			return new Slot();
+		}
+	}
+	private volatile Slots cache;
+	private final LongAdder found = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAdder analysisTime = new LongAdder();
 	private StructInfoCache() {
 		reset();
 	}
@@ -36,10 +67,7 @@ public class StructInfoCache {
 	 * Get singleton instance.
 	 * @return instance
 	 */
-	public synchronized static StructInfoCache getInstance() {
-		if(instance == null) {
-			instance = new StructInfoCache();
-		}
+	public static StructInfoCache getInstance() {
 		return instance;
 	}
 	/**
@@ -47,15 +75,15 @@ public class StructInfoCache {
 	 * @param clz class we want StructInfo for
 	 * @return StructInfo
 	 */
-	public synchronized StructInfo get(Class<?> clz) {
-		StructInfo res = cache.get(clz);
+	public StructInfo get(Class<?> clz) {
+		StructInfo res = cache.get(clz).si;
 		if(res != null) {
-			found++;
-            log.finer(clz.getName() + " found in StructInfoCache");
-		} else {
-            log.finer(clz.getName() + " not found in StructInfoCache");
+			found.increment();
+		}
+		if(log.isLoggable(Level.FINER)) {
+		    log.finer(clz.getName() + (res != null ? " found" : " not found") + " in StructInfoCache");
 		}
-		total++;
+		total.increment();
 		return res;
 	}
 	/**
@@ -63,26 +91,170 @@ public class StructInfoCache {
 	 * @param clz class we have StructInfo for
 	 * @param si StructInfo
 	 */
-	public synchronized void put(Class<?> clz, StructInfo si) {
-		cache.put(clz, si);
+	public void put(Class<?> clz, StructInfo si) {
+		cache.get(clz).si = si;
 		log.finer(clz.getName() + " put in StructInfoCache");
 	}
+	/**
+	 * Get codec generated at compile time.
+	 * <br>
+	 * The codec for class p.Foo is looked up as p.FooCodec (see {@link StructProcessor}).
+	 * @param clz class we want codec for
+	 * @return codec or null if none was generated
+	 */
+	public StructCodec<Object> getCompiled(Class<?> clz) {
+		Slot slot = cache.get(clz);
+		if(slot.compiledChecked) {
+			return slot.compiled;
+		}
+		StructCodec<Object> res = findCompiled(clz);
+		slot.compiled = res;
+		slot.compiledChecked = true;
+		log.finer(clz.getName() + (res != null ? " has" : " has no") + " compiled codec");
+		return res;
+	}
+	@SuppressWarnings("unchecked")
+	private static StructCodec<Object> findCompiled(Class<?> clz) {
+		if(clz.getClassLoader() == null) {
+			return null;
+		}
+		try {
+			Class<?> cc = Class.forName(clz.getName() + "Codec", true, clz.getClassLoader());
+			// only accept a class implementing StructCodec<clz>
+			for(Type it : cc.getGenericInterfaces()) {
+				if(it instanceof ParameterizedType) {
+					ParameterizedType pt = (ParameterizedType)it;
+					if(pt.getRawType() == StructCodec.class && pt.getActualTypeArguments()[0] == clz) {
+						return (StructCodec<Object>)cc.getConstructor().newInstance();
+					}
+				}
+			}
+			return null;
+		} catch(ClassNotFoundException e) {
+			return null;
+		} catch(ReflectiveOperationException e) {
+			log.finer(clz.getName() + "Codec cannot be instantiated: " + e);
+			return null;
+		}
+	}
+	/**
+	 * Get length of fields declared in sub class (used for padding sub classes to same length).
+	 * @param clz sub class
+	 * @param offset number of first field declared in sub class
+	 * @return length or -1 if not calculated yet
+	 */
+	int getExtraLength(Class<?> clz, int offset) {
+		int[] extra = cache.get(clz).extra;
+		return extra != null && extra[0] == offset ? extra[1] : -1;
+	}
+	/**
+	 * Put length of fields declared in sub class.
+	 * @param clz sub class
+	 * @param offset number of first field declared in sub class
+	 * @param len length
+	 */
+	void putExtraLength(Class<?> clz, int offset, int len) {
+		cache.get(clz).extra = new int[] { offset, len };
+	}
+	/**
+	 * Add time spent analyzing classes.
+	 * @param ns time in nanoseconds
+	 */
+	void addAnalysisTime(long ns) {
+		analysisTime.add(ns);
+	}
+	/**
+	 * Get total time spent analyzing classes since last reset.
+	 * @return time in nanoseconds
+	 */
+	public long getAnalysisTime() {
+		return analysisTime.sum();
+	}
 	/**
 	 * Get cache hit rate.
 	 * @return hit rate
 	 */
-	public synchronized double getHitRate() {
-		return (total > 0) ? (double)found/(double)total : -1;
+	public double getHitRate() {
+		long n = total.sum();
+		return (n > 0) ? (double)found.sum()/(double)n : -1;
 	}
 	/**
 	 * Reset cache.
 	 */
-	public synchronized void reset() {
-		cache = new HashMap<Class<?>, StructInfo>();
-		found = 0;
-		total = 0;
+	public void reset() {
+		cache = new Slots();
+		found.reset();
+		total.reset();
+		analysisTime.reset();
 		log.finer("StructInfoCache reset");
 	}
+	/**
+	 * Analyze classes in parallel and put them in cache.
+	 * <br>
+	 * Used to move the cost of analyzing classes away from reading the first records.
+	 * @param classes classes
+	 * @throws RecordException if error analyzing a class
+	 */
+	public void preload(Collection<Class<?>> classes) throws RecordException {
+		if(classes.isEmpty()) {
+			return;
+		}
+		int nthreads = Math.min(classes.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService es = Executors.newFixedThreadPool(nthreads);
+		try {
+			List<Future<StructInfo>> res = new ArrayList<Future<StructInfo>>();
+			for(final Class<?> clz : classes) {
+				res.add(es.submit(new Callable<StructInfo>() {
+					public StructInfo call() throws RecordException {
+						getCompiled(clz);
+						return analyze(clz);
+					}
+				}));
+			}
+			for(Future<StructInfo> f : res) {
+				f.get();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RecordException("Preload interrupted", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RecordException) {
+				throw (RecordException)e.getCause();
+			}
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RecordException(e.getCause());
+		} finally {
+			es.shutdownNow();
+		}
+	}
+	/**
+	 * Save layouts of classes to snapshot.
+	 * <br>
+	 * Nested structs and sub classes are saved as well. Classes not in cache are analyzed.
+	 * @param os stream to write snapshot to
+	 * @param classes classes
+	 * @throws IOException if error writing snapshot
+	 * @throws RecordException if error analyzing a class
+	 */
+	public void saveSnapshot(OutputStream os, Collection<Class<?>> classes) throws IOException, RecordException {
+		StructInfoSnapshot.save(os, classes);
+	}
+	/**
+	 * Load layouts from snapshot into cache.
+	 * <br>
+	 * Layouts for classes that have changed since the snapshot was saved or that
+	 * can not be loaded are skipped and will be analyzed when used.
+	 * @param is stream to read snapshot from
+	 * @param cl class loader for the classes
+	 * @return number of classes loaded
+	 * @throws IOException if error reading snapshot
+	 * @throws RecordException if not a valid snapshot
+	 */
+	public int loadSnapshot(InputStream is, ClassLoader cl) throws IOException, RecordException {
+		return StructInfoSnapshot.load(is, cl);
+	}
 	/**
 	 * Convenience method to get StructInfo from cache and analyze class if not in cache.
 	 * @param t class
@@ -98,4 +270,19 @@ public class StructInfoCache {
 		}
 		return si;
 	}
+	/**
+	 * Convenience method to get the preferred codec for a class.
+	 * <br>
+	 * A codec generated at compile time is preferred over one generated at runtime.
+	 * @param t class
+	 * @return codec or null if no codec is available
+	 * @throws RecordException if error analyzing class
+	 */
+	public static StructCodec<Object> codec(Class<?> t) throws RecordException {
+		StructCodec<Object> res = StructInfoCache.getInstance().getCompiled(t);
+		if(res == null && StructInfo.getGenerateCodec()) {
+			res = analyze(t).getCodec();
+		}
+		return res;
+	}
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Class StructInfoSnapshot saves and loads the layouts computed by StructInfo.
+ * <br>
+ * A snapshot contains for each class the field order, types, lengths, selectors and offsets.
+ * Loading a layout only needs one lookup per field instead of reading all the annotations.
+ * <br>
+ * Each layout has a fingerprint calculated from the class files of the class, its super classes,
+ * nested structs and sub classes. Layouts where the fingerprint does not match the classes
+ * being loaded are skipped, so those classes get analyzed as usual.
+ */
+final class StructInfoSnapshot {
+    private static Logger log = Logger.getLogger(StructInfoSnapshot.class.getName());
+    private static final int MAGIC = 0x53544946;
+    private static final int VERSION = 1;
+    private StructInfoSnapshot() {
+    }
+    /**
+     * Save layouts of classes and the classes they depend on.
+     * @param os stream to write to
+     * @param classes classes
+     * @throws IOException if error writing
+     * @throws RecordException if error analyzing classes
+     */
+    static void save(OutputStream os, Collection<Class<?>> classes) throws IOException, RecordException {
+        // dependencies first so they are in cache when loading the classes depending on them
+        Set<Class<?>> all = new LinkedHashSet<Class<?>>();
+        for(Class<?> clz : classes) {
+            order(clz, all, new LinkedHashSet<Class<?>>());
+        }
+        List<Class<?>> save = new ArrayList<Class<?>>();
+        for(Class<?> clz : all) {
+            if(fingerprint(clz, StructInfoCache.analyze(clz).getFields()) != -1) {
+                save.add(clz);
+            } else {
+                log.fine(clz.getName() + " has no class file and is not saved in snapshot");
+            }
+        }
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(save.size());
+        for(Class<?> clz : save) {
+            StructInfo si = StructInfoCache.analyze(clz);
+            dos.writeUTF(clz.getName());
+            dos.writeLong(fingerprint(clz, si.getFields()));
+            dos.writeUTF(si.getEndianess().name());
+            dos.writeUTF(si.getAlignment().name());
+            dos.writeBoolean(si.getEndpad());
+            dos.writeBoolean(si.isFixedLength());
+            dos.writeInt(si.getLength());
+            dos.writeInt(si.getFields().size());
+            for(FieldInfo fi : si.getFields()) {
+                dos.writeUTF(fi.getField().getDeclaringClass().getName());
+                dos.writeUTF(fi.getField().getName());
+                dos.writeUTF(fi.getStructType().name());
+                dos.writeInt(fi.getLength());
+                dos.writeInt(fi.getDecimals());
+                dos.writeUTF(fi.getEncoding());
+                dos.writeByte(fi.getZone());
+                dos.writeInt(fi.getPrefixlength());
+                dos.writeInt(fi.getElements());
+                dos.writeBoolean(fi.getSelectPad());
+                if(fi.getSelects() != null) {
+                    dos.writeInt(fi.getSelects().size());
+                    for(Map.Entry<Integer, SubClassAndPad> e : fi.getSelects().entrySet()) {
+                        dos.writeInt(e.getKey());
+                        dos.writeUTF(e.getValue().getSubClass().getName());
+                        dos.writeInt(e.getValue().getPad());
+                    }
+                } else {
+                    dos.writeInt(-1);
+                }
+            }
+            dos.writeInt(si.getOffsets().size());
+            for(FieldOffset fo : si.getOffsets()) {
+                dos.writeUTF(fo.getName());
+                dos.writeInt(fo.getOffset());
+                dos.writeInt(fo.getSize());
+            }
+        }
+        dos.flush();
+    }
+    /**
+     * Load layouts into cache.
+     * @param is stream to read from
+     * @param cl class loader to load classes with
+     * @return number of layouts loaded
+     * @throws IOException if error reading
+     * @throws RecordException if not a snapshot
+     */
+    static int load(InputStream is, ClassLoader cl) throws IOException, RecordException {
+        DataInputStream dis = new DataInputStream(is);
+        if(dis.readInt() != MAGIC) {
+            throw new RecordException("Not a StructInfo snapshot");
+        }
+        int version = dis.readInt();
+        if(version != VERSION) {
+            throw new RecordException("StructInfo snapshot version " + version + " is not supported");
+        }
+        StructInfoCache cache = StructInfoCache.getInstance();
+        int res = 0;
+        int n = dis.readInt();
+        for(int i = 0; i < n; i++) {
+            Entry e = Entry.read(dis);
+            try {
+                Class<?> clz = Class.forName(e.name, false, cl);
+                if(cache.get(clz) != null) {
+                    continue;
+                }
+                StructInfo si = e.create(clz, cl);
+                if(si != null) {
+                    cache.put(clz, si);
+                    res++;
+                }
+            } catch(ReflectiveOperationException ex) {
+                log.fine(e.name + " in snapshot does not match class: " + ex);
+            } catch(RuntimeException ex) {
+                log.fine(e.name + " in snapshot does not match class: " + ex);
+            }
+        }
+        return res;
+    }
+    // one class in snapshot
+    private static class Entry {
+        private String name;
+        private long fingerprint;
+        private String endianess;
+        private String alignment;
+        private boolean endpad;
+        private boolean fixedLength;
+        private int length;
+        private String[] declarer;
+        private String[] field;
+        private String[] type;
+        private int[][] props;
+        private String[] encoding;
+        private byte[] zone;
+        private boolean[] selectPad;
+        private int[][] selvalue;
+        private String[][] selclass;
+        private int[][] selpad;
+        private String[] offname;
+        private int[] offset;
+        private int[] offsize;
+        static Entry read(DataInputStream dis) throws IOException {
+            Entry e = new Entry();
+            e.name = dis.readUTF();
+            e.fingerprint = dis.readLong();
+            e.endianess = dis.readUTF();
+            e.alignment = dis.readUTF();
+            e.endpad = dis.readBoolean();
+            e.fixedLength = dis.readBoolean();
+            e.length = dis.readInt();
+            int nfield = dis.readInt();
+            e.declarer = new String[nfield];
+            e.field = new String[nfield];
+            e.type = new String[nfield];
+            e.props = new int[nfield][];
+            e.encoding = new String[nfield];
+            e.zone = new byte[nfield];
+            e.selectPad = new boolean[nfield];
+            e.selvalue = new int[nfield][];
+            e.selclass = new String[nfield][];
+            e.selpad = new int[nfield][];
+            for(int i = 0; i < nfield; i++) {
+                e.declarer[i] = dis.readUTF();
+                e.field[i] = dis.readUTF();
+                e.type[i] = dis.readUTF();
+                int length = dis.readInt();
+                int decimals = dis.readInt();
+                e.encoding[i] = dis.readUTF();
+                e.zone[i] = dis.readByte();
+                int prefixlength = dis.readInt();
+                int elements = dis.readInt();
+                e.props[i] = new int[] { length, decimals, prefixlength, elements };
+                e.selectPad[i] = dis.readBoolean();
+                int nsel = dis.readInt();
+                if(nsel >= 0) {
+                    e.selvalue[i] = new int[nsel];
+                    e.selclass[i] = new String[nsel];
+                    e.selpad[i] = new int[nsel];
+                    for(int j = 0; j < nsel; j++) {
+                        e.selvalue[i][j] = dis.readInt();
+                        e.selclass[i][j] = dis.readUTF();
+                        e.selpad[i][j] = dis.readInt();
+                    }
+                }
+            }
+            int noff = dis.readInt();
+            e.offname = new String[noff];
+            e.offset = new int[noff];
+            e.offsize = new int[noff];
+            for(int i = 0; i < noff; i++) {
+                e.offname[i] = dis.readUTF();
+                e.offset[i] = dis.readInt();
+                e.offsize[i] = dis.readInt();
+            }
+            return e;
+        }
+        // StructInfo for class or null if class does not match
+        StructInfo create(Class<?> clz, ClassLoader cl) throws ReflectiveOperationException, RecordException {
+            List<FieldInfo> fields = new ArrayList<FieldInfo>();
+            for(int i = 0; i < field.length; i++) {
+                Field f = Class.forName(declarer[i], false, cl).getDeclaredField(field[i]);
+                f.setAccessible(true);
+                Map<Integer, SubClassAndPad> selmap = null;
+                if(selvalue[i] != null) {
+                    selmap = new HashMap<Integer, SubClassAndPad>();
+                    for(int j = 0; j < selvalue[i].length; j++) {
+                        selmap.put(selvalue[i][j], new SubClassAndPad(Class.forName(selclass[i][j], false, cl), selpad[i][j]));
+                    }
+                }
+                fields.add(new FieldInfo(FieldType.valueOf(type[i]), props[i][0], props[i][1], encoding[i], zone[i], props[i][2], f.getType(), f, selmap, selectPad[i], props[i][3]));
+            }
+            if(fingerprint(clz, fields) != fingerprint) {
+                log.fine(name + " in snapshot has different fingerprint");
+                return null;
+            }
+            StructInfo si = new StructInfo(Endian.valueOf(endianess), Alignment.valueOf(alignment), endpad, fields, clz);
+            if(si.isFixedLength() != fixedLength || si.getLength() != length || si.getOffsets().size() != offname.length) {
+                log.fine(name + " in snapshot has different length");
+                return null;
+            }
+            for(int i = 0; i < offname.length; i++) {
+                FieldOffset fo = si.getOffsets().get(i);
+                if(!fo.getName().equals(offname[i]) || fo.getOffset() != offset[i] || fo.getSize() != offsize[i]) {
+                    log.fine(name + " in snapshot has different offset for " + offname[i]);
+                    return null;
+                }
+            }
+            return si;
+        }
+    }
+    // add class after the classes it depends on
+    private static void order(Class<?> clz, Set<Class<?>> res, Set<Class<?>> visiting) throws RecordException {
+        if(res.contains(clz) || !visiting.add(clz)) {
+            return;
+        }
+        for(Class<?> dep : dependencies(StructInfoCache.analyze(clz).getFields())) {
+            if(dep != clz) {
+                order(dep, res, visiting);
+            }
+        }
+        res.add(clz);
+    }
+    // nested structs and sub classes
+    private static Set<Class<?>> dependencies(List<FieldInfo> fields) {
+        Set<Class<?>> res = new LinkedHashSet<Class<?>>();
+        for(FieldInfo fi : fields) {
+            if(fi.getStructType() == FieldType.STRUCT) {
+                res.add(fi.getClassType().isArray() ? fi.getClassType().getComponentType() : fi.getClassType());
+            }
+            if(fi.getSelects() != null) {
+                for(SubClassAndPad scp : fi.getSelects().values()) {
+                    res.add(scp.getSubClass());
+                }
+            }
+        }
+        return res;
+    }
+    // CRC of class files for class, super classes and dependencies (-1 if a class file is not available)
+    private static long fingerprint(Class<?> clz, List<FieldInfo> fields) {
+        Set<String> names = new TreeSet<String>();
+        Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+        for(Class<?> c = clz; c != Object.class && c != Record.class && c != null; c = c.getSuperclass()) {
+            names.add(c.getName());
+            classes.put(c.getName(), c);
+        }
+        for(Class<?> c : dependencies(fields)) {
+            names.add(c.getName());
+            classes.put(c.getName(), c);
+        }
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[4096];
+        for(String name : names) {
+            InputStream is = classes.get(name).getResourceAsStream("/" + name.replace('.', '/') + ".class");
+            if(is == null) {
+                return -1;
+            }
+            try {
+                try {
+                    int n;
+                    while((n = is.read(buf)) >= 0) {
+                        crc.update(buf, 0, n);
+                    }
+                } finally {
+                    is.close();
+                }
+            } catch(IOException e) {
+                return -1;
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class StructPool keeps a StructReader and a StructWriter per thread, so code handling one message
+ * at a time does not set up a new reader and writer for every message.
+ * <br>
+ * The reader and writer returned are confined to the calling thread and are only valid until the
+ * next call of the same method on the same thread.
+ */
+public final class StructPool {
+    // writers that have grown beyond this are not kept
+    private static final int MAXBUFSIZ = 1024 * 1024;
+    private static final ThreadLocal<StructReader> readers = new ThreadLocal<StructReader>() {
+        @Override
+        protected StructReader initialValue() {
+            return new StructReader(new byte[0]);
+        }
+    };
+    private static final ThreadLocal<StructWriter> writers = new ThreadLocal<StructWriter>() {
+        @Override
+        protected StructWriter initialValue() {
+            return new StructWriter();
+        }
+    };
+    private StructPool() {
+    }
+    /**
+     * Get reader of this thread reading from byte array.
+     * @param ba byte array to read from
+     * @return reader
+     */
+    public static StructReader reader(byte[] ba) {
+        StructReader sr = readers.get();
+        sr.reset(ba);
+        return sr;
+    }
+    /**
+     * Get reader of this thread reading from the position to the limit of a buffer in place.
+     * @param bb buffer to read from
+     * @return reader
+     */
+    public static StructReader reader(ByteBuffer bb) {
+        StructReader sr = readers.get();
+        sr.reset(bb);
+        return sr;
+    }
+    /**
+     * Get empty writer of this thread.
+     * @return writer
+     */
+    public static StructWriter writer() {
+        StructWriter sw = writers.get();
+        int cap = sw.capacity();
+        if(cap < 0 || cap > MAXBUFSIZ) {
+            sw = new StructWriter();
+            writers.set(sw);
+        } else {
+            sw.reset();
+        }
+        return sw;
+    }
+}
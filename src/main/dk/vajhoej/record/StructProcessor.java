@@ -0,0 +1,376 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Class StructProcessor is an annotation processor that checks structs and generates codecs at compile time.
+ * <br>
+ * Field numbering and missing meta-data is reported as compile errors instead of as
+ * IllegalArgumentException from {@link StructInfo#analyze(Class)} at runtime.
+ * <br>
+ * For struct class p.Foo a codec class p.FooCodec implementing {@link StructCodec} is generated
+ * if it has a non-private no-arg constructor and all fields are scalar integer or IEEE floating
+ * point fields (no arrays, selectors or fields in super class) that are either non-private or
+ * have non-private getter and setter. Generated
+ * codecs are found and preferred by {@link StructInfoCache#codec(Class)}, which avoids the
+ * reflection in StructInfo.analyze for those structs.
+ * <br>
+ * Usage: javac -processor dk.vajhoej.record.StructProcessor ...
+ */
+@SupportedAnnotationTypes("dk.vajhoej.record.Struct")
+public class StructProcessor extends AbstractProcessor {
+    private static final int MAXPAD = 8;
+    /**
+     * Get supported source version.
+     * @return latest supported source version
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+    /**
+     * Process structs.
+     * @param annotations annotations
+     * @param env round environment
+     * @return false (annotations are not claimed)
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+        for(Element e : env.getElementsAnnotatedWith(Struct.class)) {
+            if(e.getKind() != ElementKind.CLASS && e.getKind() != ElementKind.RECORD) {
+                error(e, e.getSimpleName() + " is not a class");
+                continue;
+            }
+            TypeElement te = (TypeElement)e;
+            List<VariableElement> fields = check(te);
+            if(fields != null && isSupported(te, fields)) {
+                try {
+                    generate(te, fields);
+                } catch(IOException ex) {
+                    error(te, "Cannot generate codec for " + te.getQualifiedName() + ": " + ex.getMessage());
+                }
+            }
+        }
+        return false;
+    }
+    // checks numbering and returns own fields in field order (null if errors)
+    private List<VariableElement> check(TypeElement te) {
+        int offset = 0;
+        TypeElement sup = superStruct(te);
+        if(sup != null) {
+            if(sup.getAnnotation(Struct.class) == null) {
+                error(te, te.getQualifiedName() + " has super class " + sup.getQualifiedName() + " that is not a struct");
+                return null;
+            }
+            offset = countFields(sup);
+        }
+        List<VariableElement> own = dataFields(te);
+        VariableElement[] res = new VariableElement[own.size()];
+        boolean ok = true;
+        for(VariableElement f : own) {
+            StructField sf = f.getAnnotation(StructField.class);
+            if(sf == null) {
+                error(f, te.getQualifiedName() + " contains a field " + f.getSimpleName() + " with no meta-data");
+                ok = false;
+                continue;
+            }
+            int ix = sf.n() - offset;
+            if(ix < 0 || ix >= res.length) {
+                error(f, f.getSimpleName() + " in " + te.getQualifiedName() + " has illegal number " + sf.n() + " (must be " + offset + ".." + (offset + res.length - 1) + ")");
+                ok = false;
+            } else if(res[ix] != null) {
+                error(f, te.getQualifiedName() + " has duplicates in field ordering: " + res[ix].getSimpleName() + " and " + f.getSimpleName() + " are both " + sf.n());
+                ok = false;
+            } else {
+                res[ix] = f;
+            }
+        }
+        return ok ? Arrays.asList(res) : null;
+    }
+    private TypeElement superStruct(TypeElement te) {
+        TypeMirror tm = te.getSuperclass();
+        if(tm.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement sup = (TypeElement)((DeclaredType)tm).asElement();
+        if(sup.getQualifiedName().contentEquals("java.lang.Object") || sup.getQualifiedName().contentEquals("java.lang.Record")) {
+            return null;
+        }
+        return sup;
+    }
+    private int countFields(TypeElement te) {
+        int res = dataFields(te).size();
+        TypeElement sup = superStruct(te);
+        if(sup != null) {
+            res += countFields(sup);
+        }
+        return res;
+    }
+    private static List<VariableElement> dataFields(TypeElement te) {
+        List<VariableElement> res = new ArrayList<VariableElement>();
+        for(VariableElement f : ElementFilter.fieldsIn(te.getEnclosedElements())) {
+            if(!f.getModifiers().contains(Modifier.STATIC) && !f.getModifiers().contains(Modifier.TRANSIENT)) {
+                res.add(f);
+            }
+        }
+        return res;
+    }
+    private boolean isSupported(TypeElement te, List<VariableElement> fields) {
+        if(superStruct(te) != null || te.getModifiers().contains(Modifier.ABSTRACT) || te.getKind() != ElementKind.CLASS) {
+            return false;
+        }
+        boolean noarg = false;
+        for(ExecutableElement c : ElementFilter.constructorsIn(te.getEnclosedElements())) {
+            if(c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) {
+                noarg = true;
+            }
+        }
+        if(!noarg) {
+            return false;
+        }
+        // codec is in same package so struct must be accessible from there
+        for(TypeElement e = te; e != null; e = e.getNestingKind() == NestingKind.MEMBER ? (TypeElement)e.getEnclosingElement() : null) {
+            if(e.getNestingKind() != NestingKind.TOP_LEVEL && e.getNestingKind() != NestingKind.MEMBER) {
+                return false;
+            }
+            if(e.getModifiers().contains(Modifier.PRIVATE) || (e.getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC))) {
+                return false;
+            }
+        }
+        for(VariableElement f : fields) {
+            if(f.getAnnotation(Selector.class) != null || f.getAnnotation(ArrayField.class) != null || f.getModifiers().contains(Modifier.FINAL)) {
+                return false;
+            }
+            if(readExpr(f.getAnnotation(StructField.class).type(), f.asType().getKind()) == null) {
+                return false;
+            }
+            if(f.getModifiers().contains(Modifier.PRIVATE) && (getter(te, f) == null || setter(te, f) == null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private static String getter(TypeElement te, VariableElement f) {
+        String name = "get" + capitalize(f.getSimpleName().toString());
+        for(ExecutableElement m : ElementFilter.methodsIn(te.getEnclosedElements())) {
+            if(m.getSimpleName().contentEquals(name) && m.getParameters().isEmpty() && m.getReturnType().getKind() == f.asType().getKind() && isCallable(m)) {
+                return name;
+            }
+        }
+        return null;
+    }
+    private static String setter(TypeElement te, VariableElement f) {
+        String name = "set" + capitalize(f.getSimpleName().toString());
+        for(ExecutableElement m : ElementFilter.methodsIn(te.getEnclosedElements())) {
+            if(m.getSimpleName().contentEquals(name) && m.getParameters().size() == 1 && m.getParameters().get(0).asType().getKind() == f.asType().getKind() && isCallable(m)) {
+                return name;
+            }
+        }
+        return null;
+    }
+    private static boolean isCallable(ExecutableElement m) {
+        return !m.getModifiers().contains(Modifier.PRIVATE) && !m.getModifiers().contains(Modifier.STATIC);
+    }
+    private static String capitalize(String s) {
+        return s.substring(0, 1).toUpperCase() + s.substring(1);
+    }
+    // same conversions as FieldCodec
+    private static String readExpr(FieldType type, TypeKind kind) {
+        switch(type) {
+            case INT1:
+                return (kind == TypeKind.BYTE || kind == TypeKind.SHORT || kind == TypeKind.INT) ? "bb.get()" : null;
+            case INT2:
+                return (kind == TypeKind.SHORT || kind == TypeKind.INT) ? "bb.getShort()" : null;
+            case INT4:
+                return kind == TypeKind.INT ? "bb.getInt()" : null;
+            case INT8:
+                return kind == TypeKind.LONG ? "bb.getLong()" : null;
+            case UINT1:
+                if(kind == TypeKind.SHORT) {
+                    return "(short)(bb.get() & 0xFF)";
+                }
+                return kind == TypeKind.INT ? "(bb.get() & 0xFF)" : null;
+            case UINT2:
+                return kind == TypeKind.INT ? "(bb.getShort() & 0xFFFF)" : null;
+            case UINT4:
+                return kind == TypeKind.LONG ? "(bb.getInt() & 0xFFFFFFFFL)" : null;
+            case FP4:
+                return kind == TypeKind.FLOAT ? "bb.getFloat()" : null;
+            case FP8:
+                return kind == TypeKind.DOUBLE ? "bb.getDouble()" : null;
+            default:
+                return null;
+        }
+    }
+    private static String writeStmt(FieldType type, String v) {
+        switch(type) {
+            case INT1:
+            case UINT1:
+                return "bb.put((byte)" + v + ");";
+            case INT2:
+            case UINT2:
+                return "bb.putShort((short)" + v + ");";
+            case INT4:
+                return "bb.putInt(" + v + ");";
+            case UINT4:
+                return "bb.putInt((int)" + v + ");";
+            case INT8:
+                return "bb.putLong(" + v + ");";
+            case FP4:
+                return "bb.putFloat(" + v + ");";
+            case FP8:
+                return "bb.putDouble(" + v + ");";
+            default:
+                throw new IllegalArgumentException(type + " not supported");
+        }
+    }
+    // same as StructInfo.calculateAlign for the supported types
+    private static int align(Alignment alignment, FieldType type) {
+        switch(alignment) {
+            case NATURAL:
+                switch(type) {
+                    case INT2:
+                    case UINT2:
+                        return 2;
+                    case INT4:
+                    case UINT4:
+                    case FP4:
+                        return 4;
+                    case INT8:
+                    case FP8:
+                        return 8;
+                    default:
+                        return 1;
+                }
+            case ALIGN2:
+                return 2;
+            case ALIGN4:
+                return 4;
+            case ALIGN8:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+    private void generate(TypeElement te, List<VariableElement> fields) throws IOException {
+        String pkg = processingEnv.getElementUtils().getPackageOf(te).getQualifiedName().toString();
+        String bin = processingEnv.getElementUtils().getBinaryName(te).toString();
+        String name = (pkg.length() > 0 ? bin.substring(pkg.length() + 1) : bin) + "Codec";
+        String type = te.getQualifiedName().toString();
+        Struct s = te.getAnnotation(Struct.class);
+        String order = s.endianess() == Endian.LITTLE ? "ByteOrder.LITTLE_ENDIAN" : "ByteOrder.BIG_ENDIAN";
+        PrintWriter pw = new PrintWriter(processingEnv.getFiler().createSourceFile(pkg.length() > 0 ? pkg + "." + name : name, te).openWriter());
+        try {
+            if(pkg.length() > 0) {
+                pw.println("package " + pkg + ";");
+                pw.println();
+            }
+            pw.println("import java.nio.BufferUnderflowException;");
+            pw.println("import java.nio.ByteBuffer;");
+            pw.println("import java.nio.ByteOrder;");
+            pw.println();
+            pw.println("import dk.vajhoej.record.StructCodec;");
+            pw.println();
+            pw.println("/**");
+            pw.println(" * Codec for " + type + " generated by " + StructProcessor.class.getName() + ".");
+            pw.println(" */");
+            pw.println("public final class " + name + " implements StructCodec<" + type + "> {");
+            pw.println("    private static final byte[] ZERO = new byte[" + MAXPAD + "];");
+            pw.println("    private static int pad(ByteBuffer bb, int align) {");
+            pw.println("        return (align - bb.position() % align) % align;");
+            pw.println("    }");
+            pw.println("    private static void skip(ByteBuffer bb, int n) {");
+            pw.println("        if(n > bb.remaining()) {");
+            pw.println("            throw new BufferUnderflowException();");
+            pw.println("        }");
+            pw.println("        bb.position(bb.position() + n);");
+            pw.println("    }");
+            pw.println("    public " + type + " create() {");
+            pw.println("        return new " + type + "();");
+            pw.println("    }");
+            pw.println("    public void read(ByteBuffer bb, " + type + " o) {");
+            pw.println("        bb.order(" + order + ");");
+            int maxalign = 1;
+            for(VariableElement f : fields) {
+                StructField sf = f.getAnnotation(StructField.class);
+                int align = align(s.alignment(), sf.type());
+                maxalign = Math.max(maxalign, align);
+                if(align > 1) {
+                    pw.println("        skip(bb, pad(bb, " + align + "));");
+                }
+                String v = readExpr(sf.type(), f.asType().getKind());
+                if(f.getModifiers().contains(Modifier.PRIVATE)) {
+                    pw.println("        o." + setter(te, f) + "(" + v + ");");
+                } else {
+                    pw.println("        o." + f.getSimpleName() + " = " + v + ";");
+                }
+            }
+            if(s.endpad() && maxalign > 1) {
+                pw.println("        skip(bb, pad(bb, " + maxalign + "));");
+            }
+            pw.println("    }");
+            pw.println("    public void write(ByteBuffer bb, " + type + " o) {");
+            pw.println("        bb.order(" + order + ");");
+            for(VariableElement f : fields) {
+                StructField sf = f.getAnnotation(StructField.class);
+                int align = align(s.alignment(), sf.type());
+                if(align > 1) {
+                    pw.println("        bb.put(ZERO, 0, pad(bb, " + align + "));");
+                }
+                if(f.getModifiers().contains(Modifier.PRIVATE)) {
+                    pw.println("        " + writeStmt(sf.type(), "o." + getter(te, f) + "()"));
+                } else {
+                    pw.println("        " + writeStmt(sf.type(), "o." + f.getSimpleName()));
+                }
+            }
+            if(s.endpad() && maxalign > 1) {
+                pw.println("        bb.put(ZERO, 0, pad(bb, " + maxalign + "));");
+            }
+            pw.println("    }");
+            pw.println("}");
+        } finally {
+            pw.close();
+        }
+    }
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+}
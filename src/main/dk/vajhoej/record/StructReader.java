@@ -17,12 +17,9 @@
 package dk.vajhoej.record;
 
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Array;
-import java.math.BigDecimal;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,17 +29,65 @@ import java.util.logging.Logger;
 public class StructReader {
     private static Logger log = Logger.getLogger(StructReader.class.getName());
 	private ByteBuffer bb;
+	private long bitbuf;
+	private int nbits;
+	DecodeListener listener;
 	/**
 	 * Create instance of StructReader.
+	 * <br>
+	 * If FINE is enabled for the logger then field values are logged via {@link LoggingDecodeListener}.
 	 * @param ba byte array to read from
 	 */
 	public StructReader(byte[] ba) {
 		bb = ByteBuffer.wrap(ba);
-		log.fine("StructReader initialized with byte array of length " + ba.length);
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructReader initialized with byte array of length " + ba.length);
+		}
 		if(log.isLoggable(Level.FINEST)) {
 		    log.finest("Byte array:" + LogHelper.byteArrayToString(ba));
 		}
+		listener = log.isLoggable(Level.FINE) ? new LoggingDecodeListener() : null;
+	}
+	/**
+	 * Create instance of StructReader reading part of byte array in place.
+	 * <br>
+	 * Alignment is relative to the start of the part.
+	 * @param ba byte array to read from
+	 * @param off offset of first byte to read
+	 * @param len number of bytes to read
+	 */
+	public StructReader(byte[] ba, int off, int len) {
+		this(ByteBuffer.wrap(ba, off, len));
 	}
+	/**
+	 * Create instance of StructReader reading from the position to the limit of a buffer in place.
+	 * <br>
+	 * Works with heap buffers, direct buffers and slices. The position and byte order of the buffer
+	 * are not changed (use {@link #getPosition()} to find out how much has been read). Alignment is
+	 * relative to the position of the buffer.
+	 * @param bb buffer to read from
+	 */
+	public StructReader(ByteBuffer bb) {
+		this.bb = bb.slice();
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructReader initialized with ByteBuffer of length " + this.bb.remaining());
+		}
+		listener = log.isLoggable(Level.FINE) ? new LoggingDecodeListener() : null;
+	}
+    /**
+     * Set listener for field values read.
+     * @param listener listener (null indicates no tracing)
+     */
+    public void setDecodeListener(DecodeListener listener) {
+        this.listener = listener;
+    }
+    /**
+     * Get listener for field values read.
+     * @return listener (null if no tracing)
+     */
+    public DecodeListener getDecodeListener() {
+        return listener;
+    }
     /**
 	 * Read.
 	 * @param t class of what to read
@@ -87,30 +132,7 @@ public class StructReader {
      * @throws RecordException if impossible to convert between types in class and struct
      */
     public <T> T read(Class<T> t, LengthProvider2 lenpvd) throws RecordException {
-    	if(lenpvd instanceof InfoProvider) {
-    		return read(t, (InfoProvider)lenpvd);
-    	}
-		final LengthProvider2 tmp = lenpvd;
-    	return read(t, new InfoProvider() {
-			public int getLength(Object o, int n) {
-				return tmp != null ? tmp.getLength(o, n) : -1;
-			}
-			public int getMaxLength() {
-				return tmp != null ? tmp.getMaxLength() : -1;
-			}
-			public int getElements(Object o, int n) {
-				return tmp != null ? tmp.getElements(o, n) : -1;
-			}
-			public LengthProvider2 getLengthProvider(Object o, int n) {
-				return tmp != null ? tmp.getLengthProvider(o, n) : null;
-			}
-			public boolean hasConvertSelector() {
-				return false;
-			}
-			public int convertSelector(Object o) {
-				return 0;
-			}
-    	});
+    	return read(t, info(lenpvd));
     }
     /**
      * Read.
@@ -120,486 +142,191 @@ public class StructReader {
      * @throws RecordException if impossible to convert between types in class and struct
      */
     public <T> T read(Class<T> t, InfoProvider lenpvd) throws RecordException {
+        return t.cast(read(t, null, false, lenpvd));
+    }
+    /**
+     * Read into existing object.
+     * <br>
+     * Nested STRUCT objects and arrays in the object are reused when they have the right class and number of elements.
+     * @param target object to read into
+     * @throws RecordException if impossible to convert between types in class and struct or if object is immutable
+     */
+    public void readInto(Object target) throws RecordException {
+        readInto(target, (InfoProvider)null);
+    }
+    /**
+     * Read into existing object.
+     * <br>
+     * Nested STRUCT objects and arrays in the object are reused when they have the right class and number of elements.
+     * @param target object to read into
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @throws RecordException if impossible to convert between types in class and struct or if object is immutable
+     */
+    public void readInto(Object target, InfoProvider lenpvd) throws RecordException {
+        read(target.getClass(), target, true, lenpvd);
+    }
+    // read nested struct reusing old object if possible
+    Object readNested(Class<?> t, Object old, InfoProvider lenpvd) throws RecordException {
+        return read(t, old != null && old.getClass() == t ? old : null, false, lenpvd);
+    }
+    // read into target (if required then it must be used) or if target is null into new instance
+    private Object read(Class<?> t, Object target, boolean required, InfoProvider lenpvd) throws RecordException {
+        long savbitbuf = bitbuf;
+        int savnbits = nbits;
 		try {
-		    log.fine("Reading class " + t.getName());
-			long bitbuf = 0;
-			int nbits = 0;
-			bb.mark();
+		    if(log.isLoggable(Level.FINE)) {
+		        log.fine("Reading class " + t.getName());
+		    }
+			bitbuf = 0;
+			nbits = 0;
+			int start = bb.position();
+			StructCodec<Object> sc = (lenpvd == null && listener == null) ? StructInfoCache.codec(t) : null;
+			if(sc != null) {
+			    Object res = target != null ? target : sc.create();
+			    sc.read(bb, res);
+			    return res;
+			}
 			StructInfo si = StructInfoCache.analyze(t);
 			bb.order(si.getEndianess() == Endian.LITTLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-			T res = t.newInstance(); 
-			for(int i = 0; i < si.getFields().size(); i++) {
-			    FieldInfo fi = si.getFields().get(i);
-			    int nskip = StructInfo.calculatePad(bb.position(), si.getAlignment(), fi);
+			Object res;
+			if(target != null && !si.isStaged()) {
+			    res = target;
+			} else if(target != null && required) {
+			    throw new RecordException("Cannot read into instance of " + t.getName() + " because it is instantiated via constructor with all fields");
+			} else {
+			    res = si.instantiate();
+			}
+			Class<?> cur = t;
+			int selpad = 0;
+			FieldCodec[] codecs = si.getCodecs();
+			for(int i = 0; i < codecs.length; i++) {
+			    FieldCodec fc = codecs[i];
+			    int nskip = fc.pad(bb.position());
 			    if(nskip > 0) {
-    		        bb.get(new byte[nskip]);
-    		        log.finest("Skip " + nskip + " padding bytes");
-			    }
-			    int nelm;
-			    if(lenpvd == null || lenpvd.getElements(res, i) < 0) {
-			    	nelm = fi.getElements();
-			    } else {
-			    	nelm = lenpvd.getElements(res, i);
-			    	// if relevant adjust the size of array
-			    	if(fi.getField().get(res) != null) {
-				    	if(fi.getField().get(res).getClass().isArray()) {
-					    	if(Array.getLength(fi.getField().get(res)) != nelm) {
-					    		fi.getField().set(res, Array.newInstance(fi.getField().get(res).getClass().getComponentType(), nelm));
-					    	}
-				    	}
-			    	}
-			    }
-			    for(int ix = 0; ix < nelm; ix++) {
-			    	switch(fi.getStructType()) {
-    					case INT1:
-                            byte vint1 = bb.get();
-    						if(fi.getClassType() == byte.class) {
-    							fi.getField().setByte(res, vint1);
-    						} else if(fi.getClassType() == short.class) {
-    							fi.getField().setShort(res, vint1);
-    						} else if(fi.getClassType() == int.class) {
-    							fi.getField().setInt(res, vint1);
-                            } else if(fi.getClassType() == byte[].class) {
-                                Array.setByte(fi.getField().get(res), ix, vint1);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read INT1 with value " + vint1);
-    						break;
-    					case INT2:
-                            short vint2 = bb.getShort();
-    						if(fi.getClassType() == short.class) {
-    							fi.getField().setShort(res, vint2);
-    						} else if(fi.getClassType() == int.class) {
-    							fi.getField().setInt(res, vint2);
-                            } else if(fi.getClassType() == short[].class) {
-                                Array.setInt(fi.getField().get(res), ix, vint2);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read INT2 with value " + vint2);
-    						break;
-    					case INT4:
-                            int vint4 = bb.getInt();
-    						if(fi.getClassType() == int.class) {
-    							fi.getField().setInt(res, vint4);
-                            } else if(fi.getClassType() == int[].class) {
-                                Array.setInt(fi.getField().get(res), ix, vint4);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read INT4 with value " + vint4);
-    						break;
-    					case INT8:
-                            long vint8 = bb.getLong();
-    						if(fi.getClassType() == long.class) {
-    							fi.getField().setLong(res, vint8);
-                            } else if(fi.getClassType() == long[].class) {
-                                Array.setLong(fi.getField().get(res), ix, vint8);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read INT8 with value " + vint8);
-    						break;
-                        case UINT1:
-                            short vuint1 = (short)(0xFF & bb.get());
-                            if(fi.getClassType() == short.class) {
-                                fi.getField().setShort(res, vuint1);
-                            } else if(fi.getClassType() == int.class) {
-                                fi.getField().setInt(res, vuint1);
-                            } else if(fi.getClassType() == short[].class) {
-                                Array.setShort(fi.getField().get(res), ix, vuint1);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read UINT1 with value " + vuint1);
-                            break;
-                        case UINT2:
-                            int vuint2 = 0xFFFF & bb.getShort();
-                            if(fi.getClassType() == int.class) {
-                                fi.getField().setInt(res, vuint2);
-                            } else if(fi.getClassType() == int[].class) {
-                                Array.setInt(fi.getField().get(res), ix, vuint2);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read UINT2 with value " + vuint2);
-                            break;
-                        case UINT4:
-                            long vuint4 = 0xFFFFFFFFL & bb.getInt();
-                            if(fi.getClassType() == long.class) {
-                                fi.getField().setLong(res, vuint4);
-                            } else if(fi.getClassType() == long[].class) {
-                                Array.setLong(fi.getField().get(res), ix, vuint4);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read UINT4 with value " + vuint4);
-                            break;
-    					case FP4:
-                            float vfp4 = bb.getFloat();
-    						if(fi.getClassType() == float.class) {
-    							fi.getField().setFloat(res, vfp4);
-                            } else if(fi.getClassType() == float[].class) {
-                                Array.setFloat(fi.getField().get(res), ix, vfp4);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read FP4 with value " + vfp4);
-    						break;
-    					case FP8:
-                            double vfp8 = bb.getDouble();
-    						if(fi.getClassType() == double.class) {
-    							fi.getField().setDouble(res, vfp8);
-                            } else if(fi.getClassType() == double[].class) {
-                                Array.setDouble(fi.getField().get(res), ix, vfp8);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read FP8 with value " + vfp8);
-    						break;
-                        case INTX:
-                            int intxlen;
-    					    if(lenpvd == null || lenpvd.getLength(res, i) < 0) {
-    					        intxlen = fi.getLength();
-    					    } else {
-    					        intxlen = lenpvd.getLength(res, i);
-    					    }
-                            if(intxlen <= 0 || intxlen >= 8) {
-                                throw new RecordException("Wrong length of general integer " + fi.getField().getName() + " in " + t.getName() + ": " + intxlen);    
-                            }
-                            long vintx = 0;
-                            if(si.getEndianess() == Endian.BIG) {
-                                for(int j = 0; j < intxlen; j++) {
-                                    vintx = vintx | ((bb.get() & 0x00FFL) << ((intxlen - 1 - j) * 8));
-                                }
-                            } else if(si.getEndianess() == Endian.LITTLE) {
-                                for(int j = 0; j < intxlen; j++) {
-                                    vintx = vintx | ((bb.get() & 0x00FFL) << (j * 8));
-                                }
-                            }
-                            if(fi.getClassType() == long.class) {
-                                fi.getField().setLong(res, vintx);
-                            } else if(fi.getClassType() == long[].class) {
-                                Array.setLong(fi.getField().get(res), ix, vintx);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read INTX with value " + vintx);
-                            break;
-    					case FIXSTR:
-    					    int fixstrlen;
-    					    if(lenpvd == null || lenpvd.getLength(res, i) < 0) {
-    					        fixstrlen = fi.getLength();
-    					    } else {
-    					        fixstrlen = lenpvd.getLength(res, i);
-    					    }
-                            byte[] fixstrba = new byte[fixstrlen];
-                            bb.get(fixstrba);
-                            String vfixstr = new String(fixstrba, fi.getEncoding());
-    						if(fi.getClassType() == String.class) {
-    							fi.getField().set(res, vfixstr);
-                            } else if(fi.getClassType() == String[].class) {
-                                Array.set(fi.getField().get(res), ix, vfixstr);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read FIXSTR with value " + vfixstr);
-    						break;
-                        case FIXSTRNULTERM:
-                            int fixstrnultermlen;
-                            if(lenpvd == null || lenpvd.getLength(res, i) < 0) {
-                                fixstrnultermlen = fi.getLength();
-                            } else {
-                                fixstrnultermlen = lenpvd.getLength(res, i);
-                            }
-                            byte[] fixstrnultermba = new byte[fixstrnultermlen];
-                            bb.get(fixstrnultermba);
-                            int actlen = 0;
-                            while(actlen < fi.getLength() && fixstrnultermba[actlen] != 0) {
-                                actlen++;
-                            }
-                            String vfixstrnulterm = new String(fixstrnultermba, 0, actlen, fi.getEncoding());
-                            if(fi.getClassType() == String.class) {
-                                fi.getField().set(res, vfixstrnulterm);
-                            } else if(fi.getClassType() == String[].class) {
-                                Array.set(fi.getField().get(res), ix, vfixstrnulterm);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read FIXSTRNULTERM with value " + vfixstrnulterm);
-                            break;
-                        case VARSTR:
-                            int varstrlen;
-                            switch(fi.getPrefixlength()) {
-	                            case 0:
-	                            case 2:
-	                                varstrlen = bb.getShort() & 0x0000FFFF;
-	                                break;
-	                            case 1:
-	                                varstrlen = bb.get() & 0x000000FF;
-	                                break;
-	                            case 4:
-	                                varstrlen = bb.getInt();
-	                                break;
-                                default:
-                                	varstrlen = -1;
-                                	break;
-                            }
-                            if(varstrlen < 0) {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName() + ": " + varstrlen);
-                            }
-                            byte[] varstrba = new byte[varstrlen];
-                            bb.get(varstrba);
-                            String vvarstr = new String(varstrba, fi.getEncoding());
-                            if(fi.getClassType() == String.class) {
-                                fi.getField().set(res, vvarstr);
-                            } else if(fi.getClassType() == String[].class) {
-                                Array.set(fi.getField().get(res), ix, vvarstr);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read VARSTR with value " + vvarstr);
-                            break;
-                        case VARFIXSTR:
-                            int varfixstrlen;
-                            switch(fi.getPrefixlength()) {
-	                            case 0:
-	                            case 2:
-	                                varfixstrlen = bb.getShort() & 0x0000FFFF;
-	                                break;
-	                            case 1:
-	                                varfixstrlen = bb.get() & 0x000000FF;
-	                                break;
-	                            case 4:
-	                                varfixstrlen = bb.getInt();
-	                                break;
-                                default:
-                                	varfixstrlen = -1;
-                                	break;
-                            }
-                            if(varfixstrlen < 0 || varfixstrlen  > fi.getLength()) {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName() + ": " + varfixstrlen);
-                            }
-                            byte[] varfixstrba = new byte[varfixstrlen];
-                            bb.get(varfixstrba);
-                            String vvarfixstr = new String(varfixstrba, fi.getEncoding());
-                            if(fi.getClassType() == String.class) {
-                                fi.getField().set(res, vvarfixstr);
-                            } else if(fi.getClassType() == String[].class) {
-                                Array.set(fi.getField().get(res), ix, vvarfixstr);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read VARFIXSTR with value " + vvarfixstr);
-                            byte[] zero = new byte[fi.getLength() - varfixstrlen];
-                            bb.get(zero);
-                            log.finest("Skip " + zero.length + " padding bytes");
-                            break;
-                        case REMSTR:
-                            int remstrlen = bb.remaining();
-                            byte[] remstrba = new byte[remstrlen]; 
-                            bb.get(remstrba);
-                            String vremstr = new String(remstrba, fi.getEncoding());
-                            if(fi.getClassType() == String.class) {
-                                fi.getField().set(res, vremstr);
-                            } else if(fi.getClassType() == String[].class) {
-                                Array.set(fi.getField().get(res), ix, vremstr);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read REMSTR with value " + vremstr);
-                            break;
-                        case BOOLEAN:
-                            byte[] booleanba = new byte[fi.getLength()];
-                            bb.get(booleanba);
-                            boolean vboolean = booleanba[0] != 0;
-                            if(fi.getClassType() == boolean.class) {
-                                fi.getField().set(res, vboolean);
-                            } else if(fi.getClassType() == boolean[].class) {
-                                Array.setBoolean(fi.getField().get(res), ix, vboolean);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read BOOLEAN with value " + vboolean);
-                            break;
-    					case BIT:
-                            while(nbits < fi.getLength()) {
-                                bitbuf = (bitbuf << 8) | (0xFF & bb.get());
-                                nbits += 8;
-                            }
-                            int vbit = (int)(bitbuf >> (nbits - fi.getLength()));
-                            bitbuf ^= (vbit << (nbits - fi.getLength()));
-                            nbits -= fi.getLength();
-    						if(fi.getClassType() == int.class) {
-    	                        fi.getField().setInt(res, vbit);
-                            } else if(fi.getClassType() == int[].class) {
-                                Array.setInt(fi.getField().get(res), ix, vbit);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read BIT with value " + vbit);
-    						break;
-    					case JAVATIME:
-                            Date vjavatime = TimeUtil.fromJavaTime(bb.getLong());
-    						if(fi.getClassType() == Date.class) {
-    							fi.getField().set(res, vjavatime);
-                            } else if(fi.getClassType() == Date[].class) {
-                                Array.set(fi.getField().get(res), ix, vjavatime);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read JAVATIME with value " + vjavatime);
-    						break;
-    					case UNIXTIME:
-                            Date vunixtime = TimeUtil.fromUnixTime(bb.getInt());
-    						if(fi.getClassType() == Date.class) {
-    							fi.getField().set(res, vunixtime);
-                            } else if(fi.getClassType() == Date[].class) {
-                                Array.set(fi.getField().get(res), ix, vunixtime);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read UNIXTIME with value " + vunixtime);
-    						break;
-    					case VMSTIME:
-                            Date vvmstime = TimeUtil.fromVMSTime(bb.getLong());
-    						if(fi.getClassType() == Date.class) {
-    							fi.getField().set(res, vvmstime);
-                            } else if(fi.getClassType() == Date[].class) {
-                                Array.set(fi.getField().get(res), ix, vvmstime);
-    						} else {
-    							badConversion(fi.getStructType(), fi.getClassType(), t);
-    						}
-                            log.fine("Read VMSTIME with value " + vvmstime);
-    						break;
-                        case PACKEDBCD:
-                            int packedbcdlen;
-                            if(lenpvd == null || lenpvd.getLength(res, i) < 0) {
-                                packedbcdlen = fi.getLength();
-                            } else {
-                                packedbcdlen = lenpvd.getLength(res, i);
-                            }
-                            byte[] packedbcdba = new byte[packedbcdlen];
-                            bb.get(packedbcdba);
-                            BigDecimal vpackedbcd = BCDUtil.decodePackedBCD(packedbcdba, fi.getDecimals());
-                            if(fi.getClassType() == BigDecimal.class) {
-                                fi.getField().set(res, vpackedbcd);
-                            } else if(fi.getClassType() == BigDecimal[].class) {
-                                Array.set(fi.getField().get(res), ix, vpackedbcd);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read PACKEDBCD with value " + vpackedbcd);
-                            break;
-                        case ZONEDBCD:
-                            int zonedbcdlen;
-                            if(lenpvd == null || lenpvd.getLength(res, i) < 0) {
-                                zonedbcdlen = fi.getLength();
-                            } else {
-                                zonedbcdlen = lenpvd.getLength(res, i);
-                            }
-                            byte[] zonedbcdba = new byte[zonedbcdlen];
-                            bb.get(zonedbcdba);
-                            BigDecimal vzonedbcd = BCDUtil.decodeZonedBCD(zonedbcdba, fi.getZone(), fi.getDecimals());
-                            if(fi.getClassType() == BigDecimal.class) {
-                                fi.getField().set(res, vzonedbcd);
-                            } else if(fi.getClassType() == BigDecimal[].class) {
-                                Array.set(fi.getField().get(res), ix, vzonedbcd);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read ZONEDBCD with value " + vzonedbcd);
-                            break;
-                        case VAXFP4:
-                            float vvaxfp4 = Float.intBitsToFloat(VAXFloatUtil.f2s(bb.getInt()));
-                            if(fi.getClassType() == float.class) {
-                                fi.getField().setFloat(res, vvaxfp4);
-                            } else if(fi.getClassType() == float[].class) {
-                                Array.setFloat(fi.getField().get(res), ix, vvaxfp4);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read VAXFP4 with value " + vvaxfp4);
-                            break;
-                        case VAXFP8:
-                            double vvaxfp8 = Double.longBitsToDouble(VAXFloatUtil.g2t(bb.getLong()));
-                            if(fi.getClassType() == double.class) {
-                                fi.getField().setDouble(res, vvaxfp8);
-                            } else if(fi.getClassType() == double[].class) {
-                                Array.setDouble(fi.getField().get(res), ix, vvaxfp8);
-                            } else {
-                                badConversion(fi.getStructType(), fi.getClassType(), t);
-                            }
-                            log.fine("Read VAXFP8 with value " + vvaxfp8);
-                            break;
-    					case STRUCT:
-                        	if(lenpvd == null || lenpvd.getLengthProvider(res, i) == null) {
-        					    if(fi.getClassType().isArray()) {
-        					        Array.set(fi.getField().get(res), ix, read(fi.getClassType().getComponentType()));
-        					    } else {
-        					        fi.getField().set(res, read(fi.getClassType()));
-        					    }
-                        	} else {
-        					    if(fi.getClassType().isArray()) {
-        					        Array.set(fi.getField().get(res), ix, read(fi.getClassType().getComponentType(), lenpvd.getLengthProvider(res, i)));
-        					    } else {
-        					        fi.getField().set(res, read(fi.getClassType(), lenpvd.getLengthProvider(res, i)));
-        					    }
-                        	}
-    						break;
-    					default:
-    						badConversion(fi.getStructType(), fi.getClassType(), t);
-    				}
+    		        FieldCodec.skip(bb, nskip);
+    		        if(log.isLoggable(Level.FINEST)) {
+    		            log.finest("Skip " + nskip + " padding bytes");
+    		        }
 			    }
+			    fc.read(this, bb, res, lenpvd);
+			    FieldInfo fi = fc.getFieldInfo();
                 // the field was a selector
 				if(fi.getSelects() != null) {
 					// lookup class and padding
 					SubClassAndPad scp;
 					if(lenpvd != null && lenpvd.hasConvertSelector()) {
-					    scp = fi.getSelects().get(lenpvd.convertSelector(fi.getField().get(res)));
+					    scp = fi.getSelect(lenpvd.convertSelector(fi.getField().get(res)));
 					} else {
-						scp = fi.getSelects().get(fi.getField().getInt(res));
+						scp = fi.getSelect(fc.selector(res));
 					}
 				    if(scp == null) {
 				        throw new RecordException(res.getClass().getName() + " " + fi.getField().getName() + " has invalid selector value: " + fi.getField().get(res));
 				    }
-					@SuppressWarnings("unchecked")
-					Class<? extends T> tt = (Class<? extends T>)scp.getSubClass();
+					Class<?> tt = scp.getSubClass();
 					// if class different from current (to avoid infinite recursion)
-					if(!tt.equals(t)) {
+					if(!tt.equals(cur)) {
+					    if(target != null && required) {
+					        throw new RecordException("Cannot read " + tt.getName() + " into instance of " + t.getName());
+					    }
+					    StructInfo subsi = StructInfoCache.analyze(tt);
+					    // if fields read so far are the same in sub class then copy them and continue
+					    if(scp.canContinue(si, subsi, i)) {
+					        Object sub = subsi.instantiate();
+					        for(int j = 0; j <= i; j++) {
+					            codecs[j].copy(res, sub);
+					        }
+					        if(log.isLoggable(Level.FINE)) {
+					            log.fine("Continuing as sub class " + tt.getName());
+					        }
+					        cur = tt;
+					        si = subsi;
+					        codecs = subsi.getCodecs();
+					        res = sub;
+					        selpad += scp.getPad();
+					        continue;
+					    }
 					    // go back to start of bytes
-						bb.reset();
+						bb.position(start);
 						// read the sub class
-						T o = read(tt, lenpvd);
-						log.fine("Restarting for sub class " + tt.getName());
+						Object o = read(tt, null, false, lenpvd);
+						if(log.isLoggable(Level.FINE)) {
+						    log.fine("Restarting for sub class " + tt.getName());
+						}
 						// read select pad bytes
-                        byte[] zero = new byte[scp.getPad()];
-                        bb.get(zero);
-                        log.finest("Skip " + zero.length + " padding bytes");
+                        FieldCodec.skip(bb, scp.getPad());
+                        if(log.isLoggable(Level.FINEST)) {
+                            log.finest("Skip " + scp.getPad() + " padding bytes");
+                        }
                         return o;
 					}
 				}
 			}
 			// if necessary read new record pad bytes
             if(si.getEndpad()) {
-                int nskip = StructInfo.calculateEndPad(bb.position(), si.getAlignment(), si.getFields());
+                int nskip = si.calculateEndPad(bb.position());
                 if(nskip > 0) {
-                    bb.get(new byte[nskip]);
-                    log.finest("Skip " + nskip + " end-padding bytes");
+                    FieldCodec.skip(bb, nskip);
+                    if(log.isLoggable(Level.FINEST)) {
+                        log.finest("Skip " + nskip + " end-padding bytes");
+                    }
                 }
             }
-			return res;
+            // read select pad bytes
+            if(selpad > 0) {
+                FieldCodec.skip(bb, selpad);
+                if(log.isLoggable(Level.FINEST)) {
+                    log.finest("Skip " + selpad + " padding bytes");
+                }
+            }
+			return si.construct(res);
 		} catch(BufferUnderflowException e) {
             throw new RecordException("Not enough bytes in input", e);
 		} catch (UnsupportedEncodingException e) {
 			throw new RecordException("Unsupported encoding for string field", e);
-		} catch (InstantiationException e) {
-			throw new RecordException("Cannot instantiate class", e);
 		} catch (IllegalAccessException e) {
             throw new RecordException("Cannot access field", e);
+		} finally {
+		    bitbuf = savbitbuf;
+		    nbits = savnbits;
 		}
 	}
+    // LengthProvider2 as InfoProvider
+    static InfoProvider info(LengthProvider2 lenpvd) {
+    	if(lenpvd instanceof InfoProvider) {
+    		return (InfoProvider)lenpvd;
+    	}
+		final LengthProvider2 tmp = lenpvd;
+    	return new InfoProvider() {
+			public int getLength(Object o, int n) {
+				return tmp != null ? tmp.getLength(o, n) : -1;
+			}
+			public int getMaxLength() {
+				return tmp != null ? tmp.getMaxLength() : -1;
+			}
+			public int getElements(Object o, int n) {
+				return tmp != null ? tmp.getElements(o, n) : -1;
+			}
+			public LengthProvider2 getLengthProvider(Object o, int n) {
+				return tmp != null ? tmp.getLengthProvider(o, n) : null;
+			}
+			public boolean hasConvertSelector() {
+				return false;
+			}
+			public int convertSelector(Object o) {
+				return 0;
+			}
+    	};
+    }
+    int readBits(int len) {
+        while(nbits < len) {
+            bitbuf = (bitbuf << 8) | (0xFF & bb.get());
+            nbits += 8;
+        }
+        int vbit = (int)(bitbuf >> (nbits - len));
+        bitbuf ^= (vbit << (nbits - len));
+        nbits -= len;
+        return vbit;
+    }
 	/**
 	 * More records available.
 	 * @return true=more, false=no more
@@ -607,7 +334,47 @@ public class StructReader {
 	public boolean more() {
 	    return bb.remaining() > 0;
 	}
-	private void badConversion(FieldType ft, Class<?> clz, Class<?> struct) throws RecordException {
-		throw new RecordException("Can not convert from " + ft.toString() + " to " + clz.getName() + " in " + struct.getName());
+	/**
+	 * Get position.
+	 * @return number of bytes read
+	 */
+	public int getPosition() {
+	    return bb.position();
+	}
+	/**
+	 * Start reading from byte array.
+	 * <br>
+	 * Reading the same byte array again does not allocate anything.
+	 * @param ba byte array to read from
+	 */
+	public void reset(byte[] ba) {
+		if(bb.hasArray() && bb.array() == ba && bb.arrayOffset() == 0 && bb.capacity() == ba.length) {
+			bb.clear();
+		} else {
+			bb = ByteBuffer.wrap(ba);
+		}
+		bitbuf = 0;
+		nbits = 0;
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructReader reset to byte array of length " + ba.length);
+		}
+	}
+	/**
+	 * Start reading from the position to the limit of a buffer in place.
+	 * <br>
+	 * The position and byte order of the buffer are not changed. Alignment is relative to the position of the buffer.
+	 * @param bb buffer to read from
+	 */
+	public void reset(ByteBuffer bb) {
+		this.bb = bb.slice();
+		bitbuf = 0;
+		nbits = 0;
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructReader reset to ByteBuffer of length " + this.bb.remaining());
+		}
+	}
+	// skip bytes without reading a struct
+	void skip(int n) {
+	    FieldCodec.skip(bb, n);
 	}
 }
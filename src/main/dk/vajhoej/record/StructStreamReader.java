@@ -0,0 +1,271 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class StructStreamReader reads native structs from a channel or stream to Java objects.
+ * <br>
+ * One buffer is reused for the whole stream. When a struct crosses the end of the buffer, the buffer
+ * is compacted and refilled and the struct is read again, so variable length structs and structs with
+ * selectors can be read with constant memory. The buffer is only extended if a single struct is
+ * larger than the buffer.
+ * <br>
+ * Alignment is relative to the start of the stream like it is relative to the start of the byte array
+ * for StructReader. Structs with REMSTR fields are not supported.
+ * <br>
+ * A listener sees the fields of a struct that crosses the end of the buffer once, after the struct has been read.
+ * <br>
+ * The channel must be blocking. Use {@link RecordDecoder} to decode structs from a non-blocking channel.
+ */
+public class StructStreamReader implements Closeable {
+    private static Logger log = Logger.getLogger(StructStreamReader.class.getName());
+    private final static int DEFAULT_BUFSIZ = 65536;
+    // largest alignment
+    private final static int MAXALIGN = 8;
+    private final ReadableByteChannel ch;
+    private ByteBuffer buf;
+    // stream offset of start of buffer (multiple of MAXALIGN)
+    private long base;
+    private boolean eof;
+    private final StructReader sr;
+    private DecodeListener listener;
+    // field values of struct being read are passed on to listener when it is read completely
+    private final PendingListener pending = new PendingListener();
+    /**
+     * Create instance of StructStreamReader with default buffer size.
+     * @param ch channel to read from
+     * @throws IllegalArgumentException if channel is in non-blocking mode
+     */
+    public StructStreamReader(ReadableByteChannel ch) {
+        this(ch, DEFAULT_BUFSIZ);
+    }
+    /**
+     * Create instance of StructStreamReader.
+     * @param ch channel to read from
+     * @param bufsiz initial size of buffer
+     * @throws IllegalArgumentException if channel is in non-blocking mode
+     */
+    public StructStreamReader(ReadableByteChannel ch, int bufsiz) {
+        if(ch instanceof SelectableChannel && !((SelectableChannel)ch).isBlocking()) {
+            throw new IllegalArgumentException("StructStreamReader requires blocking channel - use RecordDecoder for non-blocking channel");
+        }
+        this.ch = ch;
+        buf = ByteBuffer.allocate(Math.max(bufsiz, 2 * MAXALIGN));
+        buf.limit(0);
+        sr = new StructReader(buf);
+        listener = sr.listener;
+        sr.setDecodeListener(listener != null ? pending : null);
+        if(log.isLoggable(Level.FINE)) {
+            log.fine("StructStreamReader initialized with buffersize " + buf.capacity());
+        }
+    }
+    /**
+     * Create instance of StructStreamReader with default buffer size.
+     * @param is stream to read from
+     */
+    public StructStreamReader(InputStream is) {
+        this(Channels.newChannel(is));
+    }
+    /**
+     * Create instance of StructStreamReader.
+     * @param is stream to read from
+     * @param bufsiz initial size of buffer
+     */
+    public StructStreamReader(InputStream is, int bufsiz) {
+        this(Channels.newChannel(is), bufsiz);
+    }
+    /**
+     * Create instance of StructStreamReader reading file with default buffer size.
+     * <br>
+     * The file is read ahead with AsynchronousFileChannel, so the next part of the file is read while structs are decoded.
+     * @param p path of file
+     * @throws IOException if problem opening file
+     */
+    public StructStreamReader(Path p) throws IOException {
+        this(p, DEFAULT_BUFSIZ);
+    }
+    /**
+     * Create instance of StructStreamReader reading file.
+     * <br>
+     * The file is read ahead with AsynchronousFileChannel, so the next part of the file is read while structs are decoded.
+     * @param p path of file
+     * @param bufsiz initial size of buffer (also size of each of the two read ahead buffers)
+     * @throws IOException if problem opening file
+     */
+    public StructStreamReader(Path p, int bufsiz) throws IOException {
+        this(ReadAheadChannel.open(p, bufsiz), bufsiz);
+    }
+    /**
+     * Set listener for field values read.
+     * @param listener listener (null indicates no tracing)
+     */
+    public void setDecodeListener(DecodeListener listener) {
+        this.listener = listener;
+        sr.setDecodeListener(listener != null ? pending : null);
+    }
+    /**
+     * Get listener for field values read.
+     * @return listener (null if no tracing)
+     */
+    public DecodeListener getDecodeListener() {
+        return listener;
+    }
+    /**
+     * Read.
+     * @param t class to read
+     * @return object read
+     * @throws RecordException if impossible to convert between types in class and struct or stream ends within struct
+     * @throws IOException if problem with stream
+     */
+    public <T> T read(Class<T> t) throws RecordException, IOException {
+        return read(t, (InfoProvider)null);
+    }
+    /**
+     * Read.
+     * @param t class to read
+     * @param lenpvd supplies length for fields where it is not given (null indicates that it is to be ignored)
+     * @return object read
+     * @throws RecordException if impossible to convert between types in class and struct or stream ends within struct
+     * @throws IOException if problem with stream
+     */
+    public <T> T read(Class<T> t, LengthProvider2 lenpvd) throws RecordException, IOException {
+        return read(t, lenpvd != null ? StructReader.info(lenpvd) : null);
+    }
+    /**
+     * Read.
+     * @param t class to read
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return object read
+     * @throws RecordException if impossible to convert between types in class and struct or stream ends within struct
+     * @throws IOException if problem with stream
+     */
+    public <T> T read(Class<T> t, InfoProvider lenpvd) throws RecordException, IOException {
+        return t.cast(read(t, null, lenpvd));
+    }
+    /**
+     * Read into existing object.
+     * @param target object to read into
+     * @throws RecordException if impossible to convert between types in class and struct or stream ends within struct
+     * @throws IOException if problem with stream
+     */
+    public void readInto(Object target) throws RecordException, IOException {
+        readInto(target, null);
+    }
+    /**
+     * Read into existing object.
+     * @param target object to read into
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @throws RecordException if impossible to convert between types in class and struct or stream ends within struct
+     * @throws IOException if problem with stream
+     */
+    public void readInto(Object target, InfoProvider lenpvd) throws RecordException, IOException {
+        read(target.getClass(), target, lenpvd);
+    }
+    private Object read(Class<?> t, Object target, InfoProvider lenpvd) throws RecordException, IOException {
+        while(true) {
+            int start = sr.getPosition();
+            try {
+                Object res;
+                if(target != null) {
+                    sr.readInto(target, lenpvd);
+                    res = target;
+                } else {
+                    res = sr.read(t, lenpvd);
+                }
+                commit();
+                return res;
+            } catch(RecordException e) {
+                // struct crosses end of buffer
+                if(!(e.getCause() instanceof BufferUnderflowException) || eof) {
+                    commit();
+                    throw e;
+                }
+                // struct will be read again
+                pending.discard();
+                refill(start);
+            }
+        }
+    }
+    private void commit() {
+        if(listener != null) {
+            pending.commitDecode(listener);
+        }
+    }
+    /**
+     * More structs available.
+     * @return true=more, false=no more
+     * @throws IOException if problem with stream
+     */
+    public boolean more() throws IOException {
+        while(!sr.more() && !eof) {
+            refill(sr.getPosition());
+        }
+        return sr.more();
+    }
+    /**
+     * Get position.
+     * @return number of bytes read from stream
+     */
+    public long getPosition() {
+        return base + sr.getPosition();
+    }
+    // keep bytes from start (and preceding bytes to keep alignment) and read more
+    private void refill(int start) throws IOException {
+        int keep = start - start % MAXALIGN;
+        buf.position(keep);
+        buf.compact();
+        base += keep;
+        if(!buf.hasRemaining()) {
+            ByteBuffer tmp = ByteBuffer.allocate(2 * buf.capacity());
+            buf.flip();
+            tmp.put(buf);
+            buf = tmp;
+            if(log.isLoggable(Level.FINE)) {
+                log.fine("StructStreamReader extended to buffersize " + buf.capacity());
+            }
+        }
+        int n;
+        do {
+            n = ch.read(buf);
+        } while(n == 0);
+        if(n < 0) {
+            eof = true;
+        }
+        buf.flip();
+        sr.reset(buf);
+        sr.skip(start - keep);
+    }
+    /**
+     * Close channel.
+     * @throws IOException if problem with stream
+     */
+    public void close() throws IOException {
+        ch.close();
+    }
+}
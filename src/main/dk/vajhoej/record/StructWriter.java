@@ -16,22 +16,56 @@
 
 package dk.vajhoej.record;
 
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Array;
-import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Date;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Class StructWriter writes a Java object to a byte array as a native struct.
+ * <br>
+ * The buffer grows automatically by adding segments, so bytes already written are never copied.
+ * <br>
+ * A StructWriter bound to a channel or stream instead keeps a single buffer that is flushed to
+ * the channel or stream whenever it is full.
  */
-public class StructWriter {
+public class StructWriter implements Flushable, Closeable {
     private static Logger log = Logger.getLogger(StructWriter.class.getName());
 	private final static int DEFAULT_BUFSIZ = 10000;
+	// largest alignment
+	private final static int MAXALIGN = 8;
+	// current segment
 	private ByteBuffer bb;
+	// offset of first byte in current segment
+	private int from;
+	// full segments (position to limit is content) and their total length
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private int done;
+	private final int bufsiz;
+	private boolean external;
+	// channel or stream bytes are flushed to (null if bytes are kept)
+	private WritableByteChannel sink;
+	private OutputStream os;
+	private long flushed;
+	// level of nested structs being written
+	private int depth;
+	private long bitbuf;
+	private int nbits;
+	EncodeListener listener;
+	// field values of struct being written are passed on to listener when it has been written completely
+	private PendingListener pending;
 	/**
 	 * Construct instance of StructWriter with default buffer size.
 	 */
@@ -40,12 +74,93 @@ public class StructWriter {
 	}
 	/**
 	 * Construct instance of StructWriter.
-	 * @param bufsiz size of byte array to write to
+	 * <br>
+	 * If FINE is enabled for the logger then field values are logged via {@link LoggingEncodeListener}.
+	 * @param bufsiz initial size of byte array to write to
 	 */
 	public StructWriter(int bufsiz) {
+		this.bufsiz = bufsiz;
 		bb = ByteBuffer.allocate(bufsiz);
-		log.fine("StructWriter initialized with buffersize " + bufsiz);
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructWriter initialized with buffersize " + bufsiz);
+		}
+		listener = log.isLoggable(Level.FINE) ? new LoggingEncodeListener() : null;
+	}
+	/**
+	 * Construct instance of StructWriter writing from the position to the limit of a buffer in place.
+	 * <br>
+	 * Works with heap buffers, direct buffers and slices. The position and byte order of the buffer
+	 * are not changed (use {@link #getLength()} to find out how much has been written). Alignment is
+	 * relative to the position of the buffer. The writer can not be extended.
+	 * @param bb buffer to write to
+	 */
+	public StructWriter(ByteBuffer bb) {
+		this.bb = bb.slice();
+		bufsiz = this.bb.capacity();
+		external = true;
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructWriter initialized with ByteBuffer of length " + this.bb.remaining());
+		}
+		listener = log.isLoggable(Level.FINE) ? new LoggingEncodeListener() : null;
+	}
+	/**
+	 * Construct instance of StructWriter writing to channel with default buffer size.
+	 * @param ch channel to write to
+	 */
+	public StructWriter(WritableByteChannel ch) {
+		this(ch, DEFAULT_BUFSIZ, false);
+	}
+	/**
+	 * Construct instance of StructWriter writing to channel.
+	 * <br>
+	 * The buffer is flushed to the channel when a struct does not fit in it and is only grown
+	 * if a single struct is larger than the buffer.
+	 * @param ch channel to write to
+	 * @param bufsiz size of buffer
+	 * @param direct use a direct buffer
+	 */
+	public StructWriter(WritableByteChannel ch, int bufsiz, boolean direct) {
+		this.bufsiz = bufsiz;
+		bb = direct ? ByteBuffer.allocateDirect(bufsiz) : ByteBuffer.allocate(bufsiz);
+		sink = ch;
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("StructWriter initialized with channel and buffersize " + bufsiz);
+		}
+		listener = log.isLoggable(Level.FINE) ? new LoggingEncodeListener() : null;
+	}
+	/**
+	 * Construct instance of StructWriter writing to stream with default buffer size.
+	 * @param os stream to write to
+	 */
+	public StructWriter(OutputStream os) {
+		this(os, DEFAULT_BUFSIZ);
+	}
+	/**
+	 * Construct instance of StructWriter writing to stream.
+	 * <br>
+	 * The buffer is written to the stream when a struct does not fit in it and is only grown
+	 * if a single struct is larger than the buffer.
+	 * @param os stream to write to
+	 * @param bufsiz size of buffer
+	 */
+	public StructWriter(OutputStream os, int bufsiz) {
+		this(Channels.newChannel(os), bufsiz, false);
+		this.os = os;
 	}
+    /**
+     * Set listener for field values written.
+     * @param listener listener (null indicates no tracing)
+     */
+    public void setEncodeListener(EncodeListener listener) {
+        this.listener = listener;
+    }
+    /**
+     * Get listener for field values written.
+     * @return listener (null if no tracing)
+     */
+    public EncodeListener getEncodeListener() {
+        return listener;
+    }
     /**
      * Write.
      * @param o object to write
@@ -121,461 +236,95 @@ public class StructWriter {
      * @throws RecordException if impossible to convert between types in class and struct
      */
     public void write(Object o, InfoProvider lenpvd) throws RecordException {
+        if(depth > 0 || external) {
+            writeStruct(o, lenpvd);
+            return;
+        }
+        EncodeListener target = listener;
+        if(target != null) {
+            if(pending == null) {
+                pending = new PendingListener();
+            }
+            listener = pending;
+        }
+        try {
+            int size = bufsiz;
+            while(true) {
+                int start = bb.position();
+                try {
+                    writeStruct(o, lenpvd);
+                    // flush in advance if another struct of same size would not fit
+                    if(sink != null && bb.remaining() < bb.position() - start) {
+                        spill();
+                    }
+                    return;
+                } catch(BufferOverflowException e) {
+                    // write struct again in new segment or after flush
+                    bb.position(start);
+                    if(target != null) {
+                        pending.discard();
+                    }
+                    size = Math.max(2 * size, getLength());
+                    if(sink != null) {
+                        spill();
+                    } else {
+                        segment(size);
+                    }
+                }
+            }
+        } finally {
+            if(target != null) {
+                listener = target;
+                pending.commitEncode(target);
+            }
+        }
+    }
+    private void spill() throws RecordException {
+        try {
+            drain();
+        } catch(IOException e) {
+            throw new RecordException("Cannot write to channel", e);
+        }
+    }
+    private void writeStruct(Object o, InfoProvider lenpvd) throws RecordException {
+        depth++;
+        long savbitbuf = bitbuf;
+        int savnbits = nbits;
 		try {
-			long bitbuf = 0;
-			int nbits = 0;
+			bitbuf = 0;
+			nbits = 0;
 			int selpad = 0;
 			Class<?> t = o.getClass();
-			log.fine("Writing class " + t.getName());
+			if(log.isLoggable(Level.FINE)) {
+			    log.fine("Writing class " + t.getName());
+			}
+			StructCodec<Object> sc = (lenpvd == null && listener == null) ? StructInfoCache.codec(t) : null;
+			if(sc != null) {
+			    sc.write(bb, o);
+			    return;
+			}
 			StructInfo si = StructInfoCache.analyze(t);
             bb.order(si.getEndianess() == Endian.LITTLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-			for(int i = 0; i < si.getFields().size(); i++) {
-			    FieldInfo fi = si.getFields().get(i);
-			    int npad = StructInfo.calculatePad(bb.position(), si.getAlignment(), fi);
+			FieldCodec[] codecs = si.getCodecs();
+			for(int i = 0; i < codecs.length; i++) {
+			    FieldCodec fc = codecs[i];
+			    int npad = fc.pad(bb.position());
 			    if(npad > 0) {
-	                bb.put(new byte[npad]);
-	                log.finer("Write " + npad + " padding bytes");
-			    }
-			    int nelm;
-			    if(lenpvd == null || lenpvd.getElements(o, i) < 0) {
-			    	nelm = fi.getElements();
-			    } else {
-			    	nelm = lenpvd.getElements(o, i);
-			    }
-			    for(int ix = 0; ix < nelm; ix++) {
-	                switch(fi.getStructType()) {
-                        case INT1:
-                            byte vint1;
-                            if(fi.getClassType() == byte.class) {
-                                vint1 = fi.getField().getByte(o);
-                            } else if(fi.getClassType() == short.class) {
-                                vint1 = (byte)fi.getField().getShort(o);
-                            } else if(fi.getClassType() == int.class) {
-                                vint1 = (byte)fi.getField().getInt(o);
-                            } else if(fi.getClassType() == byte[].class) {
-                                vint1 = Array.getByte(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vint1 = 0;
-                            }
-                            bb.put(vint1);
-                            log.fine("Write INT1 with value " + vint1);
-                            break;
-                        case INT2:
-                            short vint2;
-                            if(fi.getClassType() == short.class) {
-                                vint2 = fi.getField().getShort(o);
-                            } else if(fi.getClassType() == int.class) {
-                                vint2 = (short)fi.getField().getInt(o);
-                            } else if(fi.getClassType() == short[].class) {
-                                vint2 = Array.getShort(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vint2 = 0;
-                            }
-                            bb.putShort(vint2);
-                            log.fine("Write INT2 with value " + vint2);
-                            break;
-                        case INT4:
-                            int vint4;
-                            if(fi.getClassType() == int.class) {
-                                vint4 = fi.getField().getInt(o);
-                            } else if(fi.getClassType() == int[].class) {
-                                vint4 = Array.getInt(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vint4 = 0;
-                            }
-                            bb.putInt(vint4);
-                            log.fine("Write INT4 with value " + vint4);
-                            break;
-                        case INT8:
-                            long vint8;
-                            if(fi.getClassType() == long.class) {
-                                vint8 = fi.getField().getLong(o);
-                            } else if(fi.getClassType() == long[].class) {
-                                vint8 = Array.getLong(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vint8 = 0;
-                            }
-                            bb.putLong(vint8);
-                            log.fine("Write INT8 with value " + vint8);
-                            break;
-                        case UINT1:
-                            short vuint1;
-                            if(fi.getClassType() == short.class) {
-                                vuint1 = fi.getField().getShort(o);
-                            } else if(fi.getClassType() == int.class) {
-                                vuint1 = (short)fi.getField().getInt(o);
-                            } else if(fi.getClassType() == short[].class) {
-                                vuint1 = Array.getShort(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vuint1 = 0;
-                            }
-                            bb.put((byte)vuint1);
-                            log.fine("Write UINT1 with value " + vuint1);
-                            break;
-                        case UINT2:
-                            int vuint2;
-                            if(fi.getClassType() == int.class) {
-                                vuint2 = fi.getField().getInt(o);
-                            } else if(fi.getClassType() == int[].class) {
-                                vuint2 = Array.getInt(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vuint2 = 0;
-                            }
-                            bb.putShort((short)vuint2);
-                            log.fine("Write UINT2 with value " + vuint2);
-                            break;
-                        case UINT4:
-                            long vuint4;
-                            if(fi.getClassType() == long.class) {
-                                vuint4 = fi.getField().getLong(o);
-                            } else if(fi.getClassType() == long[].class) {
-                                vuint4 = Array.getLong(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vuint4 = 0;
-                            }
-                            bb.putInt((int)vuint4);
-                            log.fine("Write UINT4 with value " + vuint4);
-                            break;
-                        case FP4:
-                            float vfp4;
-                            if(fi.getClassType() == float.class) {
-                                vfp4 = fi.getField().getFloat(o);
-                            } else if(fi.getClassType() == float[].class) {
-                                vfp4 = Array.getFloat(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vfp4 = 0;
-                            }
-                            bb.putFloat(vfp4);
-                            log.fine("Write FP4 with value " + vfp4);
-                            break;
-                        case FP8:
-                            double vfp8;
-                            if(fi.getClassType() == double.class) {
-                                vfp8 = fi.getField().getDouble(o);
-                            } else if(fi.getClassType() == double[].class) {
-                                vfp8 = Array.getDouble(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vfp8 = 0;
-                            }
-                            bb.putDouble(vfp8);
-                            log.fine("Write FP8 with value " + vfp8);
-                            break;
-                        case INTX:
-                            int intxlen;
-                            if(lenpvd == null || lenpvd.getLength(o, i) < 0) {
-                                intxlen = fi.getLength();
-                            } else {
-                                intxlen = lenpvd.getLength(o, i);
-                            }
-                            long vintx;
-                            if(fi.getClassType() == long.class) {
-                                vintx = fi.getField().getLong(o);
-                            } else if(fi.getClassType() == long[].class) {
-                                vintx = Array.getLong(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vintx = 0;
-                            }
-                            if(intxlen > 0 && intxlen < 8) {
-                                if(si.getEndianess() == Endian.BIG) {
-                                    for(int j = 0; j < intxlen; j++) {
-                                        bb.put(((byte)((vintx >> ((intxlen - 1 - j) * 8)) & 0x00FF)));
-                                    }
-                                } else if(si.getEndianess() == Endian.LITTLE) {
-                                    for(int j = 0; j < intxlen; j++) {
-                                        bb.put(((byte)((vintx >> (j * 8)) & 0x00FF)));
-                                    }
-                                }
-                            } else {
-                                throw new RecordException("Wrong length of general integer " + fi.getField().getName() + " in " + t.getName());
-                            }
-                            log.fine("Write INTX with value " + vintx);
-                            break;
-                        case FIXSTR:
-                            int fixstrlen;
-                            if(lenpvd == null || lenpvd.getLength(o, i) < 0) {
-                                fixstrlen = fi.getLength();
-                            } else {
-                                fixstrlen = lenpvd.getLength(o, i);
-                            }
-                            String vfixstr;
-                            if(fi.getClassType() == String.class) {
-                                vfixstr = (String)fi.getField().get(o);
-                            } else if(fi.getClassType() == String[].class) {
-                                vfixstr = (String)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vfixstr = null;
-                            }
-                            byte[] fixstrba = vfixstr.getBytes(fi.getEncoding());
-                            if(fixstrba.length == fixstrlen) {
-                                bb.put(fixstrba);
-                            } else {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName());
-                            }
-                            log.fine("Write FIXSTR with value " + vfixstr);
-                            break;
-                        case FIXSTRNULTERM:
-                            int fixstrnultermlen;
-                            if(lenpvd == null || lenpvd.getLength(o, i) < 0) {
-                                fixstrnultermlen = fi.getLength();
-                            } else {
-                                fixstrnultermlen = lenpvd.getLength(o, i);
-                            }
-                            String vfixstrnulterm;
-                            if(fi.getClassType() == String.class) {
-                                vfixstrnulterm = (String)fi.getField().get(o);
-                            } else if(fi.getClassType() == String[].class) {
-                                vfixstrnulterm = (String)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vfixstrnulterm = null;
-                            }
-                            byte[] fixstrnultermba = vfixstrnulterm.getBytes(fi.getEncoding());
-                            if(fixstrnultermba.length <= fixstrnultermlen) {
-                                bb.put(fixstrnultermba);
-                                byte[] zero = new byte[fixstrnultermlen - fixstrnultermba.length];
-                                bb.put(zero);
-                            } else {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName());
-                            }
-                            log.fine("Write FIXSTRNULTERM with value " + vfixstrnulterm);
-                            break;
-                        case VARSTR:
-                            String vvarstr;
-                            if(fi.getClassType() == String.class) {
-                                vvarstr = (String)fi.getField().get(o);
-                            } else if(fi.getClassType() == String[].class) {
-                                vvarstr = (String)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vvarstr = null;
-                            }
-                            byte[] varstrba = vvarstr.getBytes(fi.getEncoding());
-                            if((fi.getPrefixlength() == 0 || fi.getPrefixlength() == 2) && varstrba.length < 32768) {
-                                bb.putShort((short)varstrba.length);
-                                bb.put(varstrba);
-                            } else if(fi.getPrefixlength() == 1 && varstrba.length < 128) {
-                                bb.put((byte)varstrba.length);
-                                bb.put(varstrba);
-                            } else if(fi.getPrefixlength() == 4) {
-                                bb.putInt(varstrba.length);
-                                bb.put(varstrba);
-                            } else {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName());
-                            }
-                            log.fine("Write VARSTR with value " + vvarstr);
-                            break;
-                        case VARFIXSTR:
-                            String vvarfixstr;
-                            if(fi.getClassType() == String.class) {
-                                vvarfixstr = (String)fi.getField().get(o);
-                            } else if(fi.getClassType() == String[].class) {
-                                vvarfixstr = (String)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vvarfixstr = null;
-                            }
-                            byte[] varfixstrba = vvarfixstr.getBytes(fi.getEncoding());
-                            if(varfixstrba.length > fi.getLength()) {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName());
-                            } else if((fi.getPrefixlength() == 0 || fi.getPrefixlength() == 2) && varfixstrba.length < 32768) {
-                                bb.putShort((short)varfixstrba.length);
-                                bb.put(varfixstrba);
-                            } else if(fi.getPrefixlength() == 1 && varfixstrba.length < 128) {
-                                bb.put((byte)varfixstrba.length);
-                                bb.put(varfixstrba);
-                            } else if(fi.getPrefixlength() == 4) {
-                                bb.putInt(varfixstrba.length);
-                                bb.put(varfixstrba);
-                            } else {
-                                throw new RecordException("Wrong length of string " + fi.getField().getName() + " in " + t.getName());
-                            }
-                            log.fine("Write VARFIXSTR with value " + vvarfixstr);
-                            byte[] zero = new byte[fi.getLength() - varfixstrba.length];
-                            bb.put(zero);
-                            log.finer("Write " + zero.length + " padding bytes");
-                            break;
-                        case REMSTR:
-                            String vremstr;
-                            if(fi.getClassType() == String.class) {
-                                vremstr = (String)fi.getField().get(o);
-                            } else if(fi.getClassType() == String[].class) {
-                                vremstr = (String)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vremstr = null;
-                            }
-                            byte[] remstrba = vremstr.getBytes(fi.getEncoding());
-                            bb.put(remstrba);
-                            log.fine("Write REMSTR with value " + vremstr);
-                            break;
-                        case BOOLEAN:
-                            boolean vboolean;
-                            if(fi.getClassType() == boolean.class) {
-                                vboolean = (Boolean)fi.getField().get(o);
-                            } else if(fi.getClassType() == boolean[].class) {
-                                vboolean = Array.getBoolean(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vboolean = false;
-                            }
-                            byte[] booleanba = new byte[fi.getLength()];
-                            booleanba[0] =  vboolean ? (byte)1 : (byte)0;
-                            bb.put(booleanba);
-                            log.fine("Write BOOLEAN with value " + vboolean);
-                            break;
-                        case BIT:
-                            int vbit;
-                            if(fi.getClassType() == int.class) {
-                                vbit = fi.getField().getInt(o);
-                            } else if(fi.getClassType() == int[].class) {
-                                vbit = Array.getInt(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vbit = 0;
-                            }
-                            bitbuf = bitbuf << fi.getLength() | vbit;
-                            nbits += fi.getLength();
-                            while(nbits >= 8) {
-                                byte tmp = (byte)(bitbuf >> (nbits - 8));
-                                bb.put(tmp);
-                                bitbuf ^= (tmp << (nbits - 8));
-                                nbits -= 8;
-                            }
-                            log.fine("Write BIT with value " + vbit);
-                            break;
-                        case JAVATIME:
-                            Date vjavatime;
-                            if(fi.getClassType() == Date.class) {
-                                vjavatime = (Date)fi.getField().get(o);
-                            } else if(fi.getClassType() == Date[].class) {
-                                vjavatime = (Date)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vjavatime = null;
-                            }
-                            bb.putLong(TimeUtil.toJavaTime(vjavatime));
-                            log.fine("Write JAVATIME with value " + vjavatime);
-                            break;
-                        case UNIXTIME:
-                            Date vunixtime;
-                            if(fi.getClassType() == Date.class) {
-                                vunixtime = (Date)fi.getField().get(o);
-                            } else if(fi.getClassType() == Date[].class) {
-                                vunixtime = (Date)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vunixtime = null;
-                            }
-                            bb.putInt(TimeUtil.toUnixTime(vunixtime));
-                            log.fine("Write UNIXTIME with value " + vunixtime);
-                            break;
-                        case VMSTIME:
-                            Date vvmstime;
-                            if(fi.getClassType() == Date.class) {
-                                vvmstime = (Date)fi.getField().get(o);
-                            } else if(fi.getClassType() == Date[].class) {
-                                vvmstime = (Date)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vvmstime = null;
-                            }
-                            bb.putLong(TimeUtil.toVMSTime(vvmstime));
-                            log.fine("Write VMSTIME with value " + vvmstime);
-                            break;
-                        case PACKEDBCD:
-                            int packedbcdlen;
-                            if(lenpvd == null || lenpvd.getLength(o, i) < 0) {
-                                packedbcdlen = fi.getLength();
-                            } else {
-                                packedbcdlen = lenpvd.getLength(o, i);
-                            }
-                            BigDecimal vpackedbcd;
-                            if(fi.getClassType() == BigDecimal.class) {
-                                vpackedbcd = (BigDecimal)fi.getField().get(o);
-                            } else if(fi.getClassType() == BigDecimal[].class) {
-                                vpackedbcd = (BigDecimal)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vpackedbcd = null;
-                            }
-                            bb.put(BCDUtil.encodePackedBCD(vpackedbcd, fi.getDecimals(), packedbcdlen));
-                            log.fine("Write PACKEDBCD with value " + vpackedbcd);
-                            break;
-                        case ZONEDBCD:
-                            int zonedbcdlen;
-                            if(lenpvd == null || lenpvd.getLength(o, i) < 0) {
-                                zonedbcdlen = fi.getLength();
-                            } else {
-                                zonedbcdlen = lenpvd.getLength(o, i);
-                            }
-                            BigDecimal vzonedbcd;
-                            if(fi.getClassType() == BigDecimal.class) {
-                                vzonedbcd = (BigDecimal)fi.getField().get(o);
-                            } else if(fi.getClassType() == BigDecimal[].class) {
-                                vzonedbcd = (BigDecimal)Array.get(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vzonedbcd = null;
-                            }
-                            bb.put(BCDUtil.encodeZonedBCD(vzonedbcd, fi.getZone(), fi.getDecimals(), zonedbcdlen));
-                            log.fine("Write ZONEDBCD with value " + vzonedbcd);
-                            break;
-                        case VAXFP4:
-                            float vvaxfp4;
-                            if(fi.getClassType() == float.class) {
-                                vvaxfp4 = fi.getField().getFloat(o);
-                            } else if(fi.getClassType() == float[].class) {
-                                vvaxfp4 = Array.getFloat(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vvaxfp4 = 0;
-                            }
-                            bb.putInt(VAXFloatUtil.s2f(Float.floatToRawIntBits(vvaxfp4)));
-                            log.fine("Write VAXFP4 with value " + vvaxfp4);
-                            break;
-                        case VAXFP8:
-                            double vvaxfp8;
-                            if(fi.getClassType() == double.class) {
-                                vvaxfp8 = fi.getField().getDouble(o);
-                            } else if(fi.getClassType() == double[].class) {
-                                vvaxfp8 = Array.getDouble(fi.getField().get(o), ix);
-                            } else {
-                                badConversion(fi.getClassType(), fi.getStructType(), t);
-                                vvaxfp8 = 0;
-                            }
-                            bb.putLong(VAXFloatUtil.t2g(Double.doubleToRawLongBits(vvaxfp8)));
-                            log.fine("Write VAXFP8 with value " + vvaxfp8);
-                            break;
-                        case STRUCT:
-                        	if(lenpvd == null) {
-                                write(fi.getField().get(o));
-                        	} else {
-                                write(fi.getField().get(o), lenpvd.getLengthProvider(o, i));
-                        	}
-                            break;
-                        default:
-                            badConversion(fi.getClassType(), fi.getStructType(), t);
-                    }
+	                FieldCodec.zero(bb, npad);
+	                if(log.isLoggable(Level.FINER)) {
+	                    log.finer("Write " + npad + " padding bytes");
+	                }
 			    }
+			    fc.write(this, bb, o, lenpvd);
+			    FieldInfo fi = fc.getFieldInfo();
                 // the field was a selector
                 if(fi.getSelects() != null) {
                     // lookup class and padding
 					SubClassAndPad scp;
 					if(lenpvd != null && lenpvd.hasConvertSelector()) {
-					    scp = fi.getSelects().get(lenpvd.convertSelector(fi.getField().get(o)));
+					    scp = fi.getSelect(lenpvd.convertSelector(fi.getField().get(o)));
 					} else {
-					    scp = fi.getSelects().get(fi.getField().getInt(o));
+					    scp = fi.getSelect(fc.selector(o));
 					}
                     if(scp == null) {
                         throw new RecordException(o.getClass().getName() + " " + fi.getField().getName() + " has invalid selector value: " + fi.getField().get(o));
@@ -585,60 +334,388 @@ public class StructWriter {
                 }
 			}
 			// write select pad bytes
-            byte[] zero = new byte[selpad];
-            bb.put(zero);
-            log.finer("Write " + zero.length + " padding bytes");
+            if(selpad > 0) {
+                FieldCodec.zero(bb, selpad);
+                if(log.isLoggable(Level.FINER)) {
+                    log.finer("Write " + selpad + " padding bytes");
+                }
+            }
             // if necessary write new record pad bytes
 			if(si.getEndpad()) {
-                int npad = StructInfo.calculateEndPad(bb.position(), si.getAlignment(), si.getFields());
+                int npad = si.calculateEndPad(bb.position());
                 if(npad > 0) {
-                    bb.put(new byte[npad]);
-                    log.finer("Write " + npad + " end-padding bytes");
+                    FieldCodec.zero(bb, npad);
+                    if(log.isLoggable(Level.FINER)) {
+                        log.finer("Write " + npad + " end-padding bytes");
+                    }
 			    }
 			}
 		} catch (UnsupportedEncodingException e) {
 			throw new RecordException("Unsupported encoding for string field", e);
 		} catch (IllegalAccessException e) {
 			throw new RecordException("Cannot access field", e);
+		} finally {
+		    bitbuf = savbitbuf;
+		    nbits = savnbits;
+		    depth--;
 		}
 	}
+    /**
+     * Calculate exact number of bytes that writing object will produce without encoding it.
+     * @param o object to write
+     * @return number of bytes
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public static int sizeOf(Object o) throws RecordException {
+        return sizeOf(o, (InfoProvider)null);
+    }
+    /**
+     * Calculate exact number of bytes that writing object will produce without encoding it.
+     * @param o object to write
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return number of bytes
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public static int sizeOf(Object o, InfoProvider lenpvd) throws RecordException {
+        return sizeOf(o, lenpvd, 0);
+    }
+    /**
+     * Calculate exact number of bytes that writing list of objects one after the other will produce without encoding them.
+     * @param lst list of objects to write
+     * @return number of bytes
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public static int sizeOf(List<?> lst) throws RecordException {
+        return sizeOf(lst, (InfoProvider)null);
+    }
+    /**
+     * Calculate exact number of bytes that writing list of objects one after the other will produce without encoding them.
+     * @param lst list of objects to write
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return number of bytes
+     * @throws RecordException if impossible to convert between types in class and struct
+     */
+    public static int sizeOf(List<?> lst, InfoProvider lenpvd) throws RecordException {
+        int pos = 0;
+        for(Object o : lst) {
+            pos = sizeOf(o, lenpvd, pos);
+        }
+        return pos;
+    }
+    // position after object written at position pos (mirrors writeStruct)
+    static int sizeOf(Object o, InfoProvider lenpvd, int pos) throws RecordException {
+        try {
+            int nbits = 0;
+            int selpad = 0;
+            StructInfo si = StructInfoCache.analyze(o.getClass());
+            FieldCodec[] codecs = si.getCodecs();
+            for(int i = 0; i < codecs.length; i++) {
+                FieldCodec fc = codecs[i];
+                pos += fc.pad(pos);
+                pos += fc.size(o, pos, lenpvd);
+                nbits += fc.bits(o, lenpvd);
+                pos += nbits / 8;
+                nbits %= 8;
+                FieldInfo fi = fc.getFieldInfo();
+                if(fi.getSelects() != null) {
+                    SubClassAndPad scp;
+                    if(lenpvd != null && lenpvd.hasConvertSelector()) {
+                        scp = fi.getSelect(lenpvd.convertSelector(fi.getField().get(o)));
+                    } else {
+                        scp = fi.getSelect(fc.selector(o));
+                    }
+                    if(scp == null) {
+                        throw new RecordException(o.getClass().getName() + " " + fi.getField().getName() + " has invalid selector value: " + fi.getField().get(o));
+                    }
+                    selpad += scp.getPad();
+                }
+            }
+            pos += selpad;
+            if(si.getEndpad()) {
+                pos += si.calculateEndPad(pos);
+            }
+            return pos;
+        } catch (UnsupportedEncodingException e) {
+            throw new RecordException("Unsupported encoding for string field", e);
+        } catch (IllegalAccessException e) {
+            throw new RecordException("Cannot access field", e);
+        }
+    }
+    // start new segment with same alignment as the position in the output
+    private void segment(int size) {
+        int len = getLength();
+        if(bb.position() > from) {
+            bb.limit(bb.position());
+            bb.position(from);
+            segments.add(bb);
+        }
+        done = len;
+        from = len % MAXALIGN;
+        bb = ByteBuffer.allocate(from + size);
+        bb.position(from);
+        if(log.isLoggable(Level.FINE)) {
+            log.fine("StructWriter added segment of size " + size);
+        }
+    }
+    // write buffer to channel or stream (buffer is grown instead if empty)
+    private void drain() throws IOException {
+        if(bb.position() == from) {
+            ByteBuffer old = bb;
+            bb = old.isDirect() ? ByteBuffer.allocateDirect(2 * old.capacity()) : ByteBuffer.allocate(2 * old.capacity());
+            bb.position(from);
+            if(log.isLoggable(Level.FINE)) {
+                log.fine("StructWriter grew buffer to size " + bb.capacity());
+            }
+            return;
+        }
+        int len = bb.position() - from;
+        if(os != null && bb.hasArray()) {
+            os.write(bb.array(), bb.arrayOffset() + from, len);
+        } else {
+            ByteBuffer out = bb.duplicate();
+            out.limit(bb.position());
+            out.position(from);
+            while(out.hasRemaining()) {
+                sink.write(out);
+            }
+        }
+        flushed += len;
+        from = (int)(flushed % MAXALIGN);
+        bb.clear();
+        bb.position(from);
+        if(log.isLoggable(Level.FINE)) {
+            log.fine("StructWriter flushed " + len + " bytes");
+        }
+    }
+    void writeBits(int vbit, int len) {
+        bitbuf = bitbuf << len | vbit;
+        nbits += len;
+        while(nbits >= 8) {
+            byte tmp = (byte)(bitbuf >> (nbits - 8));
+            bb.put(tmp);
+            bitbuf ^= (tmp << (nbits - 8));
+            nbits -= 8;
+        }
+    }
 	/**
 	 * Get bytes.
 	 * @return the resulting byte array
+	 * @throws IllegalStateException if writing to a channel or stream
 	 */
 	public byte[] getBytes() {
-		int n = bb.position();
-		byte[] res = new byte[n];
-		bb.rewind();
-		bb.get(res);
+		byte[] res = new byte[getLength()];
+		writeTo(res, 0);
 		log.fine("Returning byte array of length " + res.length);
         if(log.isLoggable(Level.FINEST)) {
             log.finest("Byte array:" + LogHelper.byteArrayToString(res));
         }
 		return res;
 	}
+	/**
+	 * Write bytes to channel.
+	 * <br>
+	 * The segments are written with a gathering write if supported by the channel, so they are not assembled first.
+	 * @param ch channel to write to
+	 * @return number of bytes written
+	 * @throws IOException if problem with channel
+	 * @throws IllegalStateException if writing to a channel or stream
+	 */
+	public long writeTo(WritableByteChannel ch) throws IOException {
+		ByteBuffer[] bufs = contents();
+		long res = 0;
+		if(ch instanceof GatheringByteChannel) {
+			int first = 0;
+			while(first < bufs.length) {
+				res += ((GatheringByteChannel)ch).write(bufs, first, bufs.length - first);
+				while(first < bufs.length && !bufs[first].hasRemaining()) {
+					first++;
+				}
+			}
+		} else {
+			for(ByteBuffer seg : bufs) {
+				while(seg.hasRemaining()) {
+					res += ch.write(seg);
+				}
+			}
+		}
+		if(log.isLoggable(Level.FINE)) {
+			log.fine("Wrote " + res + " bytes to channel");
+		}
+		return res;
+	}
+	/**
+	 * Copy bytes into byte array supplied by caller.
+	 * @param dst byte array to copy to
+	 * @param off offset in byte array
+	 * @return number of bytes copied
+	 * @throws IndexOutOfBoundsException if there is not room for all bytes in the byte array
+	 * @throws IllegalStateException if writing to a channel or stream
+	 */
+	public int writeTo(byte[] dst, int off) {
+		int len = getLength();
+		if(off < 0 || len > dst.length - off) {
+			throw new IndexOutOfBoundsException("Not room for " + len + " bytes at offset " + off + " in byte array of length " + dst.length);
+		}
+		if(sink != null) {
+			throw new IllegalStateException("StructWriter writing to a channel or stream does not keep the bytes");
+		}
+		// absolute gets so nothing is allocated
+		int ix = off;
+		for(int i = 0; i < segments.size(); i++) {
+			ByteBuffer seg = segments.get(i);
+			seg.get(seg.position(), dst, ix, seg.remaining());
+			ix += seg.remaining();
+		}
+		bb.get(from, dst, ix, bb.position() - from);
+		return len;
+	}
+	/**
+	 * Flush buffer to channel or stream (does nothing if not writing to a channel or stream).
+	 * @throws IOException if problem with channel or stream
+	 */
+	public void flush() throws IOException {
+		if(sink != null) {
+			if(bb.position() > from) {
+				drain();
+			}
+			if(os != null) {
+				os.flush();
+			}
+		}
+	}
+	/**
+	 * Flush buffer and close channel or stream (does nothing if not writing to a channel or stream).
+	 * @throws IOException if problem with channel or stream
+	 */
+	public void close() throws IOException {
+		if(sink != null) {
+			try {
+				flush();
+			} finally {
+				sink.close();
+			}
+		}
+	}
+	// content of all segments
+	private ByteBuffer[] contents() {
+		if(sink != null) {
+			throw new IllegalStateException("StructWriter writing to a channel or stream does not keep the bytes");
+		}
+		ByteBuffer[] res = new ByteBuffer[segments.size() + 1];
+		for(int i = 0; i < segments.size(); i++) {
+			res[i] = segments.get(i).duplicate();
+		}
+		ByteBuffer cur = bb.duplicate();
+		cur.limit(bb.position());
+		cur.position(from);
+		res[segments.size()] = cur;
+		return res;
+	}
 	/**
 	 * Get length.
+	 * <br>
+	 * When writing to a channel or stream only bytes not yet flushed are counted.
 	 * @return the length
 	 */
 	public int getLength() {
-		return bb.position();
+		return done + bb.position() - from;
+	}
+	/**
+	 * Discard bytes written and start writing again from the beginning.
+	 * <br>
+	 * The largest segment is kept, so a writer that is reused for structs of similar size does not allocate.
+	 * @throws IllegalStateException if writing to a channel or stream
+	 */
+	public void reset() {
+		if(sink != null) {
+			throw new IllegalStateException("StructWriter writing to a channel or stream can not be reset");
+		}
+		segments.clear();
+		done = 0;
+		from = 0;
+		bb.clear();
+		bitbuf = 0;
+		nbits = 0;
+	}
+	/**
+	 * Discard bytes written and start writing to byte array in place.
+	 * <br>
+	 * Writing to the same byte array again does not allocate anything. The writer can not be extended.
+	 * @param ba byte array to write to
+	 * @throws IllegalStateException if writing to a channel or stream
+	 */
+	public void reset(byte[] ba) {
+		if(!external || !bb.hasArray() || bb.array() != ba || bb.arrayOffset() != 0 || bb.capacity() != ba.length) {
+			reset(ByteBuffer.wrap(ba));
+		} else {
+			reset();
+		}
+	}
+	/**
+	 * Discard bytes written and start writing from the position to the limit of a buffer in place.
+	 * <br>
+	 * The position and byte order of the buffer are not changed. Alignment is relative to the position of the buffer.
+	 * The writer can not be extended.
+	 * @param bb buffer to write to
+	 * @throws IllegalStateException if writing to a channel or stream
+	 */
+	public void reset(ByteBuffer bb) {
+		if(sink != null) {
+			throw new IllegalStateException("StructWriter writing to a channel or stream can not be reset");
+		}
+		this.bb = bb.slice();
+		external = true;
+		reset();
+	}
+	// capacity of own buffer (-1 if writing to a buffer supplied by the caller or to a channel or stream)
+	int capacity() {
+		return external || sink != null ? -1 : bb.capacity();
+	}
+	/**
+	 * Get number of bytes written including bytes flushed to channel or stream.
+	 * @return the number of bytes
+	 */
+	public long getPosition() {
+		return flushed + getLength();
+	}
+	// write bytes as is
+	void put(byte[] b) {
+		int ix = 0;
+		while(true) {
+			int n = Math.min(b.length - ix, bb.remaining());
+			bb.put(b, ix, n);
+			ix += n;
+			if(ix >= b.length) {
+				break;
+			}
+			if(sink != null) {
+				try {
+					drain();
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else {
+				segment(Math.max(b.length - ix, getLength()));
+			}
+		}
 	}
 	/**
 	 * Extend capacity.
-	 * @param newbufsiz new size of byte array to write to
+	 * <br>
+	 * The capacity is extended automatically, but extending in advance avoids writing a struct again
+	 * when it does not fit in the current segment. Bytes already written are not copied.
+	 * @param newbufsiz new total size of byte array to write to
+	 * @throws IllegalStateException if writing to a buffer supplied by the caller or to a channel or stream
 	 */
 	public void extend(int newbufsiz) {
-		int n = bb.position();
-		byte[] buf = new byte[n];
-		bb.rewind();
-		bb.get(buf);
-		bb = ByteBuffer.allocate(newbufsiz);
-		bb.put(buf);
-		log.fine("StructWriter extended to buffersize " + newbufsiz);
-		
-	}
-	private void badConversion(Class<?> clz, FieldType ft, Class<?> struct) throws RecordException {
-		throw new RecordException("Can not convert from " + clz.getName() + " to " + ft.toString() + " in " + struct.getName());
+		if(external) {
+			throw new IllegalStateException("StructWriter writing to a ByteBuffer can not be extended");
+		}
+		if(sink != null) {
+			throw new IllegalStateException("StructWriter writing to a channel or stream can not be extended");
+		}
+		if(newbufsiz - getLength() > bb.remaining()) {
+			segment(newbufsiz - getLength());
+		}
 	}
 }
@@ -22,6 +22,8 @@ package dk.vajhoej.record;
 public class SubClassAndPad {
     private Class<?> subClass;
     private int pad;
+    // 0 = not checked, 1 = reading can continue as sub class, -1 = must read again as sub class
+    private volatile int continuation;
     /**
      * Create instance of ClassAndPad with all necessary properties.
      * @param subClass class
@@ -45,4 +47,17 @@ public class SubClassAndPad {
     public int getPad() {
         return pad;
     }
+    /**
+     * Check (once) if reading can continue as sub class after the selector field.
+     * @param si StructInfo for class with selector field
+     * @param sub StructInfo for sub class
+     * @param ix index of selector field
+     * @return true=continue, false=read again
+     */
+    boolean canContinue(StructInfo si, StructInfo sub, int ix) {
+        if(continuation == 0) {
+            continuation = si.canContinue(sub, ix) ? 1 : -1;
+        }
+        return continuation > 0;
+    }
 }
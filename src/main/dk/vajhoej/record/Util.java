@@ -16,11 +16,19 @@
 
 package dk.vajhoej.record;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Utility class to process lists and to work with files instead of byte arrays.
@@ -49,7 +57,7 @@ public class Util {
          */
         public T2 convert(T1 o);
     }
-    private static final int BUFSIZ = 1000;
+    private static final int BUFSIZ = 65536;
     /**
      * Read array of struct in byte array into list of objects.
      * @param t type
@@ -67,23 +75,54 @@ public class Util {
     }
     /**
      * Write list of objects into array of struct in byte array.
-     * Note: does not work with stucts containing VARSTR fields and STRUCT fields. 
+     * <br>
+     * The byte array is allocated once with the exact size calculated by {@link StructWriter#sizeOf(List)}.
      * @param t type
      * @param lst list of objects
      * @return byte array
      * @throws RecordException if problem with record definition
      */
     public static <T> byte[] writeAll(Class<T> t, List<T> lst) throws RecordException {
-        int siz = lst.size() * calcSize(t);
-        StructWriter sw = new StructWriter(siz);
+        StructWriter sw = new StructWriter(StructWriter.sizeOf(lst));
         for(T o : lst) {
             sw.write(o);
         }
         return sw.getBytes();
     }
+    /**
+     * Read array of struct in byte array into list of objects in parallel.
+     * <br>
+     * Fixed length structs are split by record index over the common ForkJoinPool, other structs are read as by {@link #readAll(Class, byte[])}.
+     * @param t type
+     * @param b byte array
+     * @return list of objects (fixed size for fixed length structs)
+     * @throws RecordException if problem with record definition
+     */
+    public static <T> List<T> readAllParallel(Class<T> t, byte[] b) throws RecordException {
+        int reclen = fixedLength(t, null);
+        if(reclen == 0) {
+            return readAll(t, b);
+        }
+        return BulkTasks.readAll(t, b, reclen);
+    }
+    /**
+     * Write list of objects into array of struct in byte array in parallel.
+     * <br>
+     * Fixed length structs are split by record index over the common ForkJoinPool, other structs are written as by {@link #writeAll(Class, List)}.
+     * @param t type
+     * @param lst list of objects
+     * @return byte array
+     * @throws RecordException if problem with record definition
+     */
+    public static <T> byte[] writeAllParallel(Class<T> t, List<T> lst) throws RecordException {
+        int reclen = fixedLength(t, null);
+        if(reclen == 0) {
+            return writeAll(t, lst);
+        }
+        return BulkTasks.writeAll(lst instanceof RandomAccess ? lst : new ArrayList<T>(lst), reclen);
+    }
     /**
      * Read array of struct in stream into list of objects. 
-     * Note: does not work with stucts containing VARSTR fields and STRUCT fields. 
      * @param t type
      * @param is stream
      * @param lst list of objects
@@ -102,7 +141,8 @@ public class Util {
     }
     /**
      * Write list of objects into array of struct in stream. 
-     * Note: does not work with stucts containing VARSTR fields and STRUCT fields. 
+     * <br>
+     * The structs are encoded into a single buffer that is written to the stream whenever it is full.
      * @param t type
      * @param lst list of objects
      * @param os stream
@@ -110,13 +150,23 @@ public class Util {
      * @throws IOException if problem with stream
      */
     public static <T> void writeAll(Class<T> t, List<T> lst, OutputStream os) throws RecordException, IOException {
-        for(int i = 0; i < lst.size(); i += BUFSIZ) {
-            os.write(writeAll(t, lst.subList(i, Math.min(i + BUFSIZ, lst.size()))));
+        StructWriter sw = new StructWriter(os);
+        try {
+            for(T o : lst) {
+                sw.write(o);
+            }
+        } catch(RecordException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw e;
         }
+        sw.flush();
     }
     /**
      * Read array of struct in stream and processes them by handler. 
-     * Note: does not work with stucts containing VARSTR fields and STRUCT fields. 
+     * <br>
+     * The stream is read ahead in a background thread, so if an exception is thrown then the bytes read ahead are lost.
      * @param t type
      * @param is stream
      * @param oh handler of objects
@@ -124,26 +174,57 @@ public class Util {
      * @throws IOException if problem with stream
      */
     public static <T> void readAll(Class<T> t, InputStream is, ObjectHandler<T> oh) throws RecordException, IOException {
-        int siz = BUFSIZ * calcSize(t);
-        boolean more = true;
-        while(more) {
-            byte[] b = new byte[siz];
-            int n = 0;
-            int ix = 0;
-            while((n = is.read(b, ix, b.length - ix)) > 0) {
-                ix += n;
+        ReadAheadChannel ch = ReadAheadChannel.open(is, BUFSIZ);
+        try {
+            StructStreamReader ssr = new StructStreamReader(ch, BUFSIZ);
+            while(ssr.more()) {
+                oh.process(ssr.read(t));
             }
-            if(ix < siz) {
-                byte[] tmp = new byte[ix];
-                System.arraycopy(b, 0, tmp, 0, ix);
-                b = tmp;
-                more = false;
+        } finally {
+            ch.finish();
+        }
+    }
+    /**
+     * Read array of struct in file and processes them by handler. 
+     * <br>
+     * The next part of the file is read while structs are decoded.
+     * @param t type
+     * @param p path of file
+     * @param oh handler of objects
+     * @throws RecordException if problem with record definition
+     * @throws IOException if problem with file
+     */
+    public static <T> void readAll(Class<T> t, Path p, ObjectHandler<T> oh) throws RecordException, IOException {
+        StructStreamReader ssr = new StructStreamReader(p, BUFSIZ);
+        try {
+            while(ssr.more()) {
+                oh.process(ssr.read(t));
             }
-            if(ix > 0) {
-                for(T o : readAll(t, b)) {
-                    oh.process(o);
-                }
+        } finally {
+            ssr.close();
+        }
+    }
+    /**
+     * Read array of struct in stream into the same object and processes it by handler. 
+     * <br>
+     * The handler gets the target object for every struct, so it must not keep a reference to it.
+     * The stream is read ahead in a background thread, so if an exception is thrown then the bytes read ahead are lost.
+     * @param target object to read into
+     * @param is stream
+     * @param oh handler of objects
+     * @throws RecordException if problem with record definition
+     * @throws IOException if problem with stream
+     */
+    public static <T> void readAllInto(T target, InputStream is, ObjectHandler<T> oh) throws RecordException, IOException {
+        ReadAheadChannel ch = ReadAheadChannel.open(is, BUFSIZ);
+        try {
+            StructStreamReader ssr = new StructStreamReader(ch, BUFSIZ);
+            while(ssr.more()) {
+                ssr.readInto(target);
+                oh.process(target);
             }
+        } finally {
+            ch.finish();
         }
     }
     /**
@@ -174,24 +255,165 @@ public class Util {
      * @throws IOException if problem with streams
      */
     public static <T1,T2> void copyAll(Class<T1> t1, InputStream is, Class<T2> t2, OutputStream os, Transformer<T1,T2> cvt) throws RecordException, IOException {
-        final OutputStream os2 = os;
         final Transformer<T1,T2> cvt2 = cvt;
-        readAll(t1,
-                is,
-                new ObjectHandler<T1>() {
-                    public void process(T1 o) throws RecordException, IOException {
-                        StructWriter sw = new StructWriter();
-                        sw.write(cvt2.convert(o));
-                        os2.write(sw.getBytes());
-                    }
-                } );
+        CopyPipeline.copy(t1, is, t2, os, new Function<T1, T2>() {
+            public T2 apply(T1 o) {
+                return cvt2.convert(o);
+            }
+        }, null);
     }
-    private static <T> int calcSize(Class<T> t) throws RecordException {
-        StructInfo si = StructInfoCache.analyze(t);
-        if(si.isFixedLength()) {
-            return si.getLength();
+    /**
+     * Stream of structs in byte array.
+     * <br>
+     * The stream is lazy. For fixed length structs it is sized and splits on record boundaries, so parallel streams scale.
+     * RecordException while reading is thrown as IllegalStateException.
+     * @param t type
+     * @param b byte array
+     * @return stream of objects
+     * @throws RecordException if problem with record definition
+     */
+    public static <T> Stream<T> stream(Class<T> t, byte[] b) throws RecordException {
+        return stream(t, b, null);
+    }
+    /**
+     * Stream of structs in byte array.
+     * <br>
+     * The stream is lazy. For fixed length structs it is sized and splits on record boundaries, so parallel streams scale.
+     * RecordException while reading is thrown as IllegalStateException.
+     * @param t type
+     * @param b byte array
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return stream of objects
+     * @throws RecordException if problem with record definition
+     */
+    public static <T> Stream<T> stream(Class<T> t, byte[] b, InfoProvider lenpvd) throws RecordException {
+        int reclen = fixedLength(t, lenpvd);
+        if(reclen > 0) {
+            return StreamSupport.stream(RecordStreams.fixed(t, b, reclen), false);
+        } else {
+            return StreamSupport.stream(RecordStreams.variable(t, b, lenpvd), false);
+        }
+    }
+    /**
+     * Stream of structs in file.
+     * <br>
+     * Files with fixed length structs are memory mapped (see {@link MappedRecordFile}). The stream must be closed to close the file.
+     * RecordException while reading is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param p file
+     * @return stream of objects
+     * @throws RecordException if problem with record definition
+     * @throws IOException if problem with file
+     */
+    public static <T> Stream<T> stream(Class<T> t, Path p) throws RecordException, IOException {
+        return stream(t, p, null);
+    }
+    /**
+     * Stream of structs in file.
+     * <br>
+     * Files with fixed length structs are memory mapped (see {@link MappedRecordFile}). The stream must be closed to close the file.
+     * RecordException while reading is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param p file
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return stream of objects
+     * @throws RecordException if problem with record definition
+     * @throws IOException if problem with file
+     */
+    public static <T> Stream<T> stream(Class<T> t, Path p, InfoProvider lenpvd) throws RecordException, IOException {
+        if(fixedLength(t, lenpvd) > 0) {
+            MappedRecordFile<T> mrf = new MappedRecordFile<T>(t, p.toFile());
+            return mrf.stream().onClose(closer(mrf));
         } else {
-            throw new RecordException("Cannot calculate size of " + t.getName() + " because it contains at least one field of type VARSTR");
+            StructStreamReader ssr = new StructStreamReader(p, BUFSIZ);
+            return StreamSupport.stream(RecordStreams.variable(t, ssr, lenpvd), false).onClose(closer(ssr));
         }
     }
+    /**
+     * Stream of structs in stream.
+     * <br>
+     * The stream is lazy and reads the structs as they are used. 
+     * RecordException while reading is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param is stream
+     * @return stream of objects
+     */
+    public static <T> Stream<T> stream(Class<T> t, InputStream is) {
+        return stream(t, is, null);
+    }
+    /**
+     * Stream of structs in stream.
+     * <br>
+     * The stream is lazy and reads the structs as they are used. 
+     * RecordException while reading is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param is stream
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return stream of objects
+     */
+    public static <T> Stream<T> stream(Class<T> t, InputStream is, InfoProvider lenpvd) {
+        return StreamSupport.stream(RecordStreams.variable(t, new StructStreamReader(is), lenpvd), false);
+    }
+    /**
+     * Collector writing objects into array of struct in byte array.
+     * <br>
+     * RecordException while writing is thrown as IllegalStateException.
+     * @param t type
+     * @return collector
+     */
+    public static <T> Collector<T, ?, byte[]> toBytes(Class<T> t) {
+        return toBytes(t, null);
+    }
+    /**
+     * Collector writing objects into array of struct in byte array.
+     * <br>
+     * RecordException while writing is thrown as IllegalStateException.
+     * @param t type
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return collector
+     */
+    public static <T> Collector<T, ?, byte[]> toBytes(Class<T> t, InfoProvider lenpvd) {
+        return new RecordStreams.EncodeCollector<T, byte[]>(t, lenpvd, null);
+    }
+    /**
+     * Collector writing objects into array of struct in stream.
+     * <br>
+     * Only for sequential streams, a parallel stream fails with IllegalStateException. The result is the number of bytes written.
+     * RecordException while writing is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param os stream
+     * @return collector
+     */
+    public static <T> Collector<T, ?, Long> toStream(Class<T> t, OutputStream os) {
+        return toStream(t, os, null);
+    }
+    /**
+     * Collector writing objects into array of struct in stream.
+     * <br>
+     * Only for sequential streams, a parallel stream fails with IllegalStateException. The result is the number of bytes written.
+     * RecordException while writing is thrown as IllegalStateException and IOException as UncheckedIOException.
+     * @param t type
+     * @param os stream
+     * @param lenpvd supplies various length'es where they are not given (null indicates that it is to be ignored)
+     * @return collector
+     */
+    public static <T> Collector<T, ?, Long> toStream(Class<T> t, OutputStream os, InfoProvider lenpvd) {
+        return new RecordStreams.EncodeCollector<T, Long>(t, lenpvd, os);
+    }
+    // length of struct if structs are back to back with fixed length otherwise 0
+    private static int fixedLength(Class<?> t, InfoProvider lenpvd) throws RecordException {
+        StructInfo si = StructInfoCache.analyze(t);
+        return lenpvd == null && si.hasFixedStride() ? si.getLength() : 0;
+    }
+    private static Runnable closer(final Closeable c) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    c.close();
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
 }
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * Utility class to process lists and to work with files instead of byte arrays
@@ -51,6 +52,7 @@ public class Util2 {
         public T2 convert(T1 o);
     }
     private static final int BUFSIZ = 1000;
+    private static final int READAHEAD = 65536;
     /**
      * Read array of struct in byte array into list of objects.
      * @param t type
@@ -76,14 +78,9 @@ public class Util2 {
      * @throws RecordException if problem with record definition
      */
     public static <T> byte[] writeAll(Class<T> t, List<T> lst, LengthProvider2 lenpvd) throws RecordException {
-    	int maxelm = 16;
-        StructWriter sw = new StructWriter(maxelm * calcSize(t, lenpvd));
+        StructWriter sw = new StructWriter(StructWriter.sizeOf(lst, StructReader.info(lenpvd)));
         for(T o : lst) {
             sw.write(o, lenpvd);
-            if(sw.getLength() + calcSize(t, lenpvd) > maxelm * calcSize(t, lenpvd)) {
-            	maxelm *= 2;
-            	sw.extend(maxelm * calcSize(t, lenpvd));
-            }
         }
         return sw.getBytes();
     }
@@ -123,6 +120,8 @@ public class Util2 {
     }
     /**
      * Read array of struct in stream and processes them by handler. 
+     * <br>
+     * The stream is read ahead in a background thread, so if an exception is thrown then the bytes read ahead are lost.
      * @param t type
      * @param is stream
      * @param oh handler of objects
@@ -131,26 +130,14 @@ public class Util2 {
      * @throws IOException if problem with stream
      */
     public static <T> void readAll(Class<T> t, InputStream is, ObjectHandler<T> oh, LengthProvider2 lenpvd) throws RecordException, IOException {
-        int siz = BUFSIZ * calcSize(t, lenpvd);
-        boolean more = true;
-        while(more) {
-            byte[] b = new byte[siz];
-            int n = 0;
-            int ix = 0;
-            while((n = is.read(b, ix, b.length - ix)) > 0) {
-                ix += n;
-            }
-            if(ix < siz) {
-                byte[] tmp = new byte[ix];
-                System.arraycopy(b, 0, tmp, 0, ix);
-                b = tmp;
-                more = false;
-            }
-            if(ix > 0) {
-                for(T o : readAll(t, b, lenpvd)) {
-                    oh.process(o);
-                }
+        ReadAheadChannel ch = ReadAheadChannel.open(is, READAHEAD);
+        try {
+            StructStreamReader ssr = new StructStreamReader(ch, READAHEAD);
+            while(ssr.more()) {
+                oh.process(ssr.read(t, lenpvd));
             }
+        } finally {
+            ch.finish();
         }
     }
     /**
@@ -183,29 +170,11 @@ public class Util2 {
      * @throws IOException if problem with streams
      */
     public static <T1,T2> void copyAll(Class<T1> t1, InputStream is, Class<T2> t2, OutputStream os, Transformer<T1,T2> cvt, LengthProvider2 lenpvd) throws RecordException, IOException {
-        final OutputStream os2 = os;
         final Transformer<T1,T2> cvt2 = cvt;
-        readAll(t1,
-                is,
-                new ObjectHandler<T1>() {
-                    public void process(T1 o) throws RecordException, IOException {
-                        StructWriter sw = new StructWriter();
-                        sw.write(cvt2.convert(o));
-                        os2.write(sw.getBytes());
-                    }
-                },
-                lenpvd);
-    }
-    private static <T> int calcSize(Class<T> t, LengthProvider2 lenpvd) throws RecordException {
-    	if(lenpvd != null && lenpvd.getMaxLength() >= 0) {
-    		return lenpvd.getMaxLength();
-    	} else {
-            StructInfo si = StructInfoCache.analyze(t);
-            if(si.isFixedLength()) {
-                return si.getLength();
-            } else {
-                throw new RecordException("Length provider not supplied and cannot calculate size of " + t.getName() + " because it contains at least one field of type VARSTR");
+        CopyPipeline.copy(t1, is, t2, os, new Function<T1, T2>() {
+            public T2 apply(T1 o) {
+                return cvt2.convert(o);
             }
-    	}
+        }, lenpvd != null ? StructReader.info(lenpvd) : null);
     }
 }
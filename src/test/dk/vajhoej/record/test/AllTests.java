@@ -27,7 +27,11 @@ import org.junit.runners.Suite.SuiteClasses;
                TestStructInfo.class,
                TestStructReader.class,
                TestStructWriter.class,
+               TestStructStreamReader.class,
+               TestRecordDecoder.class,
+               TestStructProcessor.class,
                TestUtil.class,
-               TestUtil2.class})
+               TestUtil2.class,
+               TestMappedRecordFile.class})
 public class AllTests {
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package dk.vajhoej.record.test;
+
+import dk.vajhoej.record.FieldType;
+import dk.vajhoej.record.Struct;
+import dk.vajhoej.record.StructField;
+
+@Struct
+public class ImmutableData {
+    @StructField(n=0,type=FieldType.INT1)
+    private final byte bv;
+    @StructField(n=1,type=FieldType.FP4)
+    private final float fv;
+    @StructField(n=2,type=FieldType.BOOLEAN,length=1)
+    private final boolean flag;
+    @StructField(n=3,type=FieldType.INT2)
+    private final int iv;
+    public ImmutableData(byte bv, float fv, boolean flag, int iv) {
+        this.bv = bv;
+        this.fv = fv;
+        this.flag = flag;
+        this.iv = iv;
+    }
+    public byte getBv() {
+        return bv;
+    }
+    public float getFv() {
+        return fv;
+    }
+    public boolean isFlag() {
+        return flag;
+    }
+    public int getIv() {
+        return iv;
+    }
+}
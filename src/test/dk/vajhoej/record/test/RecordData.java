@@ -0,0 +1,28 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package dk.vajhoej.record.test;
+
+import dk.vajhoej.record.FieldType;
+import dk.vajhoej.record.Struct;
+import dk.vajhoej.record.StructField;
+
+// components deliberately not in field order
+@Struct
+public record RecordData(@StructField(n=2,type=FieldType.FIXSTR,length=8,encoding="ISO-8859-1") String sv,
+                         @StructField(n=0,type=FieldType.INT4) int iv,
+                         @StructField(n=1,type=FieldType.FP8) double xv) {
+}
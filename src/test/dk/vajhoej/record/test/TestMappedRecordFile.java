@@ -0,0 +1,139 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.vajhoej.record.MappedRecordFile;
+import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.Util;
+
+public class TestMappedRecordFile {
+    private final static int N = 1000;
+    private static File create(int extra) throws IOException, RecordException {
+        List<Data> lst = new ArrayList<Data>();
+        for(int i = 0; i < N; i++) {
+            Data o = new Data();
+            o.setIv(i);
+            o.setXv(i * 0.5);
+            o.setSv("#" + (i + 1000000));
+            lst.add(o);
+        }
+        File f = File.createTempFile("mapped", ".dat");
+        FileOutputStream os = new FileOutputStream(f);
+        try {
+            Util.writeAll(Data.class, lst, os);
+            os.write(new byte[extra]);
+        } finally {
+            os.close();
+        }
+        return f;
+    }
+    private static void check(int i, Data o) {
+        assertEquals("iv #" + i, i, o.getIv());
+        assertEquals("xv #" + i, i * 0.5, o.getXv(), 0.0000001);
+        assertEquals("sv #" + i, "#" + (i + 1000000), o.getSv());
+    }
+    @Test
+    public void testGet() throws Exception {
+        File f = create(0);
+        try {
+            MappedRecordFile<Data> mrf = new MappedRecordFile<Data>(Data.class, f);
+            try {
+                assertEquals("size", N, mrf.size());
+                assertEquals("record length", 20, mrf.getRecordLength());
+                for(int i = N - 1; i >= 0; i--) {
+                    check(i, mrf.get(i));
+                }
+                Data o = new Data();
+                mrf.readInto(17, o);
+                check(17, o);
+                try {
+                    mrf.get(N);
+                    fail("Missing exception");
+                } catch(IndexOutOfBoundsException e) {
+                }
+            } finally {
+                mrf.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testWindows() throws Exception {
+        File f = create(0);
+        try {
+            // 7 records per window
+            MappedRecordFile<Data> mrf = new MappedRecordFile<Data>(Data.class, f, 7 * 20 + 5);
+            try {
+                for(int i = 0; i < N; i++) {
+                    check(i, mrf.get(i));
+                }
+                int n = 0;
+                for(Data o : mrf) {
+                    check(n, o);
+                    n++;
+                }
+                assertEquals("all", N, n);
+                Iterator<Data> it = mrf.iterator(5, 30);
+                for(int i = 5; i < 30; i++) {
+                    assertTrue("has next", it.hasNext());
+                    check(i, it.next());
+                }
+                assertFalse("no more", it.hasNext());
+            } finally {
+                mrf.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testNotWholeRecords() throws Exception {
+        File f = create(3);
+        try {
+            new MappedRecordFile<Data>(Data.class, f).close();
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("whole records"));
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testNotFixedLength() throws Exception {
+        File f = create(0);
+        try {
+            new MappedRecordFile<VariableData>(VariableData.class, f).close();
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("fixed length"));
+        } finally {
+            f.delete();
+        }
+    }
+}
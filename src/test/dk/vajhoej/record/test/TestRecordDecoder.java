@@ -0,0 +1,246 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.vajhoej.record.DecodeListener;
+import dk.vajhoej.record.FieldType;
+import dk.vajhoej.record.RecordDecoder;
+import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructReader;
+import dk.vajhoej.record.StructWriter;
+import dk.vajhoej.record.Util;
+
+public class TestRecordDecoder {
+    private static final int N = 1000;
+    private static List<StringData> stringData() {
+        List<StringData> lst = new ArrayList<StringData>();
+        for(int i = 0; i < N; i++) {
+            StringData o = new StringData();
+            o.setS1("ABCD");
+            o.setS2("ABCDEFGHIJ".substring(i % 10));
+            o.setS3("AB");
+            o.setS4("AB");
+            o.setS5(Integer.toString(i));
+            lst.add(o);
+        }
+        return lst;
+    }
+    private static class Collect<T> implements Util.ObjectHandler<T> {
+        private final List<T> res = new ArrayList<T>();
+        public void process(T o) {
+            res.add(o);
+        }
+    }
+    // each struct preceded by big endian length prefix and followed by padding
+    private static byte[] framed(List<?> lst, int prefixlength, int pad) throws RecordException, IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for(Object o : lst) {
+            StructWriter sw = new StructWriter();
+            sw.write(o);
+            byte[] rec = sw.getBytes();
+            if(prefixlength == 2) {
+                dos.writeShort(rec.length + pad);
+            } else {
+                dos.writeInt(rec.length + pad);
+            }
+            dos.write(rec);
+            dos.write(new byte[pad]);
+        }
+        return baos.toByteArray();
+    }
+    @Test
+    public void testDecodeChunks() throws RecordException, IOException {
+        List<StringData> lst = stringData();
+        byte[] b = Util.writeAll(StringData.class, lst);
+        Collect<StringData> oh = new Collect<StringData>();
+        RecordDecoder<StringData> dec = new RecordDecoder<StringData>(StringData.class, oh);
+        int off = 0;
+        int n = 0;
+        for(int i = 1; off < b.length; i = i % 7 + 1) {
+            int len = Math.min(i, b.length - off);
+            n += dec.decode(b, off, len);
+            off += len;
+        }
+        dec.finish();
+        assertEquals("count", N, n);
+        assertEquals("objects", N, oh.res.size());
+        for(int i = 0; i < N; i++) {
+            assertEquals("s2 " + i, lst.get(i).getS2(), oh.res.get(i).getS2());
+            assertEquals("s5 " + i, lst.get(i).getS5(), oh.res.get(i).getS5());
+        }
+        assertEquals("position", b.length, dec.getPosition());
+    }
+    @Test
+    public void testDecodeListener() throws RecordException, IOException {
+        byte[] b = Util.writeAll(StringData.class, stringData());
+        final List<Object> expected = new ArrayList<Object>();
+        StructReader sr = new StructReader(b);
+        sr.setDecodeListener(new DecodeListener() {
+            public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                expected.add(value);
+            }
+        });
+        while(sr.more()) {
+            sr.read(StringData.class);
+        }
+        // incomplete structs are read again but fields must only be seen once
+        final List<Object> actual = new ArrayList<Object>();
+        RecordDecoder<StringData> dec = new RecordDecoder<StringData>(StringData.class, new Collect<StringData>());
+        dec.setDecodeListener(new DecodeListener() {
+            public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                actual.add(value);
+            }
+        });
+        for(int off = 0; off < b.length; off += 3) {
+            dec.decode(b, off, Math.min(3, b.length - off));
+        }
+        dec.finish();
+        assertEquals("values", expected, actual);
+    }
+    @Test
+    public void testDecodeFramed() throws RecordException, IOException {
+        List<StringData> lst = stringData();
+        for(int prefixlength = 2; prefixlength <= 4; prefixlength += 2) {
+            byte[] b = framed(lst, prefixlength, 3);
+            Collect<StringData> oh = new Collect<StringData>();
+            RecordDecoder<StringData> dec = new RecordDecoder<StringData>(StringData.class, null, prefixlength, oh);
+            ByteBuffer bb = ByteBuffer.wrap(b);
+            while(bb.hasRemaining()) {
+                ByteBuffer chunk = bb.slice();
+                chunk.limit(Math.min(5, chunk.remaining()));
+                dec.decode(chunk);
+                bb.position(bb.position() + chunk.position());
+            }
+            dec.finish();
+            assertEquals("objects", N, oh.res.size());
+            for(int i = 0; i < N; i++) {
+                assertEquals("s5 " + i, lst.get(i).getS5(), oh.res.get(i).getS5());
+            }
+        }
+    }
+    @Test
+    public void testDecodePartial() throws RecordException, IOException {
+        byte[] b = Util.writeAll(StringData.class, stringData());
+        Collect<StringData> oh = new Collect<StringData>();
+        RecordDecoder<StringData> dec = new RecordDecoder<StringData>(StringData.class, oh);
+        dec.decode(b, 0, b.length - 1);
+        assertEquals("objects", N - 1, oh.res.size());
+        try {
+            dec.finish();
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("incomplete struct"));
+        }
+    }
+    @Test
+    public void testDecodeHugePrefix() throws RecordException, IOException {
+        Collect<StringData> oh = new Collect<StringData>();
+        RecordDecoder<StringData> dec = new RecordDecoder<StringData>(StringData.class, null, 4, oh);
+        byte[] b = { 0x7F, (byte)0xFF, (byte)0xFF, 0x00, 0x41, 0x42 };
+        try {
+            dec.decode(b, 0, b.length);
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("Invalid length prefix"));
+        }
+        RecordDecoder<StringData> dec2 = new RecordDecoder<StringData>(StringData.class, null, 2, 16, oh);
+        byte[] b2 = { 0x00, 0x11 };
+        try {
+            dec2.decode(b2, 0, b2.length);
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("Invalid length prefix"));
+        }
+        assertEquals("objects", 0, oh.res.size());
+    }
+    @Test
+    public void testDecodeLoopback() throws Exception {
+        final int nconn = 50;
+        final byte[] b = framed(stringData(), 2, 0);
+        Selector sel = Selector.open();
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        try {
+            ssc.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress addr = (InetSocketAddress)ssc.getLocalAddress();
+            Thread clients = new Thread() {
+                public void run() {
+                    try {
+                        for(int i = 0; i < nconn; i++) {
+                            SocketChannel sc = SocketChannel.open(addr);
+                            try {
+                                sc.write(ByteBuffer.wrap(b));
+                            } finally {
+                                sc.close();
+                            }
+                        }
+                    } catch(IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            clients.start();
+            ssc.configureBlocking(false);
+            ssc.register(sel, SelectionKey.OP_ACCEPT);
+            Collect<StringData> oh = new Collect<StringData>();
+            int done = 0;
+            while(done < nconn) {
+                sel.select(1000);
+                for(SelectionKey key : sel.selectedKeys()) {
+                    if(key.isAcceptable()) {
+                        SocketChannel sc = ssc.accept();
+                        if(sc != null) {
+                            sc.configureBlocking(false);
+                            sc.register(sel, SelectionKey.OP_READ, new RecordDecoder<StringData>(StringData.class, null, 2, oh));
+                        }
+                    } else if(key.isReadable()) {
+                        @SuppressWarnings("unchecked")
+                        RecordDecoder<StringData> dec = (RecordDecoder<StringData>)key.attachment();
+                        if(dec.read((SocketChannel)key.channel()) < 0) {
+                            dec.finish();
+                            key.channel().close();
+                            done++;
+                        }
+                    }
+                }
+                sel.selectedKeys().clear();
+            }
+            clients.join();
+            assertEquals("objects", nconn * N, oh.res.size());
+        } finally {
+            ssc.close();
+            sel.close();
+        }
+    }
+}
@@ -18,8 +18,17 @@ package dk.vajhoej.record.test;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
+import dk.vajhoej.record.FieldInfo;
+import dk.vajhoej.record.FieldOffset;
+import dk.vajhoej.record.FieldType;
 import dk.vajhoej.record.RecordException;
 import dk.vajhoej.record.StructInfo;
 import dk.vajhoej.record.StructInfoCache;
@@ -154,4 +163,168 @@ public class TestStructInfo {
             fail("Unexpected exception: " + e);
         }
     }
+    @Test
+    public void testOffsets() throws RecordException {
+        StructInfo si = StructInfoCache.analyze(AlignData2.class);
+        assertEquals("offsets", 4, si.getOffsets().size());
+        int[] offset = { 0, 8, 16, 24 };
+        int[] size = { 1, 2, 4, 8 };
+        for(int i = 0; i < 4; i++) {
+            FieldOffset fo = si.getOffsets().get(i);
+            assertEquals("offset " + i, offset[i], fo.getOffset());
+            assertEquals("size " + i, size[i], fo.getSize());
+            assertEquals("align " + i, size[i], fo.getAlign());
+        }
+        assertEquals("name", "i8", si.getOffsets().get(3).getName());
+    }
+    @Test
+    public void testOffsetsNested() throws RecordException {
+        StructInfo si = StructInfoCache.analyze(MainData.class);
+        assertEquals("offsets", 6, si.getOffsets().size());
+        assertEquals("i2", 4, si.getOffset("i2").getOffset());
+        assertEquals("s", 8, si.getOffset("s").getOffset());
+        assertEquals("s size", 8, si.getOffset("s").getSize());
+        assertEquals("s.i3", 8, si.getOffset("s.i3").getOffset());
+        assertEquals("s.i4", 12, si.getOffset("s.i4").getOffset());
+        assertEquals("i5", 16, si.getOffset("i5").getOffset());
+        assertNull("unknown", si.getOffset("i3"));
+    }
+    @Test
+    public void testOffsetsPrefix() throws RecordException {
+        StructInfo si = StructInfoCache.analyze(SuperData.class);
+        assertEquals("offsets", 2, si.getOffsets().size());
+        assertEquals("typ", 4, si.getOffset("typ").getOffset());
+        StructInfo si2 = StructInfoCache.analyze(SubDataOne.class);
+        assertEquals("offsets", 3, si2.getOffsets().size());
+        assertEquals("x", 8, si2.getOffset("x").getOffset());
+    }
+    @Test
+    public void testRecursive() {
+        try {
+            StructInfoCache.analyze(RecursiveData.class);
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("Recursive"));
+        }
+    }
+    @Test
+    public void testAnalysisTime() throws RecordException {
+        StructInfoCache.getInstance().reset();
+        assertEquals("reset", 0, StructInfoCache.getInstance().getAnalysisTime());
+        StructInfoCache.analyze(MainData.class);
+        long t = StructInfoCache.getInstance().getAnalysisTime();
+        assertTrue("analyzed", t > 0);
+        StructInfoCache.analyze(MainData.class);
+        StructInfoCache.analyze(FieldData.class);
+        assertEquals("cached", t, StructInfoCache.getInstance().getAnalysisTime());
+    }
+    @Test
+    public void testPreload() throws RecordException {
+        StructInfoCache cache = StructInfoCache.getInstance();
+        cache.reset();
+        List<Class<?>> classes = Arrays.<Class<?>>asList(Data.class, MainData.class, SuperDataPad.class, AlignData2.class, BitData.class);
+        cache.preload(classes);
+        for(Class<?> clz : classes) {
+            assertNotNull(clz.getName(), cache.get(clz));
+        }
+        try {
+            cache.preload(Arrays.<Class<?>>asList(Data.class, RecursiveData.class));
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("Recursive"));
+        }
+    }
+    @Test
+    public void testSnapshot() throws Exception {
+        StructInfoCache cache = StructInfoCache.getInstance();
+        cache.reset();
+        List<Class<?>> classes = Arrays.<Class<?>>asList(MainData.class, SuperDataPad.class);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        cache.saveSnapshot(os, classes);
+        List<FieldOffset> ref = new ArrayList<FieldOffset>(StructInfoCache.analyze(MainData.class).getOffsets());
+        int reflen = StructInfoCache.analyze(SuperDataPad.class).getLength();
+        cache.reset();
+        int n = cache.loadSnapshot(new ByteArrayInputStream(os.toByteArray()), getClass().getClassLoader());
+        assertTrue("loaded", n >= 5);
+        StructInfo si = StructInfoCache.analyze(MainData.class);
+        assertEquals("offsets", ref.size(), si.getOffsets().size());
+        for(int i = 0; i < ref.size(); i++) {
+            assertEquals("name", ref.get(i).getName(), si.getOffsets().get(i).getName());
+            assertEquals("offset", ref.get(i).getOffset(), si.getOffsets().get(i).getOffset());
+        }
+        assertEquals("length", reflen, StructInfoCache.analyze(SuperDataPad.class).getLength());
+        assertNotNull("sub class", cache.get(SubDataOnePad.class));
+        assertEquals("not analyzed", 0, cache.getAnalysisTime());
+    }
+    @Test
+    public void testSnapshotMismatch() throws Exception {
+        StructInfoCache cache = StructInfoCache.getInstance();
+        cache.reset();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        cache.saveSnapshot(os, Arrays.<Class<?>>asList(Data.class));
+        byte[] snap = os.toByteArray();
+        // change fingerprint
+        snap[12 + 2 + Data.class.getName().length() + 7] ^= 1;
+        cache.reset();
+        assertEquals("loaded", 0, cache.loadSnapshot(new ByteArrayInputStream(snap), getClass().getClassLoader()));
+        assertNull("not in cache", cache.get(Data.class));
+        try {
+            cache.loadSnapshot(new ByteArrayInputStream(new byte[16]), getClass().getClassLoader());
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("snapshot"));
+        }
+    }
+    @Test
+    public void testHandles() throws Throwable {
+        StructInfo si = StructInfoCache.analyze(Data.class);
+        Data o = new Data();
+        si.getFields().get(0).getSetter().invoke(o, 123);
+        si.getFields().get(2).getSetter().invoke(o, "ABC");
+        assertEquals("iv", 123, o.getIv());
+        assertEquals("sv", "ABC", o.getSv());
+        assertEquals("iv", 123, (int)si.getFields().get(0).getGetter().invoke(o));
+        assertEquals("sv", "ABC", (String)si.getFields().get(2).getGetter().invoke(o));
+    }
+    @Test
+    public void testHandlesNotAccessible() throws Throwable {
+        FieldInfo fi = new FieldInfo(FieldType.INT4, 0, 0, "ISO-8859-1", (byte)0, 0, int.class, Data.class.getDeclaredField("iv"), null, false, 1);
+        try {
+            fi.getSetter().invoke(new Data(), 123);
+            fail("Missing exception");
+        } catch(IllegalAccessException e) {
+        }
+    }
+    @Test
+    public void testCacheConcurrent() throws Exception {
+        StructInfoCache.getInstance().reset();
+        final StructInfo si = StructInfoCache.analyze(Data.class);
+        final int[] bad = new int[1];
+        Thread[] t = new Thread[8];
+        for(int i = 0; i < t.length; i++) {
+            t[i] = new Thread() {
+                public void run() {
+                    try {
+                        for(int j = 0; j < 10000; j++) {
+                            if(StructInfoCache.analyze(Data.class) != si) {
+                                synchronized(bad) {
+                                    bad[0]++;
+                                }
+                            }
+                        }
+                    } catch (RecordException e) {
+                        synchronized(bad) {
+                            bad[0]++;
+                        }
+                    }
+                }
+            };
+            t[i].start();
+        }
+        for(int i = 0; i < t.length; i++) {
+            t[i].join();
+        }
+        assertEquals("same StructInfo", 0, bad[0]);
+        assertEquals("hit rate", 80000.0 / 80001.0, StructInfoCache.getInstance().getHitRate(), 0.0000001);
+    }
 }
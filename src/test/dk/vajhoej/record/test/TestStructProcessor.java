@@ -0,0 +1,242 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import dk.vajhoej.record.LengthProvider;
+import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructInfoCache;
+import dk.vajhoej.record.StructProcessor;
+import dk.vajhoej.record.StructReader;
+import dk.vajhoej.record.StructWriter;
+
+public class TestStructProcessor {
+    private static final String GENDATA = "package gen;\n" +
+                                          "import dk.vajhoej.record.*;\n" +
+                                          "@Struct(endianess=Endian.BIG,alignment=Alignment.NATURAL,endpad=true)\n" +
+                                          "public class GenData {\n" +
+                                          "    @StructField(n=0,type=FieldType.INT1) private byte i1;\n" +
+                                          "    @StructField(n=1,type=FieldType.INT4) public int i4;\n" +
+                                          "    @StructField(n=2,type=FieldType.UINT1) public short u1;\n" +
+                                          "    @StructField(n=3,type=FieldType.FP8) public double d;\n" +
+                                          "    @StructField(n=4,type=FieldType.UINT2) public int u2;\n" +
+                                          "    public byte getI1() { return i1; }\n" +
+                                          "    public void setI1(byte i1) { this.i1 = i1; }\n" +
+                                          "}\n";
+    private static class Source extends SimpleJavaFileObject {
+        private String src;
+        public Source(String name, String src) {
+            super(URI.create("string:///" + name.replace('.', '/') + ".java"), Kind.SOURCE);
+            this.src = src;
+        }
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return src;
+        }
+    }
+    private static boolean compile(File dir, DiagnosticCollector<JavaFileObject> diag, String name, String src) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> opts = Arrays.asList("-d", dir.getPath(), "-classpath", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diag, opts, null, Arrays.asList(new Source(name, src)));
+        task.setProcessors(Arrays.asList(new StructProcessor()));
+        return task.call();
+    }
+    private static void delete(File f) {
+        File[] sub = f.listFiles();
+        if(sub != null) {
+            for(File f2 : sub) {
+                delete(f2);
+            }
+        }
+        f.delete();
+    }
+    private static List<String> errors(DiagnosticCollector<JavaFileObject> diag) {
+        List<String> res = new ArrayList<String>();
+        for(Diagnostic<? extends JavaFileObject> d : diag.getDiagnostics()) {
+            if(d.getKind() == Diagnostic.Kind.ERROR) {
+                res.add(d.getMessage(null));
+            }
+        }
+        return res;
+    }
+    @Test
+    public void testGenerate() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            boolean ok = compile(dir, diag, "gen.GenData", GENDATA);
+            assertTrue("compile " + errors(diag), ok);
+            assertTrue("codec class", new File(dir, "gen/GenDataCodec.class").exists());
+            URLClassLoader cl = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+            try {
+                Class<?> clz = cl.loadClass("gen.GenData");
+                assertEquals("codec", "gen.GenDataCodec", StructInfoCache.codec(clz).getClass().getName());
+                Object o = clz.getDeclaredConstructor().newInstance();
+                clz.getMethod("setI1", byte.class).invoke(o, (byte)-1);
+                clz.getField("i4").setInt(o, 0x01020304);
+                clz.getField("u1").setShort(o, (short)255);
+                clz.getField("d").setDouble(o, 123.456);
+                clz.getField("u2").setInt(o, 65535);
+                StructWriter sw = new StructWriter();
+                sw.write(o);
+                byte[] gen = sw.getBytes();
+                // interpreted by passing a LengthProvider
+                StructWriter sw2 = new StructWriter();
+                sw2.write(o, (LengthProvider)null);
+                byte[] ref = sw2.getBytes();
+                assertEquals("length", 32, gen.length);
+                assertArrayEquals("bytes", ref, gen);
+                StructReader sr = new StructReader(gen);
+                Object o2 = sr.read(clz);
+                assertEquals("more", false, sr.more());
+                assertEquals("i1", (byte)-1, clz.getMethod("getI1").invoke(o2));
+                assertEquals("i4", 0x01020304, clz.getField("i4").getInt(o2));
+                assertEquals("u1", 255, clz.getField("u1").getShort(o2));
+                assertEquals("d", 123.456, clz.getField("d").getDouble(o2), 0.0000001);
+                assertEquals("u2", 65535, clz.getField("u2").getInt(o2));
+                // end padding missing
+                try {
+                    new StructReader(gen, 0, 26).read(clz);
+                    fail("Exception expected");
+                } catch(RecordException e) {
+                    assertTrue("underflow", e.getCause() instanceof BufferUnderflowException);
+                }
+            } finally {
+                cl.close();
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+    @Test
+    public void testNotSupported() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            assertTrue("compile", compile(dir, diag, "gen.StrData", "package gen;\n" +
+                                                                  "import dk.vajhoej.record.*;\n" +
+                                                                  "@Struct\n" +
+                                                                  "public class StrData {\n" +
+                                                                  "    @StructField(n=0,type=FieldType.FIXSTR,length=4) public String s;\n" +
+                                                                  "}\n"));
+            assertFalse("codec class", new File(dir, "gen/StrDataCodec.class").exists());
+        } finally {
+            delete(dir);
+        }
+    }
+    @Test
+    public void testRecord() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            boolean ok = compile(dir, diag, "gen.RecData", "package gen;\n" +
+                                                          "import dk.vajhoej.record.*;\n" +
+                                                          "@Struct\n" +
+                                                          "public record RecData(@StructField(n=0,type=FieldType.INT4) int a) {\n" +
+                                                          "}\n");
+            assertTrue("compile " + errors(diag), ok);
+            assertFalse("codec class", new File(dir, "gen/RecDataCodec.class").exists());
+        } finally {
+            delete(dir);
+        }
+    }
+    @Test
+    public void testIllegalNumber() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            assertFalse("compile", compile(dir, diag, "gen.BadData", "package gen;\n" +
+                                                                   "import dk.vajhoej.record.*;\n" +
+                                                                   "@Struct\n" +
+                                                                   "public class BadData {\n" +
+                                                                   "    @StructField(n=0,type=FieldType.INT4) public int a;\n" +
+                                                                   "    @StructField(n=2,type=FieldType.INT4) public int b;\n" +
+                                                                   "}\n"));
+            assertEquals("errors", 1, errors(diag).size());
+            assertTrue("message", errors(diag).get(0).contains("illegal number"));
+        } finally {
+            delete(dir);
+        }
+    }
+    @Test
+    public void testDuplicateNumber() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            assertFalse("compile", compile(dir, diag, "gen.DupData", "package gen;\n" +
+                                                                   "import dk.vajhoej.record.*;\n" +
+                                                                   "@Struct\n" +
+                                                                   "public class DupData {\n" +
+                                                                   "    @StructField(n=0,type=FieldType.INT4) public int a;\n" +
+                                                                   "    @StructField(n=0,type=FieldType.INT4) public int b;\n" +
+                                                                   "}\n"));
+            assertEquals("errors", 1, errors(diag).size());
+            assertTrue("message", errors(diag).get(0).contains("duplicates"));
+        } finally {
+            delete(dir);
+        }
+    }
+    @Test
+    public void testMissingMetaData() throws Exception {
+        File dir = File.createTempFile("gen", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            DiagnosticCollector<JavaFileObject> diag = new DiagnosticCollector<JavaFileObject>();
+            assertFalse("compile", compile(dir, diag, "gen.NoMetaData", "package gen;\n" +
+                                                                      "import dk.vajhoej.record.*;\n" +
+                                                                      "@Struct\n" +
+                                                                      "public class NoMetaData {\n" +
+                                                                      "    @StructField(n=0,type=FieldType.INT4) public int a;\n" +
+                                                                      "    public int b;\n" +
+                                                                      "}\n"));
+            assertEquals("errors", 1, errors(diag).size());
+            assertTrue("message", errors(diag).get(0).contains("no meta-data"));
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -19,9 +19,16 @@ package dk.vajhoej.record.test;
 import static org.junit.Assert.*;
 
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -29,14 +36,20 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import org.junit.Assume;
 import org.junit.Test;
 
+import dk.vajhoej.record.DecodeListener;
+import dk.vajhoej.record.FieldType;
 import dk.vajhoej.record.LengthProvider;
 import dk.vajhoej.record.LengthProvider2;
 import dk.vajhoej.record.InfoProvider;
 import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructInfo;
 import dk.vajhoej.record.StructInfoCache;
+import dk.vajhoej.record.StructPool;
 import dk.vajhoej.record.StructReader;
+import dk.vajhoej.record.StructWriter;
 
 public class TestStructReader {
 	private final static int N = 100000;
@@ -57,6 +70,45 @@ public class TestStructReader {
 		}
 	}
 	@Test
+	public void testReadByteBuffer() throws RecordException {
+		byte[] b = { 0x02, 0x01, 0x00, 0x00,
+			         0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+				     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+		ByteBuffer bb = ByteBuffer.allocateDirect(3 + 2 * b.length + 5);
+		bb.put(new byte[3]);
+		bb.put(b);
+		bb.put(b);
+		bb.position(3);
+		bb.limit(3 + 2 * b.length);
+		bb.order(ByteOrder.BIG_ENDIAN);
+		StructReader sr = new StructReader(bb);
+		for(int i = 0; i < 2; i++) {
+			Data o = sr.read(Data.class);
+			assertEquals("iv", 258, o.getIv());
+			assertEquals("xv", 123.456, o.getXv(), 0.0005);
+			assertEquals("sv", "ABC     ", o.getSv());
+			assertEquals("position", (i + 1) * b.length, sr.getPosition());
+		}
+		assertEquals("more", false, sr.more());
+		assertEquals("buffer position", 3, bb.position());
+		assertEquals("buffer order", ByteOrder.BIG_ENDIAN, bb.order());
+	}
+	@Test
+	public void testReadByteArrayRange() throws RecordException {
+		byte[] b = { 0x7F, 0x7F, 0x7F,
+		             0x02, 0x01, 0x00, 0x00,
+			         0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+				     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20,
+				     0x7F };
+		StructReader sr = new StructReader(b, 3, 20);
+		Data o = sr.read(Data.class);
+		assertEquals("iv", 258, o.getIv());
+		assertEquals("xv", 123.456, o.getXv(), 0.0005);
+		assertEquals("sv", "ABC     ", o.getSv());
+		assertEquals("position", 20, sr.getPosition());
+		assertEquals("more", false, sr.more());
+	}
+	@Test
 	public void testReadMulti() {
 		byte[] b = { 0x01, 0x00, 0x00, 0x00,
 				     0x01, 0x00, 0x00, 0x00,
@@ -710,4 +762,350 @@ public class TestStructReader {
             fail("Unexpected exception: " + e);
         }
     }
+    @Test
+    public void testReadGenerated() {
+        byte[] b = { 0x01, 0x02, 0x00, 0x03,
+                     0x00, 0x00, 0x00, 0x04,
+                     0x00, 0x00, 0x00, 0x00,
+                     0x00, 0x00, 0x00,
+                     (byte)0xFF,
+                     (byte)0xFF, (byte)0xFF,
+                     (byte)0xFF, (byte)0xFF,(byte)0xFF, (byte)0xFF,
+                     0x00, 0x00, 0x01, 0x02 };
+        StructInfo.setGenerateCodec(true);
+        try {
+            assertNotNull("AlignData0 codec", StructInfoCache.analyze(AlignData0.class).getCodec());
+            assertNotNull("UnsignedData codec", StructInfoCache.analyze(UnsignedData.class).getCodec());
+            assertNotNull("BigEndianData codec", StructInfoCache.analyze(BigEndianData.class).getCodec());
+            assertNull("Data codec", StructInfoCache.analyze(Data.class).getCodec());
+            StructReader sr = new StructReader(b);
+            AlignData0 o1 = sr.read(AlignData0.class);
+            assertEquals("i1", 1, o1.getI1());
+            assertEquals("i2", 2, o1.getI2());
+            assertEquals("i4", 3, o1.getI4());
+            assertEquals("i8", 4, o1.getI8());
+            UnsignedData o2 = sr.read(UnsignedData.class);
+            assertEquals("ui1v", 255, o2.getUi1v());
+            assertEquals("ui2v", 65535, o2.getUi2v());
+            assertEquals("ui4v", 4294967295L, o2.getUi4v());
+            BigEndianData o3 = sr.read(BigEndianData.class);
+            assertEquals("iv", 258, o3.getIv());
+            assertEquals("more", false, sr.more());
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        } finally {
+            StructInfo.setGenerateCodec(false);
+        }
+    }
+    @Test
+    public void testReadGeneratedUnderflow() {
+        byte[] b = { 0x01, 0x02, 0x00, 0x03 };
+        StructInfo.setGenerateCodec(true);
+        try {
+            StructReader sr = new StructReader(b);
+            sr.read(AlignData0.class);
+            fail("Exception expected");
+        } catch (RecordException e) {
+            // expected
+        } finally {
+            StructInfo.setGenerateCodec(false);
+        }
+    }
+    @Test
+    public void testReadGeneratedPadding() throws RecordException {
+        byte[] b = { 0x01, 0x00, 0x02, 0x00,
+                     0x03, 0x00, 0x00, 0x00,
+                     0x04, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                     0x05, 0x00, 0x00, 0x00,
+                     0x06, 0x00, 0x00, 0x00 };
+        StructInfo.setGenerateCodec(true);
+        try {
+            assertNotNull("AlignData1 codec", StructInfoCache.analyze(AlignData1.class).getCodec());
+            assertNotNull("EndPadData2 codec", StructInfoCache.analyze(EndPadData2.class).getCodec());
+            StructReader sr = new StructReader(b);
+            AlignData1 o1 = sr.read(AlignData1.class);
+            assertEquals("i1", 1, o1.getI1());
+            assertEquals("i2", 2, o1.getI2());
+            assertEquals("i4", 3, o1.getI4());
+            assertEquals("i8", 4, o1.getI8());
+            EndPadData2 o2 = sr.read(EndPadData2.class);
+            assertEquals("iv", 5, o2.getIv());
+            assertEquals("bv", 6, o2.getBv());
+            assertEquals("more", false, sr.more());
+            StructWriter sw = new StructWriter();
+            sw.write(o1);
+            sw.write(o2);
+            assertArrayEquals("bytes", b, sw.getBytes());
+            // end padding missing
+            try {
+                new StructReader(b, 16, 5).read(EndPadData2.class);
+                fail("Exception expected");
+            } catch (RecordException e) {
+                assertTrue("underflow", e.getCause() instanceof BufferUnderflowException);
+            }
+        } finally {
+            StructInfo.setGenerateCodec(false);
+        }
+    }
+    @Test
+    public void testReadRecord() {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+        try {
+            StructReader sr = new StructReader(b);
+            RecordData o = sr.read(RecordData.class);
+            assertEquals("iv", 258, o.iv());
+            assertEquals("xv", 123.456, o.xv(), 0.0005);
+            assertEquals("sv", "ABC     ", o.sv());
+            assertEquals("more", false, sr.more());
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testReadImmutable() {
+        byte[] b = { (byte)0xFF,
+                     0x00, 0x00, (byte)0xC0, 0x3F,
+                     0x01,
+                     0x02, 0x01 };
+        try {
+            StructReader sr = new StructReader(b);
+            ImmutableData o = sr.read(ImmutableData.class);
+            assertEquals("bv", -1, o.getBv());
+            assertEquals("fv", 1.5, o.getFv(), 0.0);
+            assertEquals("flag", true, o.isFlag());
+            assertEquals("iv", 258, o.getIv());
+            assertEquals("more", false, sr.more());
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testReadIntoArray() {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x03, 0x01, 0x00, 0x00,
+                     0x04, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x05, 0x01, 0x00, 0x00,
+                     0x06, 0x01, 0x00, 0x00,
+                     0x07, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40 };
+        try {
+            StructReader sr = new StructReader(b);
+            ArrayData o = new ArrayData();
+            sr.readInto(o);
+            for(int ix = 0; ix < 3; ix++) {
+                assertEquals("iv", 258 + ix, o.getIv(ix));
+                assertEquals("xv", 123.456, o.getXv(ix), 0.0005);
+            }
+            sr.readInto(o);
+            for(int ix = 0; ix < 3; ix++) {
+                assertEquals("iv", 261 + ix, o.getIv(ix));
+                assertEquals("xv", 123.456, o.getXv(ix), 0.0005);
+            }
+            assertEquals("more", false, sr.more());
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testReadIntoStructField() {
+        byte[] b = { 0x01, 0x00, 0x00, 0x00,
+                     0x02, 0x00, 0x00, 0x00,
+                     0x03, 0x00, 0x00, 0x00,
+                     0x04, 0x00, 0x00, 0x00,
+                     0x05, 0x00, 0x00, 0x00,
+                     0x06, 0x00, 0x00, 0x00,
+                     0x07, 0x00, 0x00, 0x00,
+                     0x08, 0x00, 0x00, 0x00,
+                     0x09, 0x00, 0x00, 0x00,
+                     0x0A, 0x00, 0x00, 0x00 };
+        try {
+            StructReader sr = new StructReader(b);
+            MainData o = new MainData();
+            sr.readInto(o);
+            FieldData s = o.s;
+            assertNotNull("s", s);
+            assertEquals("i1", 1, o.getI1());
+            assertEquals("i3", 3, o.s.getI3());
+            assertEquals("i5", 5, o.getI5());
+            sr.readInto(o);
+            assertSame("s", s, o.s);
+            assertEquals("i1", 6, o.getI1());
+            assertEquals("i2", 7, o.getI2());
+            assertEquals("i3", 8, o.s.getI3());
+            assertEquals("i4", 9, o.s.getI4());
+            assertEquals("i5", 10, o.getI5());
+            assertEquals("more", false, sr.more());
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test(expected=RecordException.class)
+    public void testReadIntoRecord() throws RecordException {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+        StructReader sr = new StructReader(b);
+        sr.readInto(new RecordData(null, 0, 0.0));
+    }
+    @Test
+    public void testReadListener() {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+        try {
+            StructReader sr = new StructReader(b);
+            assertNull("default listener", sr.getDecodeListener());
+            final List<String> trace = new ArrayList<String>();
+            sr.setDecodeListener(new DecodeListener() {
+                public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                    trace.add(struct.getSimpleName() + " " + n + " " + type + " " + offset + " " + value);
+                }
+            });
+            Data o = sr.read(Data.class);
+            assertEquals("iv", 258, o.getIv());
+            assertEquals("trace", 3, trace.size());
+            assertEquals("trace 0", "Data 0 INT4 0 258", trace.get(0));
+            assertEquals("trace 1", "Data 1 FP8 4 123.456", trace.get(1));
+            assertEquals("trace 2", "Data 2 FIXSTR 12 ABC     ", trace.get(2));
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testReadSelectorSinglePass() {
+        byte[] b = { 0x01, 0x00, 0x00, 0x00,
+                     0x01, 0x00, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40 };
+        try {
+            StructReader sr = new StructReader(b);
+            final List<String> trace = new ArrayList<String>();
+            sr.setDecodeListener(new DecodeListener() {
+                public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                    trace.add(struct.getSimpleName() + " " + n + " " + offset);
+                }
+            });
+            SuperData o = sr.read(SuperData.class);
+            assertEquals("id", 1, o.getId());
+            assertEquals("typ", 1, o.getTyp());
+            assertEquals("x", 123.456, ((SubDataOne)o).getX(), 0.0005);
+            assertEquals("more", false, sr.more());
+            assertEquals("trace", 3, trace.size());
+            assertEquals("trace 0", "SuperData 0 0", trace.get(0));
+            assertEquals("trace 1", "SuperData 1 4", trace.get(1));
+            assertEquals("trace 2", "SubDataOne 2 8", trace.get(2));
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    private static long allocatedBytes() {
+        ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(tmx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean tmx2 = (com.sun.management.ThreadMXBean)tmx;
+        Assume.assumeTrue(tmx2.isThreadAllocatedMemorySupported() && tmx2.isThreadAllocatedMemoryEnabled());
+        return tmx2.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    private static void readInto(byte[] b, int n, AlignData2 o1, BooleanData o2) throws RecordException {
+        StructReader sr = new StructReader(b);
+        for(int i = 0; i < n; i++) {
+            sr.readInto(o1);
+        }
+        for(int i = 0; i < n; i++) {
+            sr.readInto(o2);
+        }
+    }
+    @Test
+    public void testReadAllocation() throws RecordException {
+        byte[] b1 = { 0x01, 0x00, 0x00, 0x00,
+                      0x00, 0x00, 0x00, 0x00,
+                      0x02, 0x00, 0x00, 0x00,
+                      0x00, 0x00, 0x00, 0x00,
+                      0x03, 0x00, 0x00, 0x00,
+                      0x00, 0x00, 0x00, 0x00,
+                      0x04, 0x00, 0x00, 0x00,
+                      0x00, 0x00, 0x00, 0x00 };
+        byte[] b2 = { 0x01, 0x00, 0x00, 0x00,
+                      0x00, 0x00,
+                      0x01 };
+        int n = 10000;
+        byte[] b = new byte[n * (b1.length + b2.length)];
+        for(int i = 0; i < n; i++) {
+            System.arraycopy(b1, 0, b, i * b1.length, b1.length);
+            System.arraycopy(b2, 0, b, n * b1.length + i * b2.length, b2.length);
+        }
+        AlignData2 o1 = new AlignData2();
+        BooleanData o2 = new BooleanData();
+        // warm up
+        for(int i = 0; i < 5; i++) {
+            readInto(b, n, o1, o2);
+        }
+        long before = allocatedBytes();
+        readInto(b, n, o1, o2);
+        long after = allocatedBytes();
+        assertEquals("i8", 4, o1.getI8());
+        assertEquals("b3", true, o2.isB3());
+        // allow for the StructReader itself and a little noise
+        assertTrue("allocated " + (after - before) + " bytes for " + 2 * n + " records", after - before < n);
+    }
+    @Test
+    public void testReadReset() throws RecordException {
+        byte[] b1 = { 0x01, 0x00, 0x00, 0x00,
+                      0x02, 0x00, 0x00, 0x00 };
+        byte[] b2 = { 0x03, 0x00, 0x00, 0x00,
+                      0x04, 0x00, 0x00, 0x00 };
+        StructReader sr = new StructReader(b1);
+        EndPadData2 o = sr.read(EndPadData2.class);
+        assertEquals("first", 1, o.getIv());
+        sr.reset(b2);
+        sr.readInto(o);
+        assertEquals("other array", 3, o.getIv());
+        sr.reset(b2);
+        sr.readInto(o);
+        assertEquals("same array", 3, o.getIv());
+        ByteBuffer bb = ByteBuffer.wrap(b1);
+        sr.reset(bb);
+        sr.readInto(o);
+        assertEquals("buffer", 1, o.getIv());
+        assertEquals("buffer position", 0, bb.position());
+        assertFalse("more", sr.more());
+    }
+    private static void gateway(byte[] msg, byte[] reply, int n, AlignData2 o) throws RecordException {
+        for(int i = 0; i < n; i++) {
+            StructPool.reader(msg).readInto(o);
+            o.setI8(o.getI8() + 1);
+            StructWriter sw = StructPool.writer();
+            sw.write(o);
+            sw.writeTo(reply, 0);
+        }
+    }
+    @Test
+    public void testReadPoolAllocation() throws RecordException {
+        byte[] msg = { 0x01, 0x00, 0x00, 0x00,
+                       0x00, 0x00, 0x00, 0x00,
+                       0x02, 0x00, 0x00, 0x00,
+                       0x00, 0x00, 0x00, 0x00,
+                       0x03, 0x00, 0x00, 0x00,
+                       0x00, 0x00, 0x00, 0x00,
+                       0x04, 0x00, 0x00, 0x00,
+                       0x00, 0x00, 0x00, 0x00 };
+        byte[] reply = new byte[msg.length];
+        int n = 10000;
+        AlignData2 o = new AlignData2();
+        // warm up
+        for(int i = 0; i < 5; i++) {
+            gateway(msg, reply, n, o);
+        }
+        long before = allocatedBytes();
+        gateway(msg, reply, n, o);
+        long after = allocatedBytes();
+        assertEquals("reply", 5, reply[24]);
+        // allow for a little noise
+        assertTrue("allocated " + (after - before) + " bytes for " + n + " messages", after - before < n);
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2026 Arne Vajhj.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.vajhoej.record.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.vajhoej.record.DecodeListener;
+import dk.vajhoej.record.FieldType;
+import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructReader;
+import dk.vajhoej.record.StructStreamReader;
+import dk.vajhoej.record.StructWriter;
+import dk.vajhoej.record.Util;
+
+public class TestStructStreamReader {
+    private final static int N = 500;
+    // stream returning few bytes per read
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        public TrickleInputStream(byte[] b) {
+            super(b);
+        }
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + pos % 3));
+        }
+    }
+    private static String str(int i) {
+        StringBuilder sb = new StringBuilder();
+        for(int j = 0; j < i % 37; j++) {
+            sb.append((char)('A' + j % 26));
+        }
+        return sb.toString();
+    }
+    private static byte[] stringData() throws RecordException {
+        StructWriter sw = new StructWriter(N * 100);
+        for(int i = 0; i < N; i++) {
+            StringData o = new StringData();
+            o.setS1("ABCD");
+            o.setS2(str(i));
+            o.setS3("AB");
+            o.setS4("AB");
+            o.setS5(str(i + 5));
+            sw.write(o);
+        }
+        return sw.getBytes();
+    }
+    @Test
+    public void testReadVariable() throws RecordException, IOException {
+        byte[] b = stringData();
+        StructStreamReader ssr = new StructStreamReader(new TrickleInputStream(b), 16);
+        int n = 0;
+        while(ssr.more()) {
+            StringData o = ssr.read(StringData.class);
+            assertEquals("s1 #" + n, "ABCD", o.getS1());
+            assertEquals("s2 #" + n, str(n), o.getS2());
+            assertEquals("s3 #" + n, "AB", o.getS3());
+            assertEquals("s5 #" + n, str(n + 5), o.getS5());
+            n++;
+        }
+        assertEquals("records", N, n);
+        assertEquals("position", b.length, ssr.getPosition());
+    }
+    private static class CollectingDecodeListener implements DecodeListener {
+        private final List<Object> values = new ArrayList<Object>();
+        public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+            values.add(value);
+        }
+    }
+    @Test
+    public void testReadListener() throws RecordException, IOException {
+        byte[] b = stringData();
+        CollectingDecodeListener expected = new CollectingDecodeListener();
+        StructReader sr = new StructReader(b);
+        sr.setDecodeListener(expected);
+        while(sr.more()) {
+            sr.read(StringData.class);
+        }
+        // structs crossing end of buffer are read again but fields must only be seen once
+        CollectingDecodeListener actual = new CollectingDecodeListener();
+        StructStreamReader ssr = new StructStreamReader(new TrickleInputStream(b), 16);
+        ssr.setDecodeListener(actual);
+        while(ssr.more()) {
+            ssr.read(StringData.class);
+        }
+        assertEquals("values", expected.values, actual.values);
+    }
+    @Test
+    public void testReadSelector() throws RecordException, IOException {
+        StructWriter sw = new StructWriter(N * 24);
+        for(int i = 0; i < N; i++) {
+            if(i % 2 == 0) {
+                SubDataOne o = new SubDataOne();
+                o.setId(i);
+                o.setTyp(1);
+                o.setX(i * 0.5);
+                sw.write(o);
+            } else {
+                SubDataTwo o = new SubDataTwo();
+                o.setId(i);
+                o.setTyp(2);
+                o.setS(String.format("#%-11d", i));
+                sw.write(o);
+            }
+        }
+        StructStreamReader ssr = new StructStreamReader(Channels.newChannel(new TrickleInputStream(sw.getBytes())), 30);
+        for(int i = 0; i < N; i++) {
+            assertTrue("more", ssr.more());
+            SuperData o = ssr.read(SuperData.class);
+            assertEquals("id", i, o.getId());
+            if(i % 2 == 0) {
+                assertEquals("x", i * 0.5, ((SubDataOne)o).getX(), 0.0000001);
+            } else {
+                assertEquals("s", "#" + i, ((SubDataTwo)o).getS().trim());
+            }
+        }
+        assertFalse("no more", ssr.more());
+    }
+    @Test
+    public void testReadAligned() throws RecordException, IOException {
+        StructWriter sw = new StructWriter(N * 40);
+        for(int i = 0; i < N; i++) {
+            BooleanData o1 = new BooleanData();
+            o1.setB3(i % 2 == 0);
+            sw.write(o1);
+            AlignData2 o2 = new AlignData2();
+            o2.setI8(i);
+            sw.write(o2);
+        }
+        InputStream is = new TrickleInputStream(sw.getBytes());
+        StructStreamReader ssr = new StructStreamReader(is, 20);
+        BooleanData o1 = new BooleanData();
+        for(int i = 0; i < N; i++) {
+            ssr.readInto(o1);
+            assertEquals("b3", i % 2 == 0, o1.isB3());
+            assertEquals("i8", i, ssr.read(AlignData2.class).getI8());
+        }
+        assertFalse("no more", ssr.more());
+    }
+    @Test
+    public void testReadTruncated() throws RecordException, IOException {
+        byte[] b = stringData();
+        byte[] b2 = new byte[b.length - 1];
+        System.arraycopy(b, 0, b2, 0, b2.length);
+        StructStreamReader ssr = new StructStreamReader(new ByteArrayInputStream(b2), 64);
+        for(int i = 0; i < N - 1; i++) {
+            ssr.read(StringData.class);
+        }
+        assertTrue("more", ssr.more());
+        try {
+            ssr.read(StringData.class);
+            fail("Missing exception");
+        } catch(RecordException e) {
+            assertTrue("message", e.getMessage().contains("Not enough bytes"));
+        }
+    }
+    @Test
+    public void testReadFile() throws RecordException, IOException {
+        byte[] b = stringData();
+        File f = File.createTempFile("readahead", ".dat");
+        try {
+            Files.write(f.toPath(), b);
+            StructStreamReader ssr = new StructStreamReader(f.toPath(), 16);
+            try {
+                int n = 0;
+                while(ssr.more()) {
+                    StringData o = ssr.read(StringData.class);
+                    assertEquals("s2 #" + n, str(n), o.getS2());
+                    assertEquals("s5 #" + n, str(n + 5), o.getS5());
+                    n++;
+                }
+                assertEquals("records", N, n);
+                assertEquals("position", b.length, ssr.getPosition());
+            } finally {
+                ssr.close();
+            }
+            final List<StringData> lst = new ArrayList<StringData>();
+            Util.readAll(StringData.class, f.toPath(), new Util.ObjectHandler<StringData>() {
+                public void process(StringData o) {
+                    lst.add(o);
+                }
+            });
+            assertEquals("records", N, lst.size());
+            assertEquals("last", str(N + 4), lst.get(N - 1).getS5());
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testReadAheadStream() throws RecordException, IOException {
+        byte[] b = stringData();
+        final List<StringData> lst = new ArrayList<StringData>();
+        Util.readAll(StringData.class, new TrickleInputStream(b), new Util.ObjectHandler<StringData>() {
+            public void process(StringData o) {
+                lst.add(o);
+            }
+        });
+        assertEquals("records", N, lst.size());
+        for(int i = 0; i < N; i++) {
+            assertEquals("s2 #" + i, str(i), lst.get(i).getS2());
+        }
+    }
+    @Test
+    public void testNonBlockingChannel() throws IOException {
+        Pipe p = Pipe.open();
+        try {
+            p.source().configureBlocking(false);
+            try {
+                new StructStreamReader(p.source());
+                fail("Non-blocking channel accepted");
+            } catch(IllegalArgumentException e) {
+                assertTrue("message", e.getMessage().contains("RecordDecoder"));
+            }
+            p.source().configureBlocking(true);
+            new StructStreamReader(p.source());
+        } finally {
+            p.source().close();
+            p.sink().close();
+        }
+    }
+}
@@ -18,10 +18,25 @@ package dk.vajhoej.record.test;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -29,12 +44,16 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import org.junit.Assume;
 import org.junit.Test;
 
+import dk.vajhoej.record.EncodeListener;
+import dk.vajhoej.record.FieldType;
 import dk.vajhoej.record.InfoProvider;
 import dk.vajhoej.record.LengthProvider;
 import dk.vajhoej.record.LengthProvider2;
 import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructInfo;
 import dk.vajhoej.record.StructInfoCache;
 import dk.vajhoej.record.StructWriter;
 
@@ -680,6 +699,227 @@ public class TestStructWriter {
         } catch (RecordException e) {
             fail("Unexpected exception: " + e);
         }
+    }
+	@Test
+	public void testWriteByteBuffer() throws RecordException {
+		byte[] b = { 0x02, 0x01, 0x00, 0x00,
+				     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+				     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+		ByteBuffer bb = ByteBuffer.allocateDirect(3 + b.length);
+		bb.position(3);
+		bb.order(ByteOrder.BIG_ENDIAN);
+		StructWriter sw = new StructWriter(bb);
+		Data o = new Data();
+		o.setIv(258);
+		o.setXv(123.456);
+		o.setSv("ABC     ");
+		sw.write(o);
+		assertEquals("length", b.length, sw.getLength());
+		assertArrayEquals("bytes", b, sw.getBytes());
+		assertEquals("buffer position", 3, bb.position());
+		assertEquals("buffer order", ByteOrder.BIG_ENDIAN, bb.order());
+		for(int i = 0; i < b.length; i++) {
+			assertEquals("byte " + i, b[i], bb.get(3 + i));
+		}
+		try {
+			sw.write(o);
+			fail("Missing exception");
+		} catch (BufferOverflowException e) {
+		}
+		try {
+			sw.extend(100);
+			fail("Missing exception");
+		} catch (IllegalStateException e) {
+		}
+	}
+    private static void writeMixed(StructWriter sw, int n) throws RecordException {
+        for(int i = 0; i < n; i++) {
+            BooleanData o1 = new BooleanData();
+            o1.setB3(i % 2 == 0);
+            sw.write(o1);
+            AlignData2 o2 = new AlignData2();
+            o2.setI8(i);
+            sw.write(o2);
+        }
+    }
+    @Test
+    public void testWriteGrow() throws RecordException {
+        StructWriter ref = new StructWriter(N * 40);
+        writeMixed(ref, N);
+        StructWriter sw = new StructWriter(10);
+        writeMixed(sw, N);
+        assertEquals("length", ref.getLength(), sw.getLength());
+        assertArrayEquals("bytes", ref.getBytes(), sw.getBytes());
+        sw.extend(sw.getLength() + 1000);
+        writeMixed(sw, 1);
+        writeMixed(ref, 1);
+        assertArrayEquals("bytes after extend", ref.getBytes(), sw.getBytes());
+    }
+    @Test
+    public void testWriteTo() throws RecordException, IOException {
+        StructWriter sw = new StructWriter(100);
+        writeMixed(sw, 1000);
+        byte[] b = sw.getBytes();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertEquals("length", b.length, sw.writeTo(Channels.newChannel(os)));
+        assertArrayEquals("stream", b, os.toByteArray());
+        File f = File.createTempFile("writeto", ".dat");
+        try {
+            FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+            try {
+                assertEquals("length", b.length, sw.writeTo(fc));
+            } finally {
+                fc.close();
+            }
+            assertArrayEquals("file", b, Files.readAllBytes(f.toPath()));
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testWriteChannel() throws RecordException, IOException {
+        StructWriter ref = new StructWriter();
+        writeMixed(ref, 1000);
+        byte[] b = ref.getBytes();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        StructWriter sw = new StructWriter(Channels.newChannel(os), 64, true);
+        writeMixed(sw, 1000);
+        assertEquals("position", b.length, sw.getPosition());
+        sw.close();
+        assertEquals("pending", 0, sw.getLength());
+        assertArrayEquals("channel", b, os.toByteArray());
+        os = new ByteArrayOutputStream();
+        sw = new StructWriter(os, 3);
+        writeMixed(sw, 1000);
+        sw.flush();
+        assertArrayEquals("stream", b, os.toByteArray());
+        try {
+            sw.getBytes();
+            fail("getBytes when writing to stream");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+    @Test
+    public void testWriteReset() throws RecordException, IOException {
+        StructWriter ref = new StructWriter();
+        writeMixed(ref, 10);
+        byte[] b = ref.getBytes();
+        StructWriter sw = new StructWriter(10);
+        writeMixed(sw, 100);
+        sw.reset();
+        assertEquals("empty", 0, sw.getLength());
+        writeMixed(sw, 10);
+        assertArrayEquals("reset", b, sw.getBytes());
+        byte[] dst = new byte[b.length];
+        sw.reset(dst);
+        writeMixed(sw, 10);
+        assertArrayEquals("in place", b, dst);
+        sw.reset(dst);
+        writeMixed(sw, 10);
+        assertEquals("same array", b.length, sw.getLength());
+        StructWriter sw2 = new StructWriter(new ByteArrayOutputStream());
+        try {
+            sw2.reset();
+            fail("reset when writing to stream");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+    @Test
+    public void testWriteToArray() throws RecordException {
+        StructWriter sw = new StructWriter(10);
+        writeMixed(sw, 100);
+        byte[] b = sw.getBytes();
+        byte[] dst = new byte[b.length + 3];
+        assertEquals("length", b.length, sw.writeTo(dst, 3));
+        assertArrayEquals("bytes", b, Arrays.copyOfRange(dst, 3, dst.length));
+        try {
+            sw.writeTo(dst, 4);
+            fail("no room");
+        } catch(IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+    private static void assertSize(String msg, Object o, InfoProvider lenpvd) throws RecordException {
+        StructWriter sw = new StructWriter(1);
+        sw.write(o, lenpvd);
+        assertEquals(msg, sw.getLength(), StructWriter.sizeOf(o, lenpvd));
+    }
+    @Test
+    public void testSizeOf() throws RecordException {
+        StringData o1 = new StringData();
+        o1.setS1("ABCD");
+        o1.setS2("ABCDEFGHIJ");
+        o1.setS3("AB");
+        o1.setS4("AB");
+        o1.setS5("");
+        assertSize("strings", o1, null);
+        assertEquals("strings", 27, StructWriter.sizeOf(o1));
+        RemainingStringData o2 = new RemainingStringData();
+        o2.setIv(258);
+        o2.setSv("ABCDEFG");
+        assertSize("remaining string", o2, null);
+        BitData o3 = new BitData();
+        assertSize("bits", o3, null);
+        SubDataOnePad o4 = new SubDataOnePad();
+        o4.setTyp(1);
+        assertSize("selector pad one", o4, null);
+        SubDataTwoPad o5 = new SubDataTwoPad();
+        o5.setTyp(2);
+        o5.setS("ABC         ");
+        assertSize("selector pad two", o5, null);
+        MainData o6 = new MainData();
+        o6.s = new FieldData();
+        assertSize("nested", o6, null);
+        VarArrayData o7 = new VarArrayData();
+        final int[] nelm = { 0 };
+        InfoProvider lenpvd = new InfoProvider() {
+            public int getLength(Object o, int n) {
+                return -1;
+            }
+            public int getMaxLength() {
+                return -1;
+            }
+            public int getElements(Object o, int n) {
+                return nelm[0];
+            }
+            public LengthProvider2 getLengthProvider(Object o, int n) {
+                return null;
+            }
+            public boolean hasConvertSelector() {
+                return false;
+            }
+            public int convertSelector(Object o) {
+                return 0;
+            }
+        };
+        for(nelm[0] = 0; nelm[0] <= 4; nelm[0]++) {
+            assertSize("elements " + nelm[0], o7, lenpvd);
+        }
+    }
+    @Test
+    public void testSizeOfList() throws RecordException {
+        List<Object> lst = new ArrayList<Object>();
+        for(int i = 0; i < 100; i++) {
+            BooleanData o1 = new BooleanData();
+            lst.add(o1);
+            StringData o2 = new StringData();
+            o2.setS1("ABCD");
+            o2.setS2("ABCDEFG".substring(i % 7));
+            o2.setS3("AB");
+            o2.setS4("AB");
+            o2.setS5("ABC");
+            lst.add(o2);
+            AlignData2 o3 = new AlignData2();
+            lst.add(o3);
+        }
+        StructWriter sw = new StructWriter(1);
+        for(Object o : lst) {
+            sw.write(o);
+        }
+        assertEquals("length", sw.getLength(), StructWriter.sizeOf(lst));
+        assertEquals("empty", 0, StructWriter.sizeOf(new ArrayList<Object>()));
     }
     @Test
     public void testWriteEndPad2() {
@@ -807,4 +1047,163 @@ public class TestStructWriter {
             fail("Unexpected exception: " + e);
         }
     }
+    @Test
+    public void testWriteGenerated() {
+        byte[] b = { 0x01, 0x02, 0x00, 0x03,
+                     0x00, 0x00, 0x00, 0x04,
+                     0x00, 0x00, 0x00, 0x00,
+                     0x00, 0x00, 0x00,
+                     (byte)0xFF,
+                     (byte)0xFF, (byte)0xFF,
+                     (byte)0xFF, (byte)0xFF,(byte)0xFF, (byte)0xFF,
+                     0x00, 0x00, 0x01, 0x02 };
+        StructInfo.setGenerateCodec(true);
+        try {
+            StructWriter sw = new StructWriter();
+            AlignData0 o1 = new AlignData0();
+            o1.setI1((byte) 1);
+            o1.setI2((short) 2);
+            o1.setI4(3);
+            o1.setI8(4);
+            sw.write(o1);
+            UnsignedData o2 = new UnsignedData();
+            o2.setUi1v((short)255);
+            o2.setUi2v(65535);
+            o2.setUi4v(4294967295L);
+            sw.write(o2);
+            BigEndianData o3 = new BigEndianData();
+            o3.setIv(258);
+            sw.write(o3);
+            assertNotNull("AlignData0 codec", StructInfoCache.analyze(AlignData0.class).getCodec());
+            byte[] res = sw.getBytes();
+            assertEquals("length", b.length, res.length);
+            for(int i = 0; i < res.length; i++) {
+                assertEquals("byte " + i, b[i], res[i]);
+            }
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        } finally {
+            StructInfo.setGenerateCodec(false);
+        }
+    }
+    @Test
+    public void testWriteRecord() {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+        try {
+            StructWriter sw = new StructWriter();
+            sw.write(new RecordData("ABC     ", 258, 123.456));
+            byte[] res = sw.getBytes();
+            assertEquals("length", b.length, res.length);
+            for(int i = 0; i < res.length; i++) {
+                assertEquals("byte " + i, b[i], res[i]);
+            }
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testWriteImmutable() {
+        byte[] b = { (byte)0xFF,
+                     0x00, 0x00, (byte)0xC0, 0x3F,
+                     0x01,
+                     0x02, 0x01 };
+        try {
+            StructWriter sw = new StructWriter();
+            sw.write(new ImmutableData((byte)-1, 1.5f, true, 258));
+            byte[] res = sw.getBytes();
+            assertEquals("length", b.length, res.length);
+            for(int i = 0; i < res.length; i++) {
+                assertEquals("byte " + i, b[i], res[i]);
+            }
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testWriteListener() {
+        try {
+            StructWriter sw = new StructWriter();
+            assertNull("default listener", sw.getEncodeListener());
+            final List<String> trace = new ArrayList<String>();
+            sw.setEncodeListener(new EncodeListener() {
+                public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                    trace.add(struct.getSimpleName() + " " + n + " " + type + " " + offset + " " + value);
+                }
+            });
+            Data o = new Data();
+            o.setIv(258);
+            o.setXv(123.456);
+            o.setSv("ABC     ");
+            sw.write(o);
+            assertEquals("length", 20, sw.getBytes().length);
+            assertEquals("trace", 3, trace.size());
+            assertEquals("trace 0", "Data 0 INT4 0 258", trace.get(0));
+            assertEquals("trace 1", "Data 1 FP8 4 123.456", trace.get(1));
+            assertEquals("trace 2", "Data 2 FIXSTR 12 ABC     ", trace.get(2));
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    @Test
+    public void testWriteGrowListener() throws RecordException {
+        // structs that do not fit are written again but fields must only be seen once
+        StructWriter sw = new StructWriter(10);
+        final List<Object> trace = new ArrayList<Object>();
+        sw.setEncodeListener(new EncodeListener() {
+            public void onField(Class<?> struct, int n, FieldType type, int offset, Object value) {
+                trace.add(value);
+            }
+        });
+        for(int i = 0; i < N; i++) {
+            Data o = new Data();
+            o.setIv(i);
+            o.setXv(i * 0.5);
+            o.setSv("ABC     ");
+            sw.write(o);
+        }
+        assertEquals("trace", 3 * N, trace.size());
+        for(int i = 0; i < N; i++) {
+            assertEquals("iv #" + i, i, trace.get(3 * i));
+        }
+    }
+    private static long allocatedBytes() {
+        ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(tmx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean tmx2 = (com.sun.management.ThreadMXBean)tmx;
+        Assume.assumeTrue(tmx2.isThreadAllocatedMemorySupported() && tmx2.isThreadAllocatedMemoryEnabled());
+        return tmx2.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    private static void write(StructWriter sw, int n, AlignData2 o1, BooleanData o2) throws RecordException {
+        for(int i = 0; i < n; i++) {
+            sw.write(o1);
+        }
+        for(int i = 0; i < n; i++) {
+            sw.write(o2);
+        }
+    }
+    @Test
+    public void testWriteAllocation() throws RecordException {
+        int n = 10000;
+        AlignData2 o1 = new AlignData2();
+        o1.setI1((byte)1);
+        o1.setI2((short)2);
+        o1.setI4(3);
+        o1.setI8(4);
+        BooleanData o2 = new BooleanData();
+        o2.setB1(true);
+        o2.setB3(true);
+        // warm up
+        for(int i = 0; i < 5; i++) {
+            write(new StructWriter(n * 39), n, o1, o2);
+        }
+        StructWriter sw = new StructWriter(n * 39);
+        long before = allocatedBytes();
+        write(sw, n, o1, o2);
+        long after = allocatedBytes();
+        assertEquals("length", n * 39, sw.getBytes().length);
+        // allow for a little noise
+        assertTrue("allocated " + (after - before) + " bytes for " + 2 * n + " records", after - before < n);
+    }
 }
@@ -20,13 +20,22 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
 import dk.vajhoej.record.RecordException;
+import dk.vajhoej.record.StructWriter;
 import dk.vajhoej.record.Util;
 
 public class TestUtil {
@@ -154,6 +163,166 @@ public class TestUtil {
         }
     }
     @Test
+    public void testReadIntoHandler() {
+        byte[] b = { 0x02, 0x01, 0x00, 0x00,
+                     0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
+                     0x41, 0x42, 0x43, 0x20, 0x20, 0x20, 0x20, 0x20 };
+        byte[] bm = new byte[N*b.length];
+        for(int i = 0; i < N; i++) {
+            System.arraycopy(b, 0, bm, i*b.length, b.length);
+        }
+        ByteArrayInputStream bais = new ByteArrayInputStream(bm);
+        final Data target = new Data();
+        final int[] count = new int[1];
+        try {
+            Util.readAllInto(target,
+                    bais,
+                    new Util.ObjectHandler<Data>() {
+                        public void process(Data o) {
+                            assertSame("target", target, o);
+                            assertEquals("iv", 258, o.getIv());
+                            assertEquals("xv", 123.456, o.getXv(), 0.0005);
+                            assertEquals("sv", "ABC     ", o.getSv());
+                            count[0]++;
+                        }
+                    } );
+            assertEquals("count", N, count[0]);
+        } catch (RecordException e) {
+            fail("Unexpected exception: " + e);
+        } catch (IOException e) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+    private static byte[] dataBytes() throws RecordException {
+        List<Data> lst = new ArrayList<Data>();
+        for(int i = 0; i < N; i++) {
+            Data o = new Data();
+            o.setIv(i);
+            o.setXv(i * 0.5);
+            o.setSv("ABC     ");
+            lst.add(o);
+        }
+        return Util.writeAll(Data.class, lst);
+    }
+    private static final ToLongFunction<Data> IV = new ToLongFunction<Data>() {
+        public long applyAsLong(Data o) {
+            return o.getIv();
+        }
+    };
+    @Test
+    public void testStreamFixed() throws RecordException {
+        byte[] b = dataBytes();
+        Spliterator<Data> sp = Util.stream(Data.class, b).spliterator();
+        assertTrue("sized", sp.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        assertEquals("size", N, sp.estimateSize());
+        assertEquals("sum", (long)N * (N - 1) / 2, Util.stream(Data.class, b).parallel().mapToLong(IV).sum());
+        List<Data> lst = Util.stream(Data.class, b).parallel().collect(Collectors.<Data>toList());
+        assertEquals("lst size", N, lst.size());
+        for(int i = 0; i < lst.size(); i++) {
+            assertEquals("iv #" + i, i, lst.get(i).getIv());
+        }
+        assertArrayEquals("bytes", b, lst.parallelStream().collect(Util.toBytes(Data.class)));
+    }
+    @Test
+    public void testStreamAligned() throws RecordException {
+        // 5 bytes but every struct starts at multiple of 4
+        StructWriter sw = new StructWriter(N * 8);
+        for(int i = 0; i < N; i++) {
+            EndPadData1 o = new EndPadData1();
+            o.setIv(i);
+            o.setBv((byte)i);
+            sw.write(o);
+        }
+        byte[] b = sw.getBytes();
+        List<EndPadData1> lst = Util.stream(EndPadData1.class, b).collect(Collectors.<EndPadData1>toList());
+        assertEquals("lst size", N, lst.size());
+        for(int i = 0; i < lst.size(); i++) {
+            assertEquals("iv #" + i, i, lst.get(i).getIv());
+            assertEquals("bv #" + i, (byte)i, lst.get(i).getBv());
+        }
+        assertArrayEquals("bytes", b, lst.parallelStream().collect(Util.toBytes(EndPadData1.class)));
+    }
+    @Test
+    public void testStreamInputStream() throws RecordException {
+        StructWriter sw = new StructWriter(N * 30);
+        for(int i = 0; i < N; i++) {
+            StringData o = new StringData();
+            o.setS1("ABCD");
+            o.setS2("#" + i);
+            o.setS3("AB");
+            o.setS4("AB");
+            o.setS5("X" + i);
+            sw.write(o);
+        }
+        byte[] b = sw.getBytes();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long n = Util.stream(StringData.class, new ByteArrayInputStream(b)).collect(Util.toStream(StringData.class, os));
+        assertEquals("length", b.length, n);
+        assertArrayEquals("bytes", b, os.toByteArray());
+    }
+    @Test
+    public void testStreamParallelToStream() throws RecordException {
+        List<Data> lst = Util.readAll(Data.class, dataBytes()).subList(0, 1000);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            lst.parallelStream().collect(Util.toStream(Data.class, os));
+            fail("Parallel collect to stream accepted");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        assertEquals("untouched", 0, os.size());
+    }
+    @Test
+    public void testStreamPath() throws RecordException, IOException {
+        byte[] b = dataBytes();
+        File f = File.createTempFile("stream", ".dat");
+        try {
+            FileOutputStream os = new FileOutputStream(f);
+            try {
+                os.write(b);
+            } finally {
+                os.close();
+            }
+            Stream<Data> s = Util.stream(Data.class, f.toPath());
+            try {
+                assertEquals("sum", (long)N * (N - 1) / 2, s.parallel().mapToLong(IV).sum());
+            } finally {
+                s.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+    @Test
+    public void testReadListParallel() throws RecordException {
+        byte[] b = dataBytes();
+        List<Data> lst = Util.readAllParallel(Data.class, b);
+        assertEquals("lst size", N, lst.size());
+        for(int i = 0; i < lst.size(); i++) {
+            assertEquals("iv #" + i, i, lst.get(i).getIv());
+            assertEquals("xv #" + i, i * 0.5, lst.get(i).getXv(), 0.0000001);
+        }
+        try {
+            Util.readAllParallel(Data.class, new byte[b.length + 1]);
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("whole records"));
+        }
+    }
+    @Test
+    public void testWriteListParallel() throws RecordException {
+        byte[] b = dataBytes();
+        List<Data> lst = Util.readAll(Data.class, b);
+        assertArrayEquals("bytes", b, Util.writeAllParallel(Data.class, lst));
+        lst.get(N - 10).setSv("ABC");
+        try {
+            Util.writeAllParallel(Data.class, lst);
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("Wrong length"));
+        }
+    }
+    @Test
     public void testCopyArrays() {
         byte[] b = { 0x02, 0x01, 0x00, 0x00,
                      0x77, (byte)0xBE, (byte)0x9F, 0x1A, 0x2F, (byte)0xDD, 0x5E, 0x40,
@@ -217,4 +386,74 @@ public class TestUtil {
             fail("Unexpected exception: " + e);
         }
     }
+    private static final Util.ObjectHandler<Data> FAIL = new Util.ObjectHandler<Data>() {
+        public void process(Data o) {
+            throw new IllegalStateException("Handler failed");
+        }
+    };
+    @Test(timeout = 10000)
+    public void testReadStreamHandlerFails() throws RecordException, IOException {
+        byte[] b = dataBytes();
+        // stream stays open without more data, so read ahead in progress never completes
+        PipedOutputStream pos = new PipedOutputStream();
+        PipedInputStream pis = new PipedInputStream(pos);
+        try {
+            pos.write(b, 0, 60);
+            try {
+                Util.readAll(Data.class, pis, FAIL);
+                fail("Missing exception");
+            } catch(IllegalStateException e) {
+                assertEquals("message", "Handler failed", e.getMessage());
+            }
+            pos.write(b, 60, 60);
+            try {
+                Util.readAllInto(new Data(), pis, FAIL);
+                fail("Missing exception");
+            } catch(IllegalStateException e) {
+                assertEquals("message", "Handler failed", e.getMessage());
+            }
+        } finally {
+            pos.close();
+            pis.close();
+        }
+    }
+    private static final Util.Transformer<Data, Data> INC = new Util.Transformer<Data, Data>() {
+        public Data convert(Data o) {
+            o.setIv(o.getIv() + 1);
+            return o;
+        }
+    };
+    @Test
+    public void testCopyStreamsMany() throws RecordException, IOException {
+        byte[] b = dataBytes();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Util.copyAll(Data.class, new ByteArrayInputStream(b), Data.class, baos, INC);
+        assertArrayEquals("bytes", Util.copyAll(Data.class, b, Data.class, INC), baos.toByteArray());
+    }
+    @Test
+    public void testCopyStreamsFixed() throws RecordException, IOException {
+        List<AlignData2> lst = new ArrayList<AlignData2>();
+        for(int i = 0; i < N; i++) {
+            AlignData2 o = new AlignData2();
+            o.setI8(i);
+            lst.add(o);
+        }
+        byte[] b = Util.writeAll(AlignData2.class, lst);
+        Util.Transformer<AlignData2, AlignData2> cvt = new Util.Transformer<AlignData2, AlignData2>() {
+            public AlignData2 convert(AlignData2 o) {
+                AlignData2 res = new AlignData2();
+                res.setI4((int)o.getI8());
+                return res;
+            }
+        };
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Util.copyAll(AlignData2.class, new ByteArrayInputStream(b), AlignData2.class, baos, cvt);
+        assertArrayEquals("bytes", Util.copyAll(AlignData2.class, b, AlignData2.class, cvt), baos.toByteArray());
+        try {
+            Util.copyAll(AlignData2.class, new ByteArrayInputStream(b, 0, b.length - 1), AlignData2.class, new ByteArrayOutputStream(), cvt);
+            fail("Missing exception");
+        } catch (RecordException e) {
+            assertTrue("message", e.getMessage().contains("Not enough bytes"));
+        }
+    }
 }